@@ -59,10 +59,14 @@
 package dataTypes;
 
 import java.util.List;
+import java.util.Vector;
 import java.util.concurrent.Callable;
 
 import org.citygml4j.model.citygml.building.BoundarySurfaceProperty;
 
+import helperClasses.MemoryEstimator;
+import helperClasses.PolygonConstructor;
+import voluminator.VolumeEngine;
 import voluminator.Voluminator;
 
 /**
@@ -77,17 +81,29 @@ public class BuildingCallable implements Callable<BuildingCallable>{
 
 	private String buildingId;
 	private double volume;
-	private int numVoxels0;
-	private int numVoxels1;
-	private int numVoxels2;
-	private int numVoxels3;
-	private int numVoxels4;
-	private int numVoxels5;
-	private int numVoxels6;
+	private double[] volumes;
+	private double usedVoxelsize;
+	private boolean exactVolumeUsed;
+	private VolumeEstimate volumeEstimate;
+	private double skippedFraction;
+	private long[] voteDepths = new long[4];
+	private long numVoxels0;
+	private long numVoxels1;
+	private long numVoxels2;
+	private long numVoxels3;
+	private long numVoxels4;
+	private long numVoxels5;
+	private long numVoxels6;
 	private long tBefore;
 	private long tAfter;
 	private List<BoundarySurfaceProperty> bsp;
+	private Vector<Polygon> polygons;	//polygons constructed in advance from bsp, may be null
 	private Options options;
+	private JobConfiguration job;			//configuration of the last computation
+	private VolumeResult deferredResult;	//keeps the voxel volume if its export is deferred, otherwise null
+	
+	//the engine is reentrant, so one instance serves all threads
+	private static final VolumeEngine ENGINE = new VolumeEngine();
 	
 	public BuildingCallable() {}
 
@@ -104,34 +120,71 @@ public class BuildingCallable implements Callable<BuildingCallable>{
 
 	@Override
 	public BuildingCallable call() throws Exception {
-		options.OBJfileInner = buildingId + "_" + options.voxelsize + "inner.obj";
-		options.OBJfileOuter = buildingId + "_" + options.voxelsize + "outer.obj";
-		tBefore = System.currentTimeMillis();
+		compute(false);
+		return this;
+	}
+	
+	/**
+	 * Computes the volume of the building with the shared VolumeEngine. The options are not changed, so they can be shared 
+	 * by several threads. If deferVoxelExport is set and the options request OBJ files of the voxel volume, 
+	 * the voxel volume is kept until it is written by writeVoxelvolume(), e.g. by another thread. 
+	 * Otherwise it is written (to getOBJfileInner() and getOBJfileOuter()) and released by the computation.
+	 * 
+	 * @param deferVoxelExport
+	 * @throws Exception
+	 */
+	public void compute(boolean deferVoxelExport) throws Exception {
 		
-		Voluminator v = new Voluminator(options);
+		tBefore = System.currentTimeMillis();
+		deferVoxelExport = deferVoxelExport && (options.writeVoxelAsOBJ || options.writeVoxelAsSmallOBJ);
 		
-		if( options.probabilityversion){
-			
-			Voxelvolume voxels;
-			volume = v.computeVolumeProbabilityVersion(bsp, options);				
-			voxels = v.getVoxelvolume(); 	
-			numVoxels0 = voxels.countVoxelsWithValue(0);			
-			numVoxels1 = voxels.countVoxelsWithValue(1);		
-			numVoxels2 = voxels.countVoxelsWithValue(2);		
-			numVoxels3 = voxels.countVoxelsWithValue(3);		
-			numVoxels4 = voxels.countVoxelsWithValue(4);		
-			numVoxels5 = voxels.countVoxelsWithValue(5);		
-			numVoxels6 = voxels.countVoxelsWithValue(6);
-			tAfter = System.currentTimeMillis();
-		}
-		else{
-			
-			volume =  v.computeVolume(bsp, options);	
-			tAfter = System.currentTimeMillis();
+		Vector<Polygon> pols = (polygons != null) ? polygons : new PolygonConstructor().constructPolygons(bsp);
+		Vector<Polygon> groundSurfaces = null;
+		if(options.footprintSkipping == Options.FOOTPRINT_GROUND_SURFACE && bsp != null){
+			groundSurfaces = new PolygonConstructor().constructGroundSurfaces(bsp);
 		}
+		job = new JobConfiguration(options, getOBJfileInner(), getOBJfileOuter());
+		VolumeResult result = ENGINE.compute(pols, groundSurfaces, job, deferVoxelExport);
+		tAfter = System.currentTimeMillis();
+		
+		volume = result.getVolume();
+		volumes = result.getVolumes();
+		usedVoxelsize = result.getUsedVoxelsize();
+		exactVolumeUsed = result.isExactVolumeUsed();
+		volumeEstimate = result.getEstimate();
+		skippedFraction = result.getSkippedFraction();
+		for(int depth = 0; depth < voteDepths.length; depth++)
+			voteDepths[depth] = result.getVoteDepth(depth);
+		numVoxels0 = result.getNumVoxels(0);
+		numVoxels1 = result.getNumVoxels(1);
+		numVoxels2 = result.getNumVoxels(2);
+		numVoxels3 = result.getNumVoxels(3);
+		numVoxels4 = result.getNumVoxels(4);
+		numVoxels5 = result.getNumVoxels(5);
+		numVoxels6 = result.getNumVoxels(6);
+		deferredResult = (result.getVoxelvolume() != null) ? result : null;
 		
 		calculateValues();
-		return this;
+	}
+	
+	/**
+	 * Writes and releases the voxel volume kept by compute(true). Does nothing if no voxel volume is kept.
+	 */
+	public void writeVoxelvolume() {
+		
+		if(deferredResult == null)
+			return;
+		ENGINE.writeVoxelvolume(deferredResult, job);
+		deferredResult = null;
+	}
+	
+	/**
+	 * Returns true if the voxel volume is kept by compute(true) until writeVoxelvolume() is called
+	 * 
+	 * @return boolean
+	 */
+	public boolean hasDeferredVoxelvolume() {
+		return deferredResult != null;
 	}
 
 
@@ -140,6 +193,20 @@ public class BuildingCallable implements Callable<BuildingCallable>{
 		
 	}
 	
+	/**
+	 * Estimates the peak memory of the computation of this building in bytes from its bounding box (cf. helperClasses.MemoryEstimator)
+	 * 
+	 * @return long
+	 */
+	public long estimatePeakMemory(){
+		
+		if(polygons != null){
+			return MemoryEstimator.estimatePeakMemory(new Voluminator(options).computeBoundingBox(polygons), polygons.size(), options);
+		}
+		PolygonConstructor constructor = new PolygonConstructor();
+		return MemoryEstimator.estimatePeakMemory(constructor.computeBoundingBox(bsp), constructor.countPolygons(bsp), options);
+	}
+	
 	/**
 	 * Get building information based on probability version
 	 * 
@@ -155,14 +222,71 @@ public class BuildingCallable implements Callable<BuildingCallable>{
     		";" + numVoxels3 +
     		";" + numVoxels4 +
     		";" + numVoxels5 +
-    		";" + numVoxels6;
+    		";" + numVoxels6 +
+    		getAdditionalInformation(";");
 		}
 		else{
-			return buildingId + ";" + volume + ";" + (tAfter - tBefore);
+			return buildingId + ";" + volume + ";" + (tAfter - tBefore) + getAdditionalInformation(";");
 		}
 		
 	}
 	
+	/**
+	 * Get the information of optional computation modes, each value preceded by separator.
+	 * For the multi-resolution mode these are the volumes in the order of options.multiResolutionVoxelsizes,
+	 * for the automatic resolution mode this is the used voxel size and if exact volumes of closed surfaces are enabled 
+	 * this is the used computation method ("exact" or "voxel"). For the Monte Carlo mode these are the bounds of the confidence interval
+	 * and the number of classified points. If footprint skipping is enabled this is the fraction of skipped voxels.
+	 * With early exit voting these are the numbers of votes decided after 0, 1, 2 and 3 lines.
+	 * Returns an empty string if no such mode is used.
+	 * 
+	 * @param separator
+	 * @return String
+	 */
+	public String getAdditionalInformation(String separator){
+		
+		String result = "";
+		if(volumes != null){
+			for(double v : volumes)
+				result += separator + v;
+		}
+		if(options.multiResolutionVoxelsizes == null && options.autoResolution != Options.AUTO_RESOLUTION_OFF){
+			result += separator + usedVoxelsize;
+		}
+		if(options.multiResolutionVoxelsizes == null && options.autoResolution == Options.AUTO_RESOLUTION_OFF && volumeEstimate != null){
+			result += separator + volumeEstimate.getLower() + separator + volumeEstimate.getUpper() + separator + volumeEstimate.getSamples();
+		}
+		if(options.exactVolumeForClosedSurfaces){
+			result += separator + (exactVolumeUsed ? "exact" : "voxel");
+		}
+		if(options.footprintSkipping != Options.FOOTPRINT_OFF){
+			result += separator + skippedFraction;
+		}
+		if(options.earlyExitVoting){
+			for(long d : voteDepths)
+				result += separator + d;
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns the name of the OBJ file of the inner voxels
+	 * 
+	 * @return String
+	 */
+	public String getOBJfileInner() {
+		return buildingId + "_" + options.voxelsize + "inner.obj";
+	}
+	
+	/**
+	 * Returns the name of the OBJ file of the outer voxels
+	 * 
+	 * @return String
+	 */
+	public String getOBJfileOuter() {
+		return buildingId + "_" + options.voxelsize + "outer.obj";
+	}
 	
 	public String getBuildingId() {
 		return buildingId;
@@ -180,59 +304,83 @@ public class BuildingCallable implements Callable<BuildingCallable>{
 		this.volume = volume;
 	}
 
-	public int getNumVoxels0() {
+	public double[] getVolumes() {
+		return volumes;
+	}
+
+	public void setVolumes(double[] volumes) {
+		this.volumes = volumes;
+	}
+
+	public double getUsedVoxelsize() {
+		return usedVoxelsize;
+	}
+
+	public void setUsedVoxelsize(double usedVoxelsize) {
+		this.usedVoxelsize = usedVoxelsize;
+	}
+
+	public boolean isExactVolumeUsed() {
+		return exactVolumeUsed;
+	}
+
+	public void setExactVolumeUsed(boolean exactVolumeUsed) {
+		this.exactVolumeUsed = exactVolumeUsed;
+	}
+
+	public long getNumVoxels0() {
 		return numVoxels0;
 	}
 
-	public void setNumVoxels0(int numVoxels0) {
+	public void setNumVoxels0(long numVoxels0) {
 		this.numVoxels0 = numVoxels0;
 	}
 
-	public int getNumVoxels1() {
+	public long getNumVoxels1() {
 		return numVoxels1;
 	}
 
-	public void setNumVoxels1(int numVoxels1) {
+	public void setNumVoxels1(long numVoxels1) {
 		this.numVoxels1 = numVoxels1;
 	}
 
-	public int getNumVoxels2() {
+	public long getNumVoxels2() {
 		return numVoxels2;
 	}
 
-	public void setNumVoxels2(int numVoxels2) {
+	public void setNumVoxels2(long numVoxels2) {
 		this.numVoxels2 = numVoxels2;
 	}
 
-	public int getNumVoxels3() {
+	public long getNumVoxels3() {
 		return numVoxels3;
 	}
 
-	public void setNumVoxels3(int numVoxels3) {
+	public void setNumVoxels3(long numVoxels3) {
 		this.numVoxels3 = numVoxels3;
 	}
 
-	public int getNumVoxels4() {
+	public long getNumVoxels4() {
 		return numVoxels4;
 	}
 
-	public void setNumVoxels4(int numVoxels4) {
+	public void setNumVoxels4(long numVoxels4) {
 		this.numVoxels4 = numVoxels4;
 	}
 
-	public int getNumVoxels5() {
+	public long getNumVoxels5() {
 		return numVoxels5;
 	}
 
-	public void setNumVoxels5(int numVoxels5) {
+	public void setNumVoxels5(long numVoxels5) {
 		this.numVoxels5 = numVoxels5;
 	}
 
-	public int getNumVoxels6() {
+	public long getNumVoxels6() {
 		return numVoxels6;
 	}
 
-	public void setNumVoxels6(int numVoxels6) {
+	public void setNumVoxels6(long numVoxels6) {
 		this.numVoxels6 = numVoxels6;
 	}
 
@@ -244,6 +392,14 @@ public class BuildingCallable implements Callable<BuildingCallable>{
 		this.bsp = bsp;
 	}
 
+	public Vector<Polygon> getPolygons() {
+		return polygons;
+	}
+
+	public void setPolygons(Vector<Polygon> polygons) {
+		this.polygons = polygons;
+	}
+
 	public long gettBefore() {
 		return tBefore;
 	}
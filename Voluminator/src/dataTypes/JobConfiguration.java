@@ -0,0 +1,99 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package dataTypes;
+
+/**
+ * Immutable configuration of a single computation of the VolumeEngine. The options are copied when the configuration is created,
+ * so later changes of the options (e.g. by other threads) do not affect the computation, and getOptions() returns a new copy.
+ * @author Horst Steuer
+ *
+ */
+public final class JobConfiguration {
+	
+	private final Options options;
+	
+	/**
+	 * Constructor, the voxel volume is written to options.OBJfileInner and options.OBJfileOuter
+	 * @param options
+	 */
+	public JobConfiguration(Options options)
+	{
+		this(options, options.OBJfileInner, options.OBJfileOuter);
+	}
+	
+	/**
+	 * Constructor
+	 * @param options
+	 * @param OBJfileInner OBJ file of the inner voxels
+	 * @param OBJfileOuter OBJ file of the outer voxels
+	 */
+	public JobConfiguration(Options options, String OBJfileInner, String OBJfileOuter)
+	{
+		Options snapshot = options.copy();
+		snapshot.OBJfileInner = OBJfileInner;
+		snapshot.OBJfileOuter = OBJfileOuter;
+		this.options = snapshot;
+	}
+	
+	/**
+	 * Returns a copy of the options of this computation, changes of it do not affect the configuration
+	 * @return
+	 */
+	public Options getOptions()
+	{
+		return options.copy();
+	}
+	
+	public String getOBJfileInner()
+	{
+		return options.OBJfileInner;
+	}
+	
+	public String getOBJfileOuter()
+	{
+		return options.OBJfileOuter;
+	}
+	
+	public double getVoxelsize()
+	{
+		return options.voxelsize;
+	}
+	
+	public boolean isProbabilityversion()
+	{
+		return options.probabilityversion;
+	}
+}
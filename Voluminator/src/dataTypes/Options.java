@@ -35,6 +35,9 @@
 
 package dataTypes;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Properties;
 
 /**
  * Container for storing options of voluminator.
@@ -47,10 +50,18 @@ public class Options {
 	/*
 	 * When testing single ray - Vector<Polygon> intersections there might be several Intersections at the same point in space.
 	 * This happens when there are duplicates of a polygons, but may happen also in other situations. This option allows for multiple 
-	 * intersection points to be treated as just one point. This is an expensive operation (takes some time to compute).
+	 * intersection points to be treated as just one point. The intersections of a line are sorted in reusable buffers, 
+	 * so the additional cost is small.
 	 */
 	public boolean removeDuplicateIntersections = false; 
 	
+	/*
+	 * Intersections along a line whose parameters differ by no more than this value are treated as one intersection 
+	 * when removeDuplicateIntersections is set. Since the directions of the lines are unit vectors, this is a distance. 
+	 * A value of 0.0 only merges identical intersections.
+	 */
+	public double duplicateIntersectionTolerance = 1e-9;
+	
 	/*
 	 * The side length of a voxel. A voxel is assumed to be equilateral.
 	 */
@@ -95,6 +106,65 @@ public class Options {
 	 */
 	public int numberOfThreads = 1;
 	
+	/*
+	 * The number of threads for reading CityGML files. With more than one thread the cityObjectMember elements are unmarshalled 
+	 * and their polygons are constructed in parallel (cf. helperClasses.BuildingReader.readCityGMLFileParallel).
+	 */
+	public int numberOfParsingThreads = 1;
+	
+	/*
+	 * Indicator showing if the batch computations run as a staged pipeline (cf. voluminator.BuildingPipeline): reading, parsing,
+	 * polygon construction, voxelization and writing of the voxel volumes and results run concurrently and are connected by queues
+	 * of at most pipelineQueueCapacity elements. Parsing and polygon construction use numberOfParsingThreads threads each,
+	 * voxelization numberOfThreads threads and writing numberOfWritingThreads threads. If pipelineReportInterval (in milliseconds)
+	 * is larger than 0, the queue depths are printed periodically, otherwise only their maxima at the end.
+	 */
+	public boolean pipeline = false;
+	public int pipelineQueueCapacity = 16;
+	public int numberOfWritingThreads = 2;
+	public long pipelineReportInterval = 0;
+	
+	/*
+	 * Memory budget in bytes for the batch computations of ThreadedVolumeCalculationCityGML and ThreadedVolumeCalculationObj 
+	 * and for each worker process of the sharded computation (cf. voluminator.ShardWorker).
+	 * A building is only started if the estimated peak memory of all running buildings (cf. helperClasses.MemoryEstimator) fits 
+	 * into the budget, smaller buildings pass buildings which wait for memory. 0 disables the admission control.
+	 */
+	public long memoryBudget = 0;
+	
+	/*
+	 * Indicator showing if the batch computations only estimate their costs instead of computing volumes (cf. voluminator.CostEstimator). 
+	 * Polygons, voxels, predicted runtime and peak memory are reported per building and in total. The runtime is predicted by 
+	 * a calibration of the machine per engine and computation mode, which is read from calibrationFile, or measured on synthetic 
+	 * buildings and stored there (this takes up to about ten seconds per engine and mode). The polygons are not constructed.
+	 */
+	public boolean dryRun = false;
+	public String calibrationFile = "voluminator.calibration";
+	
+	/*
+	 * Number of worker processes for the sharded computation (cf. voluminator.ShardCoordinator). If larger than 0, the batch computations 
+	 * split the buildings into numberOfProcesses * shardsPerProcess shards which are computed by separate JVMs on this machine, 
+	 * each with numberOfThreads threads and the JVM arguments workerJvmArguments (e.g. "-Xmx8g"). The results are merged into one log file.
+	 * Shards of workers which die are computed again by a new worker, at most maxShardAttempts times. The buildings which were 
+	 * running when a worker died are then computed one at a time to find the one which killed it (cf. voluminator.ShardWorker).
+	 */
+	public int numberOfProcesses = 0;
+	public int shardsPerProcess = 4;
+	public String workerJvmArguments = "";
+	public int maxShardAttempts = 3;
+	
+	/*
+	 * Settings of the resident volume service (cf. voluminator.VolumeService): port on the loopback interface, maximal number of
+	 * buildings which are queued or computed at the same time (requests exceeding it are rejected), number of computations
+	 * of a synthetic building at startup, which warm up the engine before the first request, maximal size of a request body 
+	 * in bytes and smallest voxel size a request may set.
+	 */
+	public int servicePort = 8642;
+	public int serviceQueueCapacity = 256;
+	public int serviceWarmupRuns = 20;
+	public long serviceMaxRequestBytes = 64L << 20;
+	public double serviceMinVoxelsize = 0.05;
+	
 	/*
 	 * Filename for the input file. If the value is not changed the default filename is of type txt.
 	 */
@@ -110,6 +180,232 @@ public class Options {
 	 */
 	public boolean probabilityversion = false;
 	
+	/*
+	 * Indicator showing if the vote for a voxel is stopped as soon as its result is fixed, i.e. when mindirections is reached or 
+	 * can not be reached anymore. Lines are tested starting with the cheapest direction (fewest polygons which are not parallel to it). 
+	 * The result of computeVolume is identical. In the probability version the number of votes is only known if all lines are tested, 
+	 * therefore early exit is only used there if earlyExitProbabilityVersion is set as well. The votes of untested lines are then
+	 * extrapolated from the tested ones, which is an approximation. 
+	 */
+	public boolean earlyExitVoting = false;
+	public boolean earlyExitProbabilityVersion = false;
+	
+	/*
+	 * Storage of the voxel volume (cf. dataTypes.Voxelvolume). VOXEL_STORAGE_HEAP uses an int array on the heap (4 bytes per voxel).
+	 * VOXEL_STORAGE_OFF_HEAP uses direct buffers outside of the heap (1 byte per voxel). They are limited by -XX:MaxDirectMemorySize, 
+	 * which defaults to the maximal heap size (-Xmx), i.e. with -Xmx64m a volume of more than 64 million voxels can not be allocated 
+	 * off-heap unless the limit is raised. 
+	 * VOXEL_STORAGE_MAPPED uses a temporary memory-mapped file in voxelStorageDirectory (null = directory for temporary files), 
+	 * which is paged by the operating system and may be larger than the main memory. 
+	 * VOXEL_STORAGE_AUTO uses the heap if the voxels take at most a quarter of the maximal heap size, direct buffers if they take
+	 * at most half of the available direct memory and a memory-mapped file otherwise.
+	 */
+	public static final int VOXEL_STORAGE_HEAP = 0;
+	public static final int VOXEL_STORAGE_OFF_HEAP = 1;
+	public static final int VOXEL_STORAGE_MAPPED = 2;
+	public static final int VOXEL_STORAGE_AUTO = 3;
+	public int voxelStorage = VOXEL_STORAGE_HEAP;
+	public String voxelStorageDirectory = null;
+	
+	/*
+	 * Engine used for the classification of the voxels. ENGINE_SCALAR tests one ray after another against the polygons, 
+	 * ENGINE_PACKET tests packets of packetWidth neighbouring voxels at once against one polygon (cf. voluminator.PacketRayEngine).
+	 * ENGINE_COLUMN scan-converts the polygons onto the columns of voxels along each axis and derives the votes from the crossing
+	 * lists of the columns (cf. voluminator.ColumnRasterEngine), its cost does not depend on the number of polygons per ray.
+	 * ENGINE_FLOODFILL marks the voxels at the surface, fills the exterior from the border of the voxel volume and casts rays only 
+	 * for voxels at the surface, in enclosed regions and where the fill leaks through gaps (cf. voluminator.FloodFillEngine). 
+	 * Exterior voxels whose rays pass through openings or shared edges may get inside votes from the scalar engine, this engine 
+	 * classifies them as outside. It needs one byte per voxel on the heap in addition to the voxel volume.
+	 * ENGINE_TRIANGLES triangulates the polygons and tests the lines of voxel centers against the triangles with a watertight
+	 * ray-triangle test without projecting into the planes of the polygons (cf. voluminator.TriangleRayEngine).
+	 * Early exit voting is only used by ENGINE_SCALAR.
+	 */
+	public static final int ENGINE_SCALAR = 0;
+	public static final int ENGINE_PACKET = 1;
+	public static final int ENGINE_COLUMN = 2;
+	public static final int ENGINE_FLOODFILL = 3;
+	public static final int ENGINE_TRIANGLES = 4;
+	public int engine = ENGINE_SCALAR;
+	public int packetWidth = 8;
+	
+	/*
+	 * Empty-space skipping (cf. voluminator.FootprintMask): columns of voxels along the z axis outside the footprint of the object
+	 * are set to outside without casting any ray. FOOTPRINT_PROJECTION derives the footprint from the projections of all polygons 
+	 * onto the x-y plane, FOOTPRINT_GROUND_SURFACE only from the GroundSurfaces of CityGML buildings, which is tighter but cuts off 
+	 * overhanging parts such as eaves. Objects without GroundSurfaces use the projection. If the outline may have gaps (edges of gaps 
+	 * in the surface which are not horizontal, e.g. of a missing wall), no columns are skipped. In the probability version skipped 
+	 * voxels have no inside votes, even if rays through gaps of the surface would give them some. Only used by ENGINE_SCALAR and 
+	 * ENGINE_PACKET, the other engines hardly cast rays in empty space.
+	 */
+	public static final int FOOTPRINT_OFF = 0;
+	public static final int FOOTPRINT_PROJECTION = 1;
+	public static final int FOOTPRINT_GROUND_SURFACE = 2;
+	public int footprintSkipping = FOOTPRINT_OFF;
+	
+	/*
+	 * Indicator showing if the polygons are cleaned up before the volume is computed (cf. helperClasses.PolygonPreprocessor):
+	 * duplicates and polygons without area are removed and coplanar neighbouring polygons are merged.
+	 * Fewer polygons make every ray test cheaper and often make removeDuplicateIntersections unnecessary.
+	 */
+	public boolean preprocessPolygons = false;
+	
+	/*
+	 * Distance (in units of the input data) under which two points are treated as equal by the preprocessing 
+	 * and by the test for closed surfaces.
+	 */
+	public double preprocessTolerance = 0.001;
+	
+	/*
+	 * Indicator showing if the exact volume is computed for buildings whose polygons form a closed and consistently oriented
+	 * surface forming a single shell without self-intersections (cf. voluminator.SurfaceIntegralVolume). Only buildings failing 
+	 * this test are voxelized. 
+	 * Used by computeVolume and computeVolumeProbabilityVersion.
+	 */
+	public boolean exactVolumeForClosedSurfaces = false;
+	
+	/*
+	 * Voxel sizes for the multi-resolution mode. If set, the volume is computed for all of these voxel sizes in one pass
+	 * (cf. Voluminator.computeVolumeMultiResolution) instead of only for voxelsize. Voxel sizes should be integer multiples 
+	 * of the finest one, e.g. {1.0, 0.5, 0.25}, otherwise they have to be computed separately.
+	 */
+	public double[] multiResolutionVoxelsizes = null;
+	
+	/*
+	 * Automatic choice of the voxel size per building instead of the global voxelsize (cf. Voluminator.computeVolumeAutoResolution):
+	 * AUTO_RESOLUTION_VOXEL_BUDGET uses the smallest voxel size for which the voxel volume has at most voxelBudget voxels.
+	 * AUTO_RESOLUTION_CONVERGENCE starts with voxelsize and halves the voxel size until the volume changes by less than 
+	 * convergenceTolerance (relative), the time budget autoResolutionTimeBudget (ms) would be exceeded or the next voxel volume 
+	 * would have more than voxelBudget voxels.
+	 */
+	public static final int AUTO_RESOLUTION_OFF = 0;
+	public static final int AUTO_RESOLUTION_VOXEL_BUDGET = 1;
+	public static final int AUTO_RESOLUTION_CONVERGENCE = 2;
+	public int autoResolution = AUTO_RESOLUTION_OFF;
+	public long voxelBudget = 1000000;
+	public double convergenceTolerance = 0.01;
+	public long autoResolutionTimeBudget = 60000;
+	
+	/*
+	 * Richardson extrapolation (cf. Voluminator.computeVolumeExtrapolated): if set, the volume is computed for the coarse voxel sizes
+	 * extrapolationVoxelsizes (two or three distinct positive sizes, e.g. {0.4, 0.2, 0.1}) and extrapolated to voxel size 0 
+	 * with the error model V(h) = V + C * h^p. A single voxel size is not extrapolated, only averaged over the shifts.
+	 * With three voxel sizes the order p is fitted, otherwise (or if the fit fails) extrapolationOrder is used. Each voxel size is 
+	 * computed with extrapolationShifts grid origins shifted by fractions of a voxel and the volumes are averaged, which removes 
+	 * the bias of the alignment of the grid. The volumes are computed by line integrals if lineIntegral is set.
+	 * The extrapolated volume is reported with an error estimate.
+	 */
+	public double[] extrapolationVoxelsizes = null;
+	public int extrapolationShifts = 1;
+	public double extrapolationOrder = 2.0;
+	
+	/*
+	 * Line integral mode (cf. Voluminator.computeVolumeLineIntegral): instead of counting voxel centers, the lengths inside the object
+	 * of the lines through the voxel centers along the three axes are summed up. Only 2D lattices of lines are needed, so the cost 
+	 * grows quadratically instead of cubically with 1/voxelsize. The volume is the average over the axes. This needs a closed surface,
+	 * buildings with gaps (columns with an odd number of crossings) are computed by the vote of the voxels instead.
+	 */
+	public boolean lineIntegral = false;
+	
+	/*
+	 * Monte Carlo mode (cf. Voluminator.computeVolumeMonteCarlo): instead of classifying voxels, points in the bounding box are classified
+	 * by the same vote until the confidence interval of the volume (confidence level monteCarloConfidence) is within 
+	 * +-monteCarloRelativeError of the estimate, or monteCarloMaxSamples points have been classified. The cost depends on the required
+	 * accuracy and not on voxelsize. MONTE_CARLO_RANDOM uses pseudo-random points, MONTE_CARLO_SOBOL randomly shifted Sobol sequences, 
+	 * which usually need fewer points. monteCarloSeed makes the estimate reproducible.
+	 * In the probability version each point counts with its fraction of inside votes.
+	 */
+	public static final int MONTE_CARLO_OFF = 0;
+	public static final int MONTE_CARLO_RANDOM = 1;
+	public static final int MONTE_CARLO_SOBOL = 2;
+	public int monteCarlo = MONTE_CARLO_OFF;
+	public double monteCarloRelativeError = 0.01;
+	public double monteCarloConfidence = 0.99;
+	public long monteCarloMaxSamples = 10000000;
+	public long monteCarloSeed = 1;
+	
+	/**
+	 * Returns all options which are not null as properties, e.g. for passing them to another process. 
+	 * @return
+	 */
+	public Properties toProperties()
+	{
+		Properties result = new Properties();
+		for(Field f : Options.class.getFields())
+		{
+			if(Modifier.isStatic(f.getModifiers()))
+				continue;
+			Object value;
+			try {
+				value = f.get(this);
+			} catch (IllegalAccessException e) {
+				continue;
+			}
+			if(value == null)
+				continue;
+			
+			if(value instanceof double[])
+			{
+				String list = "";
+				for(double d : (double[]) value)
+					list += (list.length() > 0 ? "," : "") + d;
+				result.setProperty(f.getName(), list);
+			}
+			else
+				result.setProperty(f.getName(), value.toString());
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns a copy of these options which does not share any mutable values (cf. toProperties)
+	 * @return
+	 */
+	public Options copy()
+	{
+		return fromProperties(toProperties());
+	}
+	
+	/**
+	 * Creates options from properties written by toProperties(). Missing options keep their default values.
+	 * @param properties
+	 * @return
+	 */
+	public static Options fromProperties(Properties properties)
+	{
+		Options result = new Options();
+		for(Field f : Options.class.getFields())
+		{
+			String value = properties.getProperty(f.getName());
+			if(Modifier.isStatic(f.getModifiers()) || value == null)
+				continue;
+			
+			Class<?> type = f.getType();
+			try {
+				if(type == boolean.class)
+					f.setBoolean(result, Boolean.parseBoolean(value));
+				else if(type == int.class)
+					f.setInt(result, Integer.parseInt(value));
+				else if(type == long.class)
+					f.setLong(result, Long.parseLong(value));
+				else if(type == double.class)
+					f.setDouble(result, Double.parseDouble(value));
+				else if(type == String.class)
+					f.set(result, value);
+				else if(type == double[].class)
+				{
+					String[] parts = value.isEmpty() ? new String[0] : value.split(",");
+					double[] list = new double[parts.length];
+					for(int i = 0; i < parts.length; i++)
+						list[i] = Double.parseDouble(parts[i]);
+					f.set(result, list);
+				}
+			} catch (IllegalAccessException e) {
+				//public fields are accessible
+			}
+		}
+		return result;
+	}
+	
 	/**
 	 * Should be implemented.
 	 */
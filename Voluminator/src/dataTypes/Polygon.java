@@ -58,6 +58,14 @@ public class Polygon {
 	//marker showing if coordinates of rings have already been projected to the local 2D coordinate system of the plane
 	private boolean alreadyprojected = false;
 	
+	//unit vectors of the axes and, computed by project(), the inverted matrices of the intersections of the plane with lines 
+	//parallel to the axes and with its normal (cf. lineCuts). null if the line is parallel to the plane or the matrix is singular.
+	private static final double[][] AXES = {{1, 0, 0}, {0, 1, 0}, {0, 0, 1}};
+	private double[][][] axisInverse = new double[3][][];
+	private double[][] normalInverse;
+	//interior rings as array for the point in polygon test, computed by project()
+	private Ring[] interiorRings = new Ring[0];
+	
 	/**
 	 * adds an exterior ring r
 	 * @param r
@@ -77,6 +85,14 @@ public class Polygon {
 		return exterior;
 	}
 	
+	/**
+	 * returns the interior rings
+	 * @return
+	 */
+	public Vector<Ring> getInterior() {
+		return interior;
+	}
+	
 	/**
 	 * adds an interior ring r
 	 * @param r
@@ -87,6 +103,14 @@ public class Polygon {
 		alreadyprojected = false;
 	}
 	
+	/**
+	 * returns the plane in which the polygon lies
+	 * @return
+	 */
+	public Plane getPlane() {
+		return plane;
+	}
+	
 	/**
 	 * computes the plane parameters based on the first three points of the exrterior ring
 	 * Note: it is not checked if the polygon is flat. If it is not, this may lead to inconsistencies!
@@ -198,6 +222,111 @@ public class Polygon {
 		return 0;
 	}
 	
+	/**
+	 * Computes the intersection of the line through px,py,pz parallel to axis (0 = x, 1 = y, 2 = z) with the polygon.
+	 * The result is identical to LineCutsPolygon for a Line with a unit direction vector along the axis, but no objects are allocated:
+	 * the matrices of the intersection and of the projection into the plane are inverted only once per polygon (cf. project()).
+	 * 
+	 * returns 0 if not cutting
+	 *         - a negative value if cut is on the "left hand" of the linepoint
+	 *         + a positive value if cut is on the "right hand" of the linepoint
+	 * @param px
+	 * @param py
+	 * @param pz
+	 * @param axis
+	 * @return
+	 */
+	public double lineCuts(double px, double py, double pz, int axis)
+	{
+		if(!alreadyprojected)
+		{
+			project();
+		}
+		
+		double[][] a = axisInverse[axis];
+		if(a == null || normalInverse == null)
+			return 0.0;
+		
+		//parameter of the intersection with the plane along the line
+		double[] point = plane.point.coords;
+		double b0 = px - point[0];
+		double b1 = py - point[1];
+		double b2 = pz - point[2];
+		double l = a[2][0] * b0 + a[2][1] * b1 + a[2][2] * b2;
+		
+		//intersection projected into the local coordinate system of the plane
+		double[] d = AXES[axis];
+		b0 = (px + l * d[0]) - point[0];
+		b1 = (py + l * d[1]) - point[1];
+		b2 = (pz + l * d[2]) - point[2];
+		double s = normalInverse[0][0] * b0 + normalInverse[0][1] * b1 + normalInverse[0][2] * b2;
+		double t = normalInverse[1][0] * b0 + normalInverse[1][1] * b1 + normalInverse[1][2] * b2;
+		
+		if(isPointInPolygon(s, t))
+		{
+			return l;
+		}
+		return 0;
+	}
+	
+	/**
+	 * Returns the inverted matrix of the intersection with lines parallel to axis as used by lineCuts, 
+	 * null if the lines are parallel to the plane. The array is shared and must not be modified.
+	 * @param axis
+	 * @return
+	 */
+	public double[][] getAxisInverse(int axis)
+	{
+		if(!alreadyprojected)
+		{
+			project();
+		}
+		return axisInverse[axis];
+	}
+	
+	/**
+	 * Returns the inverted matrix of the projection into the local coordinate system of the plane as used by lineCuts, 
+	 * null if it is singular. The array is shared and must not be modified.
+	 * @return
+	 */
+	public double[][] getNormalInverse()
+	{
+		if(!alreadyprojected)
+		{
+			project();
+		}
+		return normalInverse;
+	}
+	
+	/**
+	 * Inverts the matrix of the intersection of the plane with a line in direction (cf. Plane.cutLine).
+	 * Returns null if the line is parallel to the plane or the matrix is singular.
+	 * @param direction
+	 * @return
+	 */
+	private double[][] invertCutMatrix(Point direction)
+	{
+		if(plane.isParallel(new Line(plane.point, direction)))
+			return null;
+		
+		Matrix33 m = new Matrix33();
+		m.A[0][0] = plane.r1.coords[0];
+		m.A[1][0] = plane.r1.coords[1];
+		m.A[2][0] = plane.r1.coords[2];
+		m.A[0][1] = plane.r2.coords[0];
+		m.A[1][1] = plane.r2.coords[1];
+		m.A[2][1] = plane.r2.coords[2];
+		m.A[0][2] = -direction.coords[0];
+		m.A[1][2] = -direction.coords[1];
+		m.A[2][2] = -direction.coords[2];
+		try {
+			m.invert();
+		} catch (DetZeroException e) {
+			return null;
+		}
+		return m.A;
+	}
+	
 	/**
 	 * computes the axis oriented bounding box of the plane
 	 * Note: it is assumed that the interior rings are fully inside the exterior ring. If it is not, this may lead to inconsistencies!
@@ -230,11 +359,22 @@ public class Polygon {
 	 */
 	private boolean isPointInPolygon(Point2D p)
 	{
-		if(exterior.isPointInRing(p))
+		return isPointInPolygon(p.coords[0], p.coords[1]);
+	}
+	
+	/**
+	 * tests if the point x,y is inside polygon, without allocating objects
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	private boolean isPointInPolygon(double x, double y)
+	{
+		if(exterior.isPointInRing(x, y))
 		{
-			for(Ring r : interior)
+			for(int i = 0; i < interiorRings.length; i++)
 			{
-				if(r.isPointInRing(p))
+				if(interiorRings[i].isPointInRing(x, y))
 				{
 					return false;
 				}
@@ -256,6 +396,12 @@ public class Polygon {
 		{
 			r.project(plane);
 		}
+		interiorRings = interior.toArray(new Ring[interior.size()]);
+		for(int axis = 0; axis < 3; axis++)
+		{
+			axisInverse[axis] = invertCutMatrix(new Point(AXES[axis][0], AXES[axis][1], AXES[axis][2]));
+		}
+		normalInverse = invertCutMatrix(plane.normal);
 		alreadyprojected = true;
 	}
 	
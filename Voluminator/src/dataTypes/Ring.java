@@ -33,6 +33,7 @@
     
 */
 package dataTypes;
+import java.util.Arrays;
 import java.util.Vector;
 import exceptions.DetZeroException;
 import exceptions.ParallelException;
@@ -47,6 +48,17 @@ public class Ring {
 	public Vector<Point> pos;
 	public Vector<Point2D> pos2D;
 	
+	//coordinates of pos2D as arrays and their bounding rectangle, computed by project()
+	private double[] u, v;
+	private double minU, maxU, minV, maxV;
+	
+	//index of the edges by their v range for rings with at least MIN_POINTS_FOR_INDEX points, otherwise null:
+	//the bounding rectangle is divided into horizontal slabs, the edges crossing slab b are bucketEdges[bucketStart[b] .. bucketStart[b+1]-1]
+	//(edge i goes from point i-1 to point i). Horizontal edges are never crossed and not indexed.
+	private static final int MIN_POINTS_FOR_INDEX = 16;
+	private int[] bucketStart, bucketEdges;
+	private double bucketScale;
+	
 	/**
 	 * Constructor
 	 */
@@ -73,6 +85,70 @@ public class Ring {
 				System.out.println("shouldn't have happened: projection of polygon-point into plane failed");
 			}
 		}
+		buildIndex();
+	}
+	
+	/**
+	 * Copies pos2D into arrays and computes the bounding rectangle and, for rings with many points, the index of the edges
+	 */
+	private void buildIndex()
+	{
+		int n = pos2D.size();
+		u = new double[n];
+		v = new double[n];
+		minU = minV = Double.POSITIVE_INFINITY;
+		maxU = maxV = Double.NEGATIVE_INFINITY;
+		for(int i = 0; i < n; i++)
+		{
+			Point2D q = pos2D.get(i);
+			u[i] = q.coords[0];
+			v[i] = q.coords[1];
+			minU = Math.min(minU, u[i]);
+			maxU = Math.max(maxU, u[i]);
+			minV = Math.min(minV, v[i]);
+			maxV = Math.max(maxV, v[i]);
+		}
+		
+		bucketStart = null;
+		bucketEdges = null;
+		if(n < MIN_POINTS_FOR_INDEX || !(maxV > minV))
+			return;
+		
+		//about two points per slab, an edge is stored in all slabs from the one of its lower to the one of its upper end
+		int buckets = n / 2;
+		bucketScale = buckets / (maxV - minV);
+		bucketStart = new int[buckets + 1];
+		for(int i = 0; i < n; i++)
+		{
+			int j = (i == 0) ? n - 1 : i - 1;
+			if(v[i] == v[j])
+				continue;
+			for(int b = getBucket(Math.min(v[i], v[j])); b <= getBucket(Math.max(v[i], v[j])); b++)
+				bucketStart[b + 1]++;
+		}
+		for(int b = 0; b < buckets; b++)
+			bucketStart[b + 1] += bucketStart[b];
+		
+		bucketEdges = new int[bucketStart[buckets]];
+		int[] fill = Arrays.copyOf(bucketStart, buckets);
+		for(int i = 0; i < n; i++)
+		{
+			int j = (i == 0) ? n - 1 : i - 1;
+			if(v[i] == v[j])
+				continue;
+			for(int b = getBucket(Math.min(v[i], v[j])); b <= getBucket(Math.max(v[i], v[j])); b++)
+				bucketEdges[fill[b]++] = i;
+		}
+	}
+	
+	/**
+	 * Returns the slab of the index containing y, which has to be within the bounding rectangle
+	 * @param y
+	 * @return
+	 */
+	private int getBucket(double y)
+	{
+		return Math.min(bucketStart.length - 2, (int) ((y - minV) * bucketScale));
 	}
 	
 	public void addPoint(Point p)
@@ -88,44 +164,56 @@ public class Ring {
 	 */
 	public boolean isPointInRing(Point2D p)
 	{
+		return isPointInRing(p.coords[0], p.coords[1]);
+	}
+	
+	/**
+	 * Checks if the point x,y lies inside the ring, without allocating a Point2D
+	 * implements winding number algorithm. Points outside of the bounding rectangle are rejected at once, 
+	 * for rings with many points only the edges in the slab of y are tested (cf. buildIndex).
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public boolean isPointInRing(double x, double y)
+	{
+		if(u == null || u.length != pos2D.size())
+			buildIndex();
+		if(u.length == 0 || x < minU || x > maxU || y < minV || y > maxV)
+			return false;
 		
 		int counter = 0;
-		int npoints = pos2D.size();
-		Point2D p1 = pos2D.get(pos2D.size()-1);
-		Point2D p2 = pos2D.get(0);
-		double x = p.coords[0];
-		double y = p.coords[1];
-		
-		boolean startIsAbove = (p1.coords[1] >= y);
-		
-		for(int i = 1; i <= npoints ; i++) 
+		if(bucketEdges == null)
 		{
-			boolean endIsAbove = (p2.coords[1] >= y);
-			if(startIsAbove != endIsAbove) 
-			{
-				if((p2.coords[1] - y) * (p2.coords[0] - p1.coords[0]) <= (p2.coords[1] - p1.coords[1]) * (p2.coords[0] - x)) 
-				{
-					if(endIsAbove) 
-					{   
-						counter ++;   
-					}
-				}
-				else
-				{
-					if(!endIsAbove) 
-					{   
-						counter --; 
-					}
-				}
-			}
-			startIsAbove = endIsAbove;
-			if( i <	npoints)
-			{
-				p1 = p2;
-				p2 = pos2D.get(i);
-			}
+			for(int i = 0; i < u.length; i++)
+				counter += getWinding(i, x, y);
+		}
+		else
+		{
+			int b = getBucket(y);
+			for(int k = bucketStart[b]; k < bucketStart[b + 1]; k++)
+				counter += getWinding(bucketEdges[k], x, y);
 		}
-		  
 		return (counter != 0);
 	}
+	
+	/**
+	 * Returns the contribution of edge i (from point i-1 to point i) to the winding number of the point x,y: 
+	 * 1 if the edge crosses y upwards with x on its left, -1 if it crosses y downwards with x on its right and 0 otherwise
+	 * @param i
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	private int getWinding(int i, double x, double y)
+	{
+		int j = (i == 0) ? u.length - 1 : i - 1;
+		boolean startIsAbove = (v[j] >= y);
+		boolean endIsAbove = (v[i] >= y);
+		if(startIsAbove == endIsAbove)
+			return 0;
+		if((v[i] - y) * (u[i] - u[j]) <= (v[i] - v[j]) * (u[i] - x))
+			return endIsAbove ? 1 : 0;
+		return endIsAbove ? 0 : -1;
+	}
 }
@@ -0,0 +1,101 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package dataTypes;
+
+/**
+ * Immutable result of a volume estimation by sampling: estimated volume, confidence interval and number of classified points.
+ * @author Horst Steuer
+ *
+ */
+public final class VolumeEstimate {
+	
+	private final double volume;
+	private final double lower;
+	private final double upper;
+	private final double confidence;
+	private final long samples;
+	
+	/**
+	 * Constructor
+	 * @param volume
+	 * @param lower lower bound of the confidence interval
+	 * @param upper upper bound of the confidence interval
+	 * @param confidence confidence level of the interval, e.g. 0.99
+	 * @param samples number of classified points
+	 */
+	public VolumeEstimate(double volume, double lower, double upper, double confidence, long samples)
+	{
+		this.volume = volume;
+		this.lower = lower;
+		this.upper = upper;
+		this.confidence = confidence;
+		this.samples = samples;
+	}
+	
+	public double getVolume()
+	{
+		return volume;
+	}
+	
+	public double getLower()
+	{
+		return lower;
+	}
+	
+	public double getUpper()
+	{
+		return upper;
+	}
+	
+	public double getConfidence()
+	{
+		return confidence;
+	}
+	
+	public long getSamples()
+	{
+		return samples;
+	}
+	
+	/**
+	 * Returns the half width of the confidence interval relative to the volume
+	 * @return
+	 */
+	public double getRelativeError()
+	{
+		return (upper - lower) / 2.0 / volume;
+	}
+}
@@ -0,0 +1,172 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package dataTypes;
+
+/**
+ * Immutable result of a computation of the VolumeEngine.
+ * @author Horst Steuer
+ *
+ */
+public final class VolumeResult {
+	
+	private final double volume;
+	private final double[] volumes;			//volumes of the multi-resolution mode, otherwise null
+	private final double usedVoxelsize;
+	private final boolean exactVolumeUsed;
+	private final long[] numVoxels;			//number of voxels per vote of the probability version, otherwise null
+	private final long computationTime;		//in ms
+	private final Voxelvolume voxelvolume;	//only kept if requested, otherwise null
+	private final VolumeEstimate estimate;	//confidence interval of the Monte Carlo mode, otherwise null
+	private final double skippedFraction;	//fraction of the voxels outside of the footprint, cf. Options.footprintSkipping
+	private final long[] voteDepthStatistics;	//number of early exit votes decided after 0 - 3 lines, cf. Options.earlyExitVoting
+	
+	/**
+	 * Constructor
+	 * @param volume
+	 * @param volumes
+	 * @param usedVoxelsize
+	 * @param exactVolumeUsed
+	 * @param numVoxels
+	 * @param computationTime
+	 * @param voxelvolume
+	 * @param estimate
+	 * @param skippedFraction
+	 * @param voteDepthStatistics
+	 */
+	public VolumeResult(double volume, double[] volumes, double usedVoxelsize, boolean exactVolumeUsed, long[] numVoxels, 
+			long computationTime, Voxelvolume voxelvolume, VolumeEstimate estimate, double skippedFraction, long[] voteDepthStatistics)
+	{
+		this.volume = volume;
+		this.volumes = (volumes != null) ? volumes.clone() : null;
+		this.usedVoxelsize = usedVoxelsize;
+		this.exactVolumeUsed = exactVolumeUsed;
+		this.numVoxels = (numVoxels != null) ? numVoxels.clone() : null;
+		this.computationTime = computationTime;
+		this.voxelvolume = voxelvolume;
+		this.estimate = estimate;
+		this.skippedFraction = skippedFraction;
+		this.voteDepthStatistics = voteDepthStatistics.clone();
+	}
+	
+	/**
+	 * Returns the volume, in the multi-resolution mode the one of the finest resolution
+	 * @return
+	 */
+	public double getVolume()
+	{
+		return volume;
+	}
+	
+	/**
+	 * Returns the volumes of the multi-resolution mode in the order of options.multiResolutionVoxelsizes, otherwise null
+	 * @return
+	 */
+	public double[] getVolumes()
+	{
+		return (volumes != null) ? volumes.clone() : null;
+	}
+	
+	/**
+	 * Returns the voxel size used for the volume (in the automatic resolution mode the chosen one)
+	 * @return
+	 */
+	public double getUsedVoxelsize()
+	{
+		return usedVoxelsize;
+	}
+	
+	public boolean isExactVolumeUsed()
+	{
+		return exactVolumeUsed;
+	}
+	
+	/**
+	 * Returns the number of voxels with vote (0 - 6) of the probability version, 0 if it was not used
+	 * @param vote
+	 * @return
+	 */
+	public long getNumVoxels(int vote)
+	{
+		return (numVoxels != null) ? numVoxels[vote] : 0;
+	}
+	
+	/**
+	 * Returns the time of the computation in ms
+	 * @return
+	 */
+	public long getComputationTime()
+	{
+		return computationTime;
+	}
+	
+	/**
+	 * Returns the voxel volume if it was kept by the computation, otherwise null. 
+	 * It is released by VolumeEngine.writeVoxelvolume().
+	 * @return
+	 */
+	public Voxelvolume getVoxelvolume()
+	{
+		return voxelvolume;
+	}
+	
+	/**
+	 * Returns the confidence interval and number of points of the Monte Carlo mode, otherwise null
+	 * @return
+	 */
+	public VolumeEstimate getEstimate()
+	{
+		return estimate;
+	}
+	
+	/**
+	 * Returns the fraction of the voxels which were skipped as outside of the footprint, 0 if footprint skipping is off
+	 * @return
+	 */
+	public double getSkippedFraction()
+	{
+		return skippedFraction;
+	}
+	
+	/**
+	 * Returns how often the early exit vote has been decided after testing depth (0 - 3) lines, 0 if early exit voting is off
+	 * @param depth
+	 * @return
+	 */
+	public long getVoteDepth(int depth)
+	{
+		return voteDepthStatistics[depth];
+	}
+}
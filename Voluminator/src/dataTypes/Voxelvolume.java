@@ -37,6 +37,13 @@ package dataTypes;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Vector;
 
 /**
@@ -45,18 +52,29 @@ import java.util.Vector;
  * Volume is aligned with the global coordinate system. Each voxel is represented by an int . 
  * Voxel are equilateral even though the voxel size can be given according to each of the three axis.
  * 
+ * Voxels are either stored in an int array on the heap or, for volumes which do not fit into the heap, with one byte per voxel 
+ * in direct buffers or in a temporary memory-mapped file (cf. Options.voxelStorage). The buffers are split into chunks of at most 
+ * 1 GB in the order x, y, z, so that loops with z as innermost index page sequentially through the voxel volume.
+ * Direct buffers are limited by -XX:MaxDirectMemorySize, which defaults to the maximal heap size.
+ * Voxels should be accessed by get and set, which work for all kinds of storage.
+ * 
  * @author Horst
  *
  */
 public class Voxelvolume {
 
-	public int[][][] voxel;
+	public int[][][] voxel; //voxels for Options.VOXEL_STORAGE_HEAP, null otherwise
 	public Point minPoint; //top left Point
 	public Point maxPoint; //bottom right Point
 	public double voxsizex, voxsizey, voxsizez; //size of a single voxel
 	public int sizex, sizey, sizez; //number of voxel along the three axis
 	private int count; // just some private counters for internal reasons
 	private int[] countProbabilityVersion;	// just some private counters for internal reasons
+	
+	private int storage = Options.VOXEL_STORAGE_HEAP;
+	private ByteBuffer[] chunks; //voxels for off-heap and memory-mapped storage
+	private static final int CHUNK_BITS = 30;
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
 
 	
 	/**
@@ -66,14 +84,286 @@ public class Voxelvolume {
 	 * @param voxelsize
 	 */
 	public Voxelvolume(Point topleft, Point bottomright, double voxelsize )
+	{
+		this(topleft, bottomright, voxelsize, Options.VOXEL_STORAGE_HEAP, null);
+	}
+	
+	/**
+	 * Constructor, computes the size of of the volume in voxel-length units and allocates the voxels in the given kind of storage 
+	 * (cf. Options.voxelStorage). Memory-mapped files are created in directory (null = directory for temporary files).
+	 * @param topleft
+	 * @param bottomright
+	 * @param voxelsize
+	 * @param storage
+	 * @param directory
+	 */
+	public Voxelvolume(Point topleft, Point bottomright, double voxelsize, int storage, String directory)
 	{
 		voxsizex = voxsizey = voxsizez = voxelsize;
-		sizex = (int) (((bottomright.coords[0] - topleft.coords[0]) / voxsizex) + 1);
-		sizey = (int) (((bottomright.coords[1] - topleft.coords[1]) / voxsizey) + 1);
-		sizez = (int) (((bottomright.coords[2] - topleft.coords[2]) / voxsizez) + 1);
-		voxel = new int[sizex][sizey][sizez];
+		sizex = getSize(topleft, bottomright, voxelsize, 0);
+		sizey = getSize(topleft, bottomright, voxelsize, 1);
+		sizez = getSize(topleft, bottomright, voxelsize, 2);
 		minPoint = topleft;
 		maxPoint = bottomright;
+		
+		this.storage = resolveStorage(storage, getNumberOfVoxels());
+		
+		if(this.storage == Options.VOXEL_STORAGE_OFF_HEAP)
+			allocateDirect();
+		else if(this.storage == Options.VOXEL_STORAGE_MAPPED)
+			allocateMapped(directory);
+		else
+			voxel = new int[sizex][sizey][sizez];
+	}
+	
+	/**
+	 * Allocates the chunks as direct buffers. If the direct memory (-XX:MaxDirectMemorySize) is exhausted, 
+	 * the chunks allocated so far are freed again.
+	 */
+	private void allocateDirect()
+	{
+		long total = getNumberOfVoxels();
+		chunks = new ByteBuffer[(int) ((total + CHUNK_MASK) >>> CHUNK_BITS)];
+		try {
+			for(int i = 0; i < chunks.length; i++)
+				chunks[i] = ByteBuffer.allocateDirect(getChunkLength(i, total));
+		} catch (OutOfMemoryError e) {
+			release();
+			throw new IllegalStateException("Off-heap voxel volume of " + total + " bytes exceeds the direct memory of " 
+					+ getMaxDirectMemory() + " bytes (-XX:MaxDirectMemorySize)", e);
+		}
+	}
+	
+	/**
+	 * Allocates the chunks in a temporary memory-mapped file. The mappings stay valid after the file is closed, 
+	 * the file is deleted at once if the operating system allows this, otherwise on exit.
+	 * @param directory
+	 */
+	private void allocateMapped(String directory)
+	{
+		long total = getNumberOfVoxels();
+		chunks = new ByteBuffer[(int) ((total + CHUNK_MASK) >>> CHUNK_BITS)];
+		File file = null;
+		try {
+			file = File.createTempFile("voxelvolume", ".bin", (directory == null) ? null : new File(directory));
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(total);
+				FileChannel channel = raf.getChannel();
+				for(int i = 0; i < chunks.length; i++)
+					chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i << CHUNK_BITS, getChunkLength(i, total));
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Memory-mapped voxel volume could not be created", e);
+		} finally {
+			if(file != null && !file.delete())
+				file.deleteOnExit();
+		}
+	}
+	
+	/**
+	 * Number of bytes of the i-th chunk
+	 * @param i
+	 * @param total
+	 * @return
+	 */
+	private static int getChunkLength(int i, long total)
+	{
+		return (int) Math.min(1L << CHUNK_BITS, total - ((long) i << CHUNK_BITS));
+	}
+	
+	/**
+	 * Number of voxels along an axis (0 = x, 1 = y, 2 = z) of a voxel volume between topleft and bottomright
+	 * @param topleft
+	 * @param bottomright
+	 * @param voxelsize
+	 * @param axis
+	 * @return
+	 */
+	public static int getSize(Point topleft, Point bottomright, double voxelsize, int axis)
+	{
+		return (int) (((bottomright.coords[axis] - topleft.coords[axis]) / voxelsize) + 1);
+	}
+	
+	/**
+	 * Returns the number of voxels of a voxel volume between topleft and bottomright without creating it
+	 * @param topleft
+	 * @param bottomright
+	 * @param voxelsize
+	 * @return
+	 */
+	public static long getNumberOfVoxels(Point topleft, Point bottomright, double voxelsize)
+	{
+		return (long) getSize(topleft, bottomright, voxelsize, 0) * getSize(topleft, bottomright, voxelsize, 1) * getSize(topleft, bottomright, voxelsize, 2);
+	}
+	
+	/**
+	 * Returns the kind of storage used for a voxel volume with the given number of voxels: 
+	 * Options.VOXEL_STORAGE_AUTO is replaced by the heap if the voxels take at most a quarter of the maximal heap size,
+	 * by direct buffers if they take at most half of the direct memory which is still available and by a memory-mapped file otherwise.
+	 * @param storage
+	 * @param voxels
+	 * @return
+	 */
+	public static int resolveStorage(int storage, long voxels)
+	{
+		if(storage != Options.VOXEL_STORAGE_AUTO)
+			return storage;
+		if(4 * voxels <= Runtime.getRuntime().maxMemory() / 4)
+			return Options.VOXEL_STORAGE_HEAP;
+		if(voxels <= (getMaxDirectMemory() - getUsedDirectMemory()) / 2)
+			return Options.VOXEL_STORAGE_OFF_HEAP;
+		return Options.VOXEL_STORAGE_MAPPED;
+	}
+	
+	/**
+	 * Returns the limit of direct buffers in bytes: the value of -XX:MaxDirectMemorySize or, if it is not set, the maximal heap size
+	 * @return
+	 */
+	public static long getMaxDirectMemory()
+	{
+		for(String argument : ManagementFactory.getRuntimeMXBean().getInputArguments())
+		{
+			if(!argument.startsWith("-XX:MaxDirectMemorySize="))
+				continue;
+			String value = argument.substring(argument.indexOf('=') + 1).trim().toLowerCase();
+			long factor = 1;
+			char unit = value.isEmpty() ? ' ' : value.charAt(value.length() - 1);
+			if(unit == 'k' || unit == 'm' || unit == 'g' || unit == 't')
+			{
+				factor = (unit == 'k') ? 1L << 10 : (unit == 'm') ? 1L << 20 : (unit == 'g') ? 1L << 30 : 1L << 40;
+				value = value.substring(0, value.length() - 1);
+			}
+			try {
+				long size = Long.parseLong(value) * factor;
+				//0 means the default
+				if(size > 0)
+					return size;
+			} catch (NumberFormatException e) {
+				//the JVM would not have started, use the default
+			}
+		}
+		return Runtime.getRuntime().maxMemory();
+	}
+	
+	/**
+	 * Returns the number of bytes currently used by direct buffers
+	 * @return
+	 */
+	public static long getUsedDirectMemory()
+	{
+		for(BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+		{
+			if(pool.getName().equals("direct"))
+				return Math.max(0, pool.getMemoryUsed());
+		}
+		return 0;
+	}
+	
+	/**
+	 * Returns the number of voxels of the voxel volume
+	 * @return
+	 */
+	public long getNumberOfVoxels()
+	{
+		return (long) sizex * sizey * sizez;
+	}
+	
+	/**
+	 * Returns the kind of storage of the voxels (cf. Options.voxelStorage)
+	 * @return
+	 */
+	public int getStorage()
+	{
+		return storage;
+	}
+	
+	/**
+	 * Returns the value of the voxel at x,y,z
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	public int get(int x, int y, int z)
+	{
+		if(voxel != null)
+			return voxel[x][y][z];
+		long index = ((long) x * sizey + y) * sizez + z;
+		return chunks[(int) (index >>> CHUNK_BITS)].get((int) (index & CHUNK_MASK));
+	}
+	
+	/**
+	 * Sets the value of the voxel at x,y,z. Off-heap and memory-mapped storage holds values from 0 to 127.
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param value
+	 */
+	public void set(int x, int y, int z, int value)
+	{
+		if(voxel != null)
+		{
+			voxel[x][y][z] = value;
+			return;
+		}
+		long index = ((long) x * sizey + y) * sizez + z;
+		chunks[(int) (index >>> CHUNK_BITS)].put((int) (index & CHUNK_MASK), (byte) value);
+	}
+	
+	/**
+	 * Releases the voxels. Direct buffers and mappings are freed at once if the JVM allows it (sun.misc.Unsafe.invokeCleaner 
+	 * from Java 9, the cleaner of the buffer in Java 7 and 8), otherwise by the garbage collector afterwards.
+	 * The voxel volume can not be used anymore.
+	 */
+	public void release()
+	{
+		ByteBuffer[] released = chunks;
+		voxel = null;
+		chunks = null;
+		if(released == null)
+			return;
+		for(ByteBuffer b : released)
+		{
+			if(b != null)
+				free(b);
+		}
+	}
+	
+	/**
+	 * Frees the memory or the mapping of a direct buffer, which must not be accessed anymore. 
+	 * Returns false if the JVM does not allow this, the buffer is then freed by the garbage collector.
+	 * @param buffer
+	 * @return
+	 */
+	private static boolean free(ByteBuffer buffer)
+	{
+		try {
+			//Java 9 and later
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return true;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			//Java 7 and 8, see below
+		}
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if(cleaner == null)
+				return false;
+			Method clean = cleaner.getClass().getMethod("clean");
+			clean.setAccessible(true);
+			clean.invoke(cleaner);
+			return true;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return false;
+		}
 	}
 	
 	/**
@@ -104,7 +394,7 @@ public class Voxelvolume {
 			{
 				for(int z = 0 ; z < sizez; z++ )
 				{
-					if(voxel[x][y][z] == 1.0)
+					if(get(x, y, z) == 1.0)
 					{							
 						result += 1.0;
 					}
@@ -130,28 +420,95 @@ public class Voxelvolume {
 			{
 				for(int z = 0 ; z < sizez; z++ )
 				{
-					result += ((double) voxel[x][y][z])/(double) maxVotes; 
+					result += ((double) get(x, y, z))/(double) maxVotes; 
+				}
+			}
+		}
+		return result * factor;
+	}
+	
+	/**
+	 * Computes the volume of the coarser voxel volume with step times the voxel size of this voxel volume and the same origin. 
+	 * Its voxels are every step-th voxel of this voxel volume along each axis. 
+	 * @param step
+	 * @return
+	 */
+	public double getVolume(int step)
+	{
+		double factor = voxsizex * voxsizey * voxsizez * step * step * step;
+		int nx = getCoarseSize(0, step), ny = getCoarseSize(1, step), nz = getCoarseSize(2, step);
+		double result = 0.0;
+		for(int x = 0 ; x < nx; x++ )
+		{
+			for(int y = 0 ; y < ny; y++ )
+			{
+				for(int z = 0 ; z < nz; z++ )
+				{
+					if(get(x*step, y*step, z*step) == 1.0)
+					{
+						result += 1.0;
+					}
 				}
 			}
 		}
 		return result * factor;
 	}
 	
+	/**
+	 * Computes the expected volume for the probability version of the coarser voxel volume with step times the voxel size
+	 * of this voxel volume (cf. getVolume(int step) and getVolumeProbabilityVersion(int maxVotes)).
+	 * @param maxVotes
+	 * @param step
+	 * @return
+	 */
+	public double getVolumeProbabilityVersion(int maxVotes, int step)
+	{
+		double factor = voxsizex * voxsizey * voxsizez * step * step * step;
+		int nx = getCoarseSize(0, step), ny = getCoarseSize(1, step), nz = getCoarseSize(2, step);
+		double result = 0.0;
+		for(int x = 0 ; x < nx; x++ )
+		{
+			for(int y = 0 ; y < ny; y++ )
+			{
+				for(int z = 0 ; z < nz; z++ )
+				{
+					result += ((double) get(x*step, y*step, z*step))/(double) maxVotes; 
+				}
+			}
+		}
+		return result * factor;
+	}
+	
+	/**
+	 * Number of voxels along an axis (0 = x, 1 = y, 2 = z) of a voxel volume with the same extent and step times the voxel size.
+	 * This is computed as in the constructor, but limited to the voxels which are available in this voxel volume.
+	 * @param axis
+	 * @param step
+	 * @return
+	 */
+	private int getCoarseSize(int axis, int step)
+	{
+		double[] voxsize = {voxsizex, voxsizey, voxsizez};
+		int[] size = {sizex, sizey, sizez};
+		int result = (int) (((maxPoint.coords[axis] - minPoint.coords[axis]) / (voxsize[axis] * step)) + 1);
+		return Math.min(result, (size[axis] - 1) / step + 1);
+	}
+	
 	/**
 	 * Counts the  Voxel which have a value of v.
 	 * @param v
 	 * @return
 	 */
-	public int countVoxelsWithValue(int v)
+	public long countVoxelsWithValue(int v)
 	{
-		int sum = 0;
+		long sum = 0;
 		for(int x = 0 ; x<sizex; x++ )
 		 {
 			for(int y = 0 ; y<sizey; y++ )
 			{
 				for(int z = 0 ; z<sizez; z++ )
 				{
-					if(voxel[x][y][z] == v)
+					if(get(x, y, z) == v)
 						sum++;
 				}
 			}
@@ -206,9 +563,9 @@ public class Voxelvolume {
 		
 		for(int i=0; i<6 ;i++)
 		{
-			if(out_ext != null && voxel[x][y][z] == 0.0)
+			if(out_ext != null && get(x, y, z) == 0.0)
 				out_ext.write(faces[i]);
-			if(out_int != null && voxel[x][y][z] == 1.0)
+			if(out_int != null && get(x, y, z) == 1.0)
 				out_int.write(faces[i]);
 		}
 		count+=8;
@@ -226,7 +583,7 @@ public class Voxelvolume {
 	private void appendVoxelToFileProbabilityVersion(int x, int y, int z, Vector<FileWriter> ext ) throws IOException
 	{
 				
-		int index = voxel[x][y][z];
+		int index = get(x, y, z);
 		Point points[] = new Point[8];
 		points[0] = getPointAt(x  , y  , z  ); 
 		points[1] = getPointAt(x+1, y  , z  ); 
@@ -303,52 +660,52 @@ public class Voxelvolume {
 		faces[4] = new String("f " + (count+3) + " " + (count+0) +" " + (count+4) + " " + (count+7)+System.getProperty("line.separator"));
 		faces[5] = new String("f " + (count+4) + " " + (count+5) +" " + (count+6) + " " + (count+7)+System.getProperty("line.separator"));
 		
-		if(out_ext != null && voxel[x][y][z] == 0.0)
+		if(out_ext != null && get(x, y, z) == 0.0)
 		{
 		
 
 		//left face
-			if(x-1<0 || voxel[x-1][y][z] != 0.0)
+			if(x-1<0 || get(x-1, y, z) != 0.0)
 				out_ext.write(faces[4]);
 			
 		//right face
-			if(x+1>=this.sizex || voxel[x+1][y][z] != 0.0)
+			if(x+1>=this.sizex || get(x+1, y, z) != 0.0)
 				out_ext.write(faces[2]);
 		//top face
-			if(z+1>=this.sizez || voxel[x][y][z+1] != 0.0)
+			if(z+1>=this.sizez || get(x, y, z+1) != 0.0)
 				out_ext.write(faces[3]);
 		//bottom face
-			if(z-1<0 || voxel[x][y][z-1] != 0.0)
+			if(z-1<0 || get(x, y, z-1) != 0.0)
 				out_ext.write(faces[1]);
 		//front face
-			if(y-1<0 || voxel[x][y-1][z] != 0.0)
+			if(y-1<0 || get(x, y-1, z) != 0.0)
 				out_ext.write(faces[0]);
 		//back face
-			if(y+1>=this.sizey || voxel[x][y+1][z] != 0.0)
+			if(y+1>=this.sizey || get(x, y+1, z) != 0.0)
 				out_ext.write(faces[5]);
 			
 		}
-		if(out_int != null && voxel[x][y][z] == 1.0)
+		if(out_int != null && get(x, y, z) == 1.0)
 		{
 
 			
 			//left face
-				if(x-1<0 || voxel[x-1][y][z] != 1.0)
+				if(x-1<0 || get(x-1, y, z) != 1.0)
 					out_int.write(faces[4]);
 			//right face
-				if(x+1>=this.sizex || voxel[x+1][y][z] != 1.0)
+				if(x+1>=this.sizex || get(x+1, y, z) != 1.0)
 					out_int.write(faces[2]);
 			//top face
-				if(z+1>=this.sizez || voxel[x][y][z+1] != 1.0)
+				if(z+1>=this.sizez || get(x, y, z+1) != 1.0)
 					out_int.write(faces[3]);
 			//bottom face
-				if(z-1<0 || voxel[x][y][z-1] != 1.0)
+				if(z-1<0 || get(x, y, z-1) != 1.0)
 					out_int.write(faces[1]);
 			//front face
-				if(y-1<0 || voxel[x][y-1][z] != 1.0)
+				if(y-1<0 || get(x, y-1, z) != 1.0)
 					out_int.write(faces[0]);
 			//back face
-				if(y+1>=this.sizey || voxel[x][y+1][z] != 1.0)
+				if(y+1>=this.sizey || get(x, y+1, z) != 1.0)
 					out_int.write(faces[5]);
 				
 			
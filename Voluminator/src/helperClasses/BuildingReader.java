@@ -57,9 +57,15 @@
 */
 package helperClasses;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.citygml4j.CityGMLContext;
 import org.citygml4j.builder.CityGMLBuilder;
@@ -85,13 +91,16 @@ import dataTypes.Options;
 public class BuildingReader {
 	
 	Options options;
+	private static CityGMLBuilder builder;
+	private static final ThreadLocal<CityGMLInputFactory> inputFactory = new ThreadLocal<CityGMLInputFactory>();
 	
 	public BuildingReader(){
 		
 	}
 
 	/**
-	 * Returns a list for BuildingCallable read by CityGML file
+	 * Returns a list for BuildingCallable read by CityGML file.
+	 * If options.numberOfParsingThreads is larger than 1, the file is parsed in parallel (cf. readCityGMLFileParallel).
 	 * 
 	 * @param pathtocitygmlfile
 	 * @param options
@@ -101,13 +110,120 @@ public class BuildingReader {
 	public List<BuildingCallable> readCityGMLFile(String pathtocitygmlfile, Options options) throws Exception {
 
 		this.options = options;
+		if(options.numberOfParsingThreads > 1){
+			return readCityGMLFileParallel(pathtocitygmlfile, options);
+		}
 		
 		List<BuildingCallable> buildings = new ArrayList<BuildingCallable>();
 		
-		CityGMLContext ctx = new CityGMLContext();
-		CityGMLBuilder builder = ctx.createCityGMLBuilder();
-		CityGMLInputFactory in = builder.createCityGMLInputFactory();
+		CityGMLInputFactory in = getInputFactory();
 		CityGMLReader reader = in.createCityGMLReader(new File(pathtocitygmlfile));
+		addBuildings(reader, buildings, options);
+		
+		reader.close();
+		return buildings;
+	}
+	
+	/**
+	 * Returns a list for BuildingCallable read by CityGML file, parsed by options.numberOfParsingThreads threads.
+	 * The file is split into its cityObjectMember elements (cf. CityGMLSplitter), which are unmarshalled as small CityGML documents
+	 * in parallel. The polygons of the buildings are constructed by the same threads, except for a dry run (cf. Options.dryRun), 
+	 * which only needs the boundary surfaces. The buildings are returned in the order of the file.
+	 * 
+	 * @param pathtocitygmlfile
+	 * @param options
+	 * @return List<BuildingCallable>
+	 * @throws Exception
+	 */
+	public List<BuildingCallable> readCityGMLFileParallel(String pathtocitygmlfile, final Options options) throws Exception {
+		
+		this.options = options;
+		List<BuildingCallable> buildings = new ArrayList<BuildingCallable>();
+		ExecutorService executerService = Executors.newFixedThreadPool(options.numberOfParsingThreads);
+		LinkedList<Future<List<BuildingCallable>>> pending = new LinkedList<Future<List<BuildingCallable>>>();
+		
+		final String systemId = new File(pathtocitygmlfile).toURI().toString();
+		CityGMLSplitter splitter = new CityGMLSplitter(pathtocitygmlfile);
+		try {
+			String header = splitter.getHeader();
+			String member;
+			while((member = splitter.nextMember()) != null){
+				
+				final String document = CityGMLSplitter.wrapMember(header, member);
+				pending.add(executerService.submit(new Callable<List<BuildingCallable>>() {
+					@Override
+					public List<BuildingCallable> call() throws Exception {
+						return readDocument(document, systemId, options);
+					}
+				}));
+				
+				//the results are collected in the order of the members, which also limits the number of members in memory
+				while(pending.size() >= 4 * options.numberOfParsingThreads){
+					buildings.addAll(pending.removeFirst().get());
+				}
+			}
+			while(!pending.isEmpty()){
+				buildings.addAll(pending.removeFirst().get());
+			}
+		} finally {
+			splitter.close();
+			executerService.shutdownNow();
+		}
+		return buildings;
+	}
+	
+	/**
+	 * Reads the buildings of a small CityGML document and constructs their polygons unless options.dryRun is set
+	 * 
+	 * @param document
+	 * @param systemId
+	 * @param options
+	 * @return List<BuildingCallable>
+	 * @throws Exception
+	 */
+	private static List<BuildingCallable> readDocument(String document, String systemId, Options options) throws Exception {
+		
+		List<BuildingCallable> buildings = parseDocument(document, systemId, options);
+		if(options.dryRun){
+			return buildings;
+		}
+		PolygonConstructor constructor = new PolygonConstructor();
+		for(BuildingCallable b : buildings){
+			b.setPolygons(constructor.constructPolygons(b.getBsp()));
+		}
+		return buildings;
+	}
+	
+	/**
+	 * Reads the buildings of a small CityGML document, e.g. a member wrapped by CityGMLSplitter.wrapMember, 
+	 * without constructing their polygons. systemId is the URI of the file the document was taken from, which is used 
+	 * to resolve relative references and in error messages, null if there is no such file.
+	 * 
+	 * @param document
+	 * @param systemId
+	 * @param options
+	 * @return List<BuildingCallable>
+	 * @throws Exception
+	 */
+	public static List<BuildingCallable> parseDocument(String document, String systemId, Options options) throws Exception {
+		
+		List<BuildingCallable> buildings = new ArrayList<BuildingCallable>();
+		CityGMLInputFactory in = getInputFactory();
+		CityGMLReader reader = in.createCityGMLReader(systemId, new ByteArrayInputStream(document.getBytes(CityGMLSplitter.CHARSET)));
+		addBuildings(reader, buildings, options);
+		reader.close();
+		return buildings;
+	}
+	
+	/**
+	 * Adds a BuildingCallable for each building of the city models read by reader
+	 * 
+	 * @param reader
+	 * @param buildings
+	 * @param options
+	 * @throws Exception
+	 */
+	private static void addBuildings(CityGMLReader reader, List<BuildingCallable> buildings, Options options) throws Exception {
 		
 		while (reader.hasNext()) {
 			CityGML citygml = reader.nextFeature();
@@ -130,9 +246,40 @@ public class BuildingReader {
 				}
 			}	
 		}			
+	}
+	
+	/**
+	 * Returns the CityGMLBuilder shared by all readers. Creating it initializes the JAXB context, which is expensive,
+	 * the builder itself is thread-safe.
+	 * 
+	 * @return CityGMLBuilder
+	 * @throws Exception
+	 */
+	public static synchronized CityGMLBuilder getBuilder() throws Exception {
 		
-		reader.close();
-		return buildings;
+		if(builder == null){
+			CityGMLContext ctx = new CityGMLContext();
+			builder = ctx.createCityGMLBuilder();
+		}
+		return builder;
+	}
+	
+	/**
+	 * Returns the CityGMLInputFactory of the calling thread, which is shared by all its readers, e.g. for the files of a directory. 
+	 * The factories are not thread-safe, therefore each thread gets its own one, all created by the shared CityGMLBuilder.
+	 * Its properties must not be changed, since every reader of the thread uses them.
+	 * 
+	 * @return CityGMLInputFactory
+	 * @throws Exception
+	 */
+	public static CityGMLInputFactory getInputFactory() throws Exception {
+		
+		CityGMLInputFactory result = inputFactory.get();
+		if(result == null){
+			result = getBuilder().createCityGMLInputFactory();
+			inputFactory.set(result);
+		}
+		return result;
 	}
 	
 }
@@ -0,0 +1,304 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package helperClasses;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Scans a CityGML file for the top level cityObjectMember elements of the CityModel (with any namespace prefix) 
+ * without parsing them, e.g. for splitting the file into smaller CityGML files or for parsing the members in parallel.
+ * 
+ * The text before the first member (XML declaration, root element with namespaces, gml:boundedBy etc.) is the header, 
+ * the text after the last member (appearance members, end of root element) and any other text between members is the footer.
+ * The file is read as ISO-8859-1, which keeps the bytes of any ASCII compatible encoding unchanged if the text is written 
+ * in the same way (cf. CHARSET).
+ * 
+ * @author Horst Steuer
+ *
+ */
+public class CityGMLSplitter {
+	
+	public static final Charset CHARSET = Charset.forName("ISO-8859-1");
+	private static final Pattern MEMBER_START = Pattern.compile("<([\\w.-]+:)?cityObjectMember[\\s/>]");
+	private static final Pattern ELEMENT_START = Pattern.compile("<([\\w.:-]+)[\\s/>]");
+	private static final int BLOCK = 1 << 16;
+	
+	private Reader in;
+	private StringBuilder buffer = new StringBuilder();
+	private boolean eof = false;
+	private String header = null;
+	private StringBuilder footer = new StringBuilder();
+	
+	/**
+	 * Constructor, opens inputfile
+	 * @param inputfile
+	 * @throws IOException
+	 */
+	public CityGMLSplitter(String inputfile) throws IOException
+	{
+		in = new InputStreamReader(new FileInputStream(inputfile), CHARSET);
+	}
+	
+	/**
+	 * Constructor, reads the CityGML document from in
+	 * @param in
+	 */
+	public CityGMLSplitter(Reader in)
+	{
+		this.in = in;
+	}
+	
+	/**
+	 * Returns the header of the file
+	 * @return
+	 * @throws IOException
+	 */
+	public String getHeader() throws IOException
+	{
+		if(header == null)
+			header = nextTextBeforeMember();
+		return header;
+	}
+	
+	/**
+	 * Returns the footer of the file, it is complete after nextMember() returned null
+	 * @return
+	 */
+	public String getFooter()
+	{
+		return footer.toString();
+	}
+	
+	/**
+	 * Returns the next member including its start and end tag, null if there are no more members
+	 * @return
+	 * @throws IOException
+	 */
+	public String nextMember() throws IOException
+	{
+		if(header == null)
+			getHeader();
+		String member = readMember();
+		
+		//whitespace between members is dropped, other text is moved to the footer
+		String after = nextTextBeforeMember();
+		if(!after.trim().isEmpty())
+			footer.append(after);
+		return member;
+	}
+	
+	/**
+	 * Closes the file
+	 * @throws IOException
+	 */
+	public void close() throws IOException
+	{
+		in.close();
+	}
+	
+	/**
+	 * Wraps a member into a complete CityGML document: XML declaration and start tag of the root element from the header, 
+	 * the member and the end tag of the root element.
+	 * @param header
+	 * @param member
+	 * @return
+	 */
+	public static String wrapMember(String header, String member)
+	{
+		StringBuilder result = new StringBuilder();
+		int declarationEnd = header.startsWith("<?") ? header.indexOf("?>") + 2 : 0;
+		result.append(header, 0, declarationEnd);
+		
+		//first element which is neither a processing instruction nor a comment
+		Matcher m = ELEMENT_START.matcher(header);
+		if(m.find(declarationEnd))
+		{
+			result.append(header, m.start(), header.indexOf('>', m.start()) + 1);
+			result.append(member);
+			result.append("</").append(m.group(1)).append(">");
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * Splits inputfile into at most numberOfShards CityGML files in directory: each member is copied into one shard, the header 
+	 * to the beginning and the footer to the end of every shard. Members are assigned to the shard with the fewest characters so far, 
+	 * so that the shards have about the same size. Returns the shards which contain at least one member.
+	 * @param inputfile
+	 * @param numberOfShards
+	 * @param directory
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<File> split(String inputfile, int numberOfShards, File directory) throws IOException
+	{
+		File[] files = new File[numberOfShards];
+		Writer[] writers = new Writer[numberOfShards];
+		long[] sizes = new long[numberOfShards];
+		
+		CityGMLSplitter splitter = new CityGMLSplitter(inputfile);
+		try {
+			String member;
+			while((member = splitter.nextMember()) != null)
+			{
+				int shard = 0;
+				for(int i = 1; i < numberOfShards; i++)
+				{
+					if(sizes[i] < sizes[shard])
+						shard = i;
+				}
+				if(writers[shard] == null)
+				{
+					files[shard] = new File(directory, "shard" + shard + ".gml");
+					writers[shard] = new OutputStreamWriter(new FileOutputStream(files[shard]), CHARSET);
+					writers[shard].write(splitter.getHeader());
+				}
+				writers[shard].write(member);
+				writers[shard].write(System.getProperty("line.separator"));
+				sizes[shard] += member.length();
+			}
+		} finally {
+			splitter.close();
+		}
+		
+		List<File> result = new ArrayList<File>();
+		for(int i = 0; i < numberOfShards; i++)
+		{
+			if(writers[i] == null)
+				continue;
+			writers[i].write(splitter.getFooter());
+			writers[i].close();
+			result.add(files[i]);
+		}
+		return result;
+	}
+	
+	/**
+	 * Reads until the start of the next member and returns and removes the text before it from the buffer.
+	 * If there is no further member the rest of the file is returned.
+	 * @return
+	 * @throws IOException
+	 */
+	private String nextTextBeforeMember() throws IOException
+	{
+		StringBuilder result = new StringBuilder();
+		while(true)
+		{
+			Matcher m = MEMBER_START.matcher(buffer);
+			if(m.find())
+			{
+				result.append(buffer, 0, m.start());
+				buffer.delete(0, m.start());
+				return result.toString();
+			}
+			if(eof)
+			{
+				result.append(buffer);
+				buffer.setLength(0);
+				return result.toString();
+			}
+			//keep the end of the buffer, a start tag may be split between two blocks
+			int keep = Math.min(buffer.length(), 256);
+			result.append(buffer, 0, buffer.length() - keep);
+			buffer.delete(0, buffer.length() - keep);
+			fill();
+		}
+	}
+	
+	/**
+	 * Returns and removes the member at the beginning of the buffer, null if the buffer does not start with a member
+	 * @return
+	 * @throws IOException
+	 */
+	private String readMember() throws IOException
+	{
+		Matcher m = MEMBER_START.matcher(buffer);
+		if(!m.lookingAt())
+			return null;
+		String prefix = (m.group(1) == null) ? "" : m.group(1);
+		String endTag = "</" + prefix + "cityObjectMember>";
+		
+		int from = 0;
+		while(true)
+		{
+			//empty element, e.g. a reference by xlink:href
+			int close = buffer.indexOf(">");
+			if(close > 0 && buffer.charAt(close - 1) == '/')
+				return take(close + 1);
+			
+			int end = buffer.indexOf(endTag, from);
+			if(end >= 0)
+				return take(end + endTag.length());
+			if(eof)
+				throw new IOException("Unterminated " + prefix + "cityObjectMember");
+			from = Math.max(0, buffer.length() - endTag.length());
+			fill();
+		}
+	}
+	
+	private String take(int length)
+	{
+		String result = buffer.substring(0, length);
+		buffer.delete(0, length);
+		return result;
+	}
+	
+	/**
+	 * Appends the next block of the file to the buffer
+	 * @throws IOException
+	 */
+	private void fill() throws IOException
+	{
+		char[] block = new char[BLOCK];
+		int n = in.read(block);
+		if(n < 0)
+			eof = true;
+		else
+			buffer.append(block, 0, n);
+	}
+}
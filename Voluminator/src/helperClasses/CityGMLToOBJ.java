@@ -62,8 +62,6 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
 
-import org.citygml4j.CityGMLContext;
-import org.citygml4j.builder.CityGMLBuilder;
 import org.citygml4j.model.citygml.CityGML;
 import org.citygml4j.model.citygml.CityGMLClass;
 import org.citygml4j.model.citygml.building.BoundarySurfaceProperty;
@@ -118,11 +116,10 @@ public class CityGMLToOBJ {
 			
 			
 			SimpleDateFormat df = new SimpleDateFormat("[HH:mm:ss] ");
+			//the JAXB builder and the input factory are created once and shared by all files (cf. BuildingReader)
 			System.out.println(df.format(new Date()) + "setting up citygml4j context and JAXB builder");
-			CityGMLContext ctx = new CityGMLContext();
-			CityGMLBuilder builder = ctx.createCityGMLBuilder();
+			CityGMLInputFactory in = BuildingReader.getInputFactory();
 			System.out.println(df.format(new Date()) + "reading CityGML file " + inputfile + " completely into main memory");
-			CityGMLInputFactory in = builder.createCityGMLInputFactory();
 			CityGMLReader reader = in.createCityGMLReader(new File(inputfile));
 			
 			while (reader.hasNext()) {
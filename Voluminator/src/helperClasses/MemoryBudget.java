@@ -0,0 +1,114 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package helperClasses;
+
+/**
+ * Memory budget shared by the jobs of a batch computation. A job may only start if its estimated peak memory 
+ * (cf. MemoryEstimator) fits into the part of the budget which is not used by running jobs.
+ * A job whose estimate exceeds the whole budget is admitted if no other job is running, so that it is not blocked forever.
+ * 
+ * @author Horst Steuer
+ *
+ */
+public class MemoryBudget {
+	
+	private long budget;
+	private long used = 0;
+	private int running = 0;
+	
+	/**
+	 * Constructor
+	 * @param budget in bytes
+	 */
+	public MemoryBudget(long budget)
+	{
+		this.budget = budget;
+	}
+	
+	/**
+	 * Reserves bytes for a job and returns true if they fit into the budget, returns false otherwise.
+	 * @param bytes
+	 * @return
+	 */
+	public synchronized boolean tryAcquire(long bytes)
+	{
+		if(running > 0 && used + bytes > budget)
+			return false;
+		used += bytes;
+		running++;
+		return true;
+	}
+	
+	/**
+	 * Reserves bytes for a job, waits until they fit into the budget
+	 * @param bytes
+	 * @throws InterruptedException
+	 */
+	public synchronized void acquire(long bytes) throws InterruptedException
+	{
+		while(!tryAcquire(bytes))
+			wait();
+	}
+	
+	/**
+	 * Releases the bytes reserved for a finished job
+	 * @param bytes
+	 */
+	public synchronized void release(long bytes)
+	{
+		used -= bytes;
+		running--;
+		notifyAll();
+	}
+	
+	/**
+	 * Returns the number of bytes reserved by running jobs
+	 * @return
+	 */
+	public synchronized long getUsed()
+	{
+		return used;
+	}
+	
+	/**
+	 * Returns the budget in bytes
+	 * @return
+	 */
+	public long getBudget()
+	{
+		return budget;
+	}
+}
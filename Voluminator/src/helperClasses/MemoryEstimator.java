@@ -0,0 +1,177 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package helperClasses;
+
+import dataTypes.BoundingBox;
+import dataTypes.Options;
+import dataTypes.Point;
+import dataTypes.Voxelvolume;
+
+/**
+ * Estimates the peak memory of the volume computation of a single building from its bounding box and number of polygons,
+ * without constructing the polygons or the voxel volume. 
+ * The estimate counts the memory of the voxel volume(s) on the heap or in direct buffers and of the polygons. 
+ * Memory-mapped voxel volumes are paged by the operating system and are not counted, but the state of the flood fill engine 
+ * (one byte per voxel on the heap, cf. voluminator.FloodFillEngine) is counted for every kind of storage.
+ * 
+ * @author Horst Steuer
+ *
+ */
+public class MemoryEstimator {
+	
+	//approximate heap memory of a polygon with its rings, 2D projections and plane
+	public static final long BYTES_PER_POLYGON = 1024;
+	//approximate memory of the crossing list of a column in the line integral mode
+	public static final long BYTES_PER_COLUMN = 24;
+	//offset of the voxel volume around the bounding box as used by the Voluminator
+	private static final double OFFSET = 0.005;
+	
+	/**
+	 * Estimates the peak memory in bytes for a building with bounding box bb and the given number of polygons (cf. options.voxelsize, 
+	 * options.multiResolutionVoxelsizes, options.autoResolution and options.voxelStorage).
+	 * @param bb
+	 * @param polygons
+	 * @param options
+	 * @return
+	 */
+	public static long estimatePeakMemory(BoundingBox bb, int polygons, Options options)
+	{
+		if(polygons == 0)
+			return 0;
+		//the Monte Carlo mode classifies points without a voxel volume
+		if(options.monteCarlo != Options.MONTE_CARLO_OFF)
+			return polygons * BYTES_PER_POLYGON;
+		//the line integral mode holds the crossing lists of the columns of one axis: offsets and two crossings per column,
+		//or the voxel volume if the surface is open
+		if(options.lineIntegral)
+		{
+			long columns = getNumberOfColumns(bb, options.voxelsize) * BYTES_PER_COLUMN;
+			long voxels = getVoxelMemory(getNumberOfVoxels(bb, options.voxelsize), options.voxelStorage) 
+					+ getEngineMemory(getNumberOfVoxels(bb, options.voxelsize), options);
+			return Math.max(columns, voxels) + polygons * BYTES_PER_POLYGON;
+		}
+		
+		long voxels = estimateVoxels(bb, options);
+		//the convergence mode holds a coarse voxel volume with an eighth of the voxels while refining
+		if(options.multiResolutionVoxelsizes == null && options.autoResolution == Options.AUTO_RESOLUTION_CONVERGENCE)
+			voxels += voxels / 8;
+		
+		return getVoxelMemory(voxels, options.voxelStorage) + getEngineMemory(voxels, options) + polygons * BYTES_PER_POLYGON;
+	}
+	
+	/**
+	 * Estimates the heap memory in bytes the engine of options needs besides the voxel volume: one byte per voxel 
+	 * for the state of the flood fill engine, nothing for the other engines
+	 * @param voxels
+	 * @param options
+	 * @return
+	 */
+	public static long getEngineMemory(long voxels, Options options)
+	{
+		if(options.engine == Options.ENGINE_FLOODFILL && voxels <= Integer.MAX_VALUE - 8)
+			return voxels;
+		return 0;
+	}
+	
+	/**
+	 * Estimates the number of voxels of the largest voxel volume used for a building with bounding box bb
+	 * @param bb
+	 * @param options
+	 * @return
+	 */
+	public static long estimateVoxels(BoundingBox bb, Options options)
+	{
+		double voxelsize = options.voxelsize;
+		if(options.multiResolutionVoxelsizes != null)
+		{
+			for(double v : options.multiResolutionVoxelsizes)
+				voxelsize = Math.min(voxelsize, v);
+			return getNumberOfVoxels(bb, voxelsize);
+		}
+		
+		if(options.autoResolution == Options.AUTO_RESOLUTION_VOXEL_BUDGET)
+			return Math.min(options.voxelBudget, getNumberOfVoxels(bb, voxelsize));
+		if(options.autoResolution == Options.AUTO_RESOLUTION_CONVERGENCE)
+			return Math.max(options.voxelBudget, getNumberOfVoxels(bb, voxelsize));
+		return getNumberOfVoxels(bb, voxelsize);
+	}
+	
+	/**
+	 * Number of voxels of the voxel volume the Voluminator creates for bounding box bb
+	 * @param bb
+	 * @param voxelsize
+	 * @return
+	 */
+	public static long getNumberOfVoxels(BoundingBox bb, double voxelsize)
+	{
+		Point min = new Point(bb.minPoint.coords[0]-OFFSET, bb.minPoint.coords[1]-OFFSET, bb.minPoint.coords[2]-OFFSET);
+		Point max = new Point(bb.maxPoint.coords[0]+OFFSET, bb.maxPoint.coords[1]+OFFSET, bb.maxPoint.coords[2]+OFFSET);
+		return Voxelvolume.getNumberOfVoxels(min, max, voxelsize);
+	}
+	
+	/**
+	 * Largest number of lines through the voxel centers along one axis for bounding box bb (cf. Voluminator.computeVolumeLineIntegral)
+	 * @param bb
+	 * @param voxelsize
+	 * @return
+	 */
+	public static long getNumberOfColumns(BoundingBox bb, double voxelsize)
+	{
+		Point min = new Point(bb.minPoint.coords[0]-OFFSET, bb.minPoint.coords[1]-OFFSET, bb.minPoint.coords[2]-OFFSET);
+		Point max = new Point(bb.maxPoint.coords[0]+OFFSET, bb.maxPoint.coords[1]+OFFSET, bb.maxPoint.coords[2]+OFFSET);
+		long[] size = new long[3];
+		for(int axis = 0; axis < 3; axis++)
+			size[axis] = Voxelvolume.getSize(min, max, voxelsize, axis);
+		return Math.max(size[0] * size[1], Math.max(size[0] * size[2], size[1] * size[2]));
+	}
+	
+	/**
+	 * Memory of a voxel volume with the given number of voxels and kind of storage. 
+	 * Voxels on the heap take 4 bytes (array headers are neglected), off-heap voxels 1 byte and memory-mapped voxels are not counted.
+	 * @param voxels
+	 * @param storage
+	 * @return
+	 */
+	public static long getVoxelMemory(long voxels, int storage)
+	{
+		storage = Voxelvolume.resolveStorage(storage, voxels);
+		if(storage == Options.VOXEL_STORAGE_HEAP)
+			return 4 * voxels;
+		if(storage == Options.VOXEL_STORAGE_OFF_HEAP)
+			return voxels;
+		return 0;
+	}
+}
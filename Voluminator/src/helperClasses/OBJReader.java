@@ -36,10 +36,13 @@ package helperClasses;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Vector;
 
+import dataTypes.BoundingBox;
 import dataTypes.Point;
 import dataTypes.Polygon;
 import dataTypes.Ring;
@@ -52,6 +55,7 @@ import dataTypes.Ring;
 public class OBJReader {
 
 	Vector<Point> punkte;
+	int numberOfFaces;
 	
 	
 	/**
@@ -80,6 +84,97 @@ public class OBJReader {
 		return result;
 	}
 	
+	/**
+	 * Reads OBJ data which may contain several objects, each starting with an "o name" statement, and returns the polygons 
+	 * per object name in the order of the data. Faces before the first object statement belong to defaultName.
+	 * As in OBJ files, the vertex indices of the faces refer to all vertices read so far.
+	 * 
+	 * @param in
+	 * @param defaultName
+	 * @return
+	 */
+	public Map<String, Vector<Polygon>> readObjects(Readable in, String defaultName)
+	{
+		punkte = new Vector<Point>() ;
+		Map<String, Vector<Polygon>> result = new LinkedHashMap<String, Vector<Polygon>>();
+		Vector<Polygon> current = null;
+		String name = defaultName;
+		Scanner scanner = new Scanner(in);
+
+		while(scanner.hasNextLine())
+		{
+			String l = scanner.nextLine();
+			
+			if(l.startsWith("o "))
+			{
+				name = l.substring(2).trim();
+				current = null;
+			}
+			if(l.startsWith("v "))
+				gleanVector(l);
+			if(l.startsWith("f "))
+			{
+				if(current == null)
+				{
+					current = result.get(name);
+					if(current == null)
+					{
+						current = new Vector<Polygon>();
+						result.put(name, current);
+					}
+				}
+				current.add(gleanPolygon(l));
+			}
+		}
+		scanner.close();
+		return result;
+	}
+	
+	/**
+	 * Reads only the vertices of an OBJ-File and returns their bounding box, no polygons are constructed.
+	 * The number of faces of the file is available by getNumberOfFaces() afterwards.
+	 * 
+	 * @param filepath
+	 * @return
+	 * @throws FileNotFoundException
+	 */
+	public BoundingBox readBoundingBox(String filepath) throws FileNotFoundException
+	{
+		punkte = new Vector<Point>() ;
+		numberOfFaces = 0;
+		BoundingBox result = new BoundingBox();
+		Scanner scanner = new Scanner(new File(filepath));
+
+		while(scanner.hasNextLine())
+		{
+			String l = scanner.nextLine();
+			
+			if(l.startsWith("v "))
+			{
+				gleanVector(l);
+				Point p = punkte.remove(punkte.size() - 1);
+				for(int axis = 0; axis < 3; axis++)
+				{
+					result.minPoint.coords[axis] = Math.min(p.coords[axis], result.minPoint.coords[axis]);
+					result.maxPoint.coords[axis] = Math.max(p.coords[axis], result.maxPoint.coords[axis]);
+				}
+			}
+			if(l.startsWith("f "))
+				numberOfFaces++;
+		}
+		scanner.close();
+		return result;
+	}
+	
+	/**
+	 * Returns the number of faces of the last file read by readBoundingBox
+	 * @return
+	 */
+	public int getNumberOfFaces()
+	{
+		return numberOfFaces;
+	}
+	
 	/**
 	 * Parses a line of the OBJ-file containing a vector
 	 * @param line
@@ -34,11 +34,13 @@
 */
 package helperClasses;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
 
 import org.citygml4j.model.citygml.building.AbstractBoundarySurface;
 import org.citygml4j.model.citygml.building.BoundarySurfaceProperty;
+import org.citygml4j.model.citygml.building.GroundSurface;
 import org.citygml4j.model.gml.GMLClass;
 import org.citygml4j.model.gml.geometry.aggregates.MultiSurface;
 import org.citygml4j.model.gml.geometry.aggregates.MultiSurfaceProperty;
@@ -48,6 +50,7 @@ import org.citygml4j.model.gml.geometry.primitives.DirectPositionList;
 import org.citygml4j.model.gml.geometry.primitives.LinearRing;
 import org.citygml4j.model.gml.geometry.primitives.SurfaceProperty;
 
+import dataTypes.BoundingBox;
 import dataTypes.Point;
 import dataTypes.Polygon;
 import dataTypes.Ring;
@@ -68,6 +71,73 @@ public class PolygonConstructor {
 	public Vector<Polygon> constructPolygons(List<BoundarySurfaceProperty> bsp)
 	{
 		Vector<Polygon> pols = new Vector<Polygon>();
+		for( SurfaceProperty f : getPolygonSurfaces(bsp))
+		{
+			pols.add(constructPolygon(f));
+		}
+		return pols;
+	}
+	
+	/**
+	 * Constructs Polygons from the GroundSurfaces of CityGML boundary surface properties, e.g. for the footprint of the building
+	 * @param bsp
+	 * @return
+	 */
+	public Vector<Polygon> constructGroundSurfaces(List<BoundarySurfaceProperty> bsp)
+	{
+		List<BoundarySurfaceProperty> ground = new ArrayList<BoundarySurfaceProperty>();
+		for( BoundarySurfaceProperty a : bsp)
+		{
+			if(a.getBoundarySurface() instanceof GroundSurface)
+				ground.add(a);
+		}
+		return constructPolygons(ground);
+	}
+	
+	/**
+	 * Computes the bounding box of the polygons of CityGML boundary surface properties without constructing the polygons.
+	 * As in Polygon.getBoundingBox only the exterior rings are taken into account.
+	 * @param bsp
+	 * @return
+	 */
+	public BoundingBox computeBoundingBox(List<BoundarySurfaceProperty> bsp)
+	{
+		BoundingBox result = new BoundingBox();
+		for( SurfaceProperty f : getPolygonSurfaces(bsp))
+		{
+			org.citygml4j.model.gml.geometry.primitives.Polygon p = (org.citygml4j.model.gml.geometry.primitives.Polygon)f.getSurface();
+			List<Double> poslist = ((LinearRing) p.getExterior().getRing()).getPosList().getValue();
+			for(int i = 0; i < (poslist.size()/3)-1;i++)
+			{
+				for(int axis = 0; axis < 3; axis++)
+				{
+					result.minPoint.coords[axis] = Math.min(poslist.get(i*3+axis), result.minPoint.coords[axis]);
+					result.maxPoint.coords[axis] = Math.max(poslist.get(i*3+axis), result.maxPoint.coords[axis]);
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the number of polygons of CityGML boundary surface properties without constructing them
+	 * @param bsp
+	 * @return
+	 */
+	public int countPolygons(List<BoundarySurfaceProperty> bsp)
+	{
+		return getPolygonSurfaces(bsp).size();
+	}
+	
+	/**
+	 * Collects the surface properties of all polygons of CityGML boundary surface properties, 
+	 * polygons of composite surfaces are resolved.
+	 * @param bsp
+	 * @return
+	 */
+	private List<SurfaceProperty> getPolygonSurfaces(List<BoundarySurfaceProperty> bsp)
+	{
+		List<SurfaceProperty> result = new ArrayList<SurfaceProperty>();
 		for( BoundarySurfaceProperty a : bsp)
 		{
 			AbstractBoundarySurface b = a.getBoundarySurface();
@@ -78,18 +148,19 @@ public class PolygonConstructor {
 			{
 				if(f.getGeometry().getGMLClass() == GMLClass.POLYGON)
 				{
-					pols.add(constructPolygon(f));
+					result.add(f);
 				} else if(f.getGeometry().getGMLClass() == GMLClass.COMPOSITE_SURFACE)
 				{
 					for( SurfaceProperty g: ((CompositeSurface)f.getGeometry()).getSurfaceMember())
 					{
-						pols.add(constructPolygon(g));
+						result.add(g);
 					}
 				}
 			}
 		}
-		return pols;
+		return result;
 	}
+	
 	/**
 	 * Constructs a Polygon from CityGML surface property
 	 * @param f
@@ -0,0 +1,595 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package helperClasses;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Vector;
+
+import dataTypes.Point;
+import dataTypes.Polygon;
+import dataTypes.Ring;
+
+/**
+ * Cleans up the polygons of a building before they are handed to the Voluminator.
+ *
+ * Real world data contains duplicated faces, zero-area slivers and walls which are split into many coplanar pieces.
+ * Each of these makes ray tests more expensive and the duplicates produce double intersections (cf. Options.removeDuplicateIntersections).
+ * The preprocessor
+ *  - removes repeated points and drops polygons which do not span an area,
+ *  - rotates rings whose first three points are collinear, since Polygon computes its plane from these points,
+ *  - removes exact and near duplicates (same cyclic sequence of vertices up to the tolerance, independent of the starting point 
+ *    and the orientation),
+ *  - merges coplanar polygons sharing an edge (or a chain of edges) into a single polygon.
+ * The input vector is not modified.
+ *
+ * @author Horst Steuer
+ *
+ */
+public class PolygonPreprocessor {
+
+	//distance under which two points are considered equal, also used as maximal distance of a point to a plane when merging
+	private double tolerance;
+
+	//statistics of the last run
+	private int removedDegenerate;
+	private int removedDuplicates;
+	private int mergedPolygons;
+
+	/**
+	 * Constructor
+	 * @param tolerance distance under which two points are considered equal
+	 */
+	public PolygonPreprocessor(double tolerance)
+	{
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Returns the preprocessed polygons. Polygons which are not changed are taken over as they are.
+	 * @param polygons
+	 * @return
+	 */
+	public Vector<Polygon> preprocess(Vector<Polygon> polygons)
+	{
+		removedDegenerate = 0;
+		removedDuplicates = 0;
+		mergedPolygons = 0;
+
+		//remove degenerate polygons and duplicates
+		Vector<Polygon> cleaned = new Vector<Polygon>();
+		HashMap<String, List<Polygon>> cells = new HashMap<String, List<Polygon>>();
+		for(Polygon p : polygons)
+		{
+			Polygon c = cleanPolygon(p);
+			if(c == null)
+			{
+				removedDegenerate++;
+				continue;
+			}
+			if(isDuplicate(c, cells))
+			{
+				removedDuplicates++;
+				continue;
+			}
+			String key = getCellKey(c, 0, 0, 0);
+			if(!cells.containsKey(key))
+				cells.put(key, new ArrayList<Polygon>());
+			cells.get(key).add(c);
+			cleaned.add(c);
+		}
+
+		return mergeCoplanarPolygons(cleaned);
+	}
+
+	/**
+	 * Removes repeated points from all rings and makes sure that the first three points of the exterior ring are not collinear.
+	 * Returns null if the polygon does not span an area.
+	 * @param p
+	 * @return
+	 */
+	private Polygon cleanPolygon(Polygon p)
+	{
+		List<Point> exterior = removeRepeatedPoints(p.getExterior().pos);
+		if(exterior == null)
+			return null;
+
+		double[] normal = computeNewellNormal(exterior);
+		double area = Math.sqrt(normal[0]*normal[0] + normal[1]*normal[1] + normal[2]*normal[2]) / 2.0;
+		if(area <= tolerance * tolerance)
+			return null;
+
+		exterior = rotateToNonCollinearStart(exterior);
+		if(exterior == null)
+			return null;
+
+		Vector<List<Point>> interiors = new Vector<List<Point>>();
+		for(Ring r : p.getInterior())
+		{
+			List<Point> interior = removeRepeatedPoints(r.pos);
+			if(interior != null)
+				interiors.add(interior);
+		}
+
+		//keep the original polygon if nothing has changed
+		if(exterior.size() == p.getExterior().pos.size() && exterior.get(0) == p.getExterior().pos.get(0)
+				&& interiors.size() == p.getInterior().size())
+		{
+			boolean unchanged = true;
+			for(int i = 0; i < interiors.size(); i++)
+			{
+				if(interiors.get(i).size() != p.getInterior().get(i).pos.size())
+					unchanged = false;
+			}
+			if(unchanged)
+				return p;
+		}
+		return buildPolygon(exterior, interiors);
+	}
+
+	/**
+	 * Removes points which are equal to their predecessor (up to the tolerance). Returns null if less than three points remain.
+	 * @param points
+	 * @return
+	 */
+	private List<Point> removeRepeatedPoints(List<Point> points)
+	{
+		List<Point> result = new ArrayList<Point>();
+		for(Point p : points)
+		{
+			if(result.isEmpty() || !isEqual(result.get(result.size()-1), p))
+				result.add(p);
+		}
+		while(result.size() > 1 && isEqual(result.get(0), result.get(result.size()-1)))
+			result.remove(result.size()-1);
+
+		if(result.size() < 3)
+			return null;
+		return result;
+	}
+
+	/**
+	 * Rotates the ring so that its first three points are not collinear. Returns null if there are no such three consecutive points.
+	 * @param points
+	 * @return
+	 */
+	private List<Point> rotateToNonCollinearStart(List<Point> points)
+	{
+		int n = points.size();
+		for(int start = 0; start < n; start++)
+		{
+			Point a = points.get(start);
+			Point b = points.get((start+1)%n);
+			Point c = points.get((start+2)%n);
+			dataTypes.Vector ab = new dataTypes.Vector();
+			ab.generateByDiff(b, a);
+			dataTypes.Vector ac = new dataTypes.Vector();
+			ac.generateByDiff(c, a);
+			if(!ab.isParalell(ac))
+			{
+				if(start == 0)
+					return points;
+				List<Point> result = new ArrayList<Point>(points.subList(start, n));
+				result.addAll(points.subList(0, start));
+				return result;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Merges coplanar polygons without interior rings which share an edge.
+	 * The merging is repeated until no more pairs can be merged.
+	 * @param polygons
+	 * @return
+	 */
+	private Vector<Polygon> mergeCoplanarPolygons(Vector<Polygon> polygons)
+	{
+		boolean changed = true;
+		while(changed)
+		{
+			changed = false;
+
+			//map from undirected edge to the polygons containing it
+			HashMap<String, List<Integer>> edges = new HashMap<String, List<Integer>>();
+			for(int i = 0; i < polygons.size(); i++)
+			{
+				Polygon p = polygons.get(i);
+				if(p.getInterior().size() > 0)
+					continue;
+				Vector<Point> pos = p.getExterior().pos;
+				for(int j = 0; j < pos.size(); j++)
+				{
+					String key = getEdgeKey(pos.get(j), pos.get((j+1)%pos.size()));
+					List<Integer> list = edges.get(key);
+					if(list == null)
+					{
+						list = new ArrayList<Integer>();
+						edges.put(key, list);
+					}
+					list.add(i);
+				}
+			}
+
+			boolean[] consumed = new boolean[polygons.size()];
+			Vector<Polygon> result = new Vector<Polygon>();
+			for(int i = 0; i < polygons.size(); i++)
+			{
+				if(consumed[i])
+					continue;
+				Polygon a = polygons.get(i);
+				Polygon merged = null;
+				if(a.getInterior().size() == 0)
+				{
+					Vector<Point> pos = a.getExterior().pos;
+					for(int j = 0; j < pos.size() && merged == null; j++)
+					{
+						List<Integer> list = edges.get(getEdgeKey(pos.get(j), pos.get((j+1)%pos.size())));
+						if(list.size() != 2)
+							continue;
+						int other = (list.get(0) == i) ? list.get(1) : list.get(0);
+						if(other == i || consumed[other])
+							continue;
+						merged = merge(a, j, polygons.get(other));
+						if(merged != null)
+						{
+							consumed[other] = true;
+							mergedPolygons++;
+						}
+					}
+				}
+				consumed[i] = true;
+				if(merged != null)
+				{
+					result.add(merged);
+					changed = true;
+				}
+				else
+				{
+					result.add(a);
+				}
+			}
+			polygons = result;
+		}
+		return polygons;
+	}
+
+	/**
+	 * Merges polygon b into polygon a along the edge starting at point index of a. If the polygons share further edges 
+	 * next to this edge, the whole chain of shared edges is removed.
+	 * Returns null if the polygons are not coplanar, not consistently oriented or touch each other in further points.
+	 * @param a
+	 * @param index
+	 * @param b
+	 * @return
+	 */
+	private Polygon merge(Polygon a, int index, Polygon b)
+	{
+		Vector<Point> pa = a.getExterior().pos;
+		Vector<Point> pb = b.getExterior().pos;
+		int n = pa.size();
+		int m = pb.size();
+
+		//the shared edge P->Q of a has to be Q->P in b
+		int s = index;
+		int t = index + 1;
+		int u = -1;
+		for(int j = 0; j < m; j++)
+		{
+			if(isEqual(pb.get(j), pa.get(t%n)) && isEqual(pb.get((j+1)%m), pa.get(s)))
+				u = j;
+		}
+		if(u < 0)
+			return null;
+
+		//extend the chain: a[s..t] equals b[u..u+t-s] in reverse order
+		while(t - s < Math.min(n, m) - 2 && isEqual(pa.get((t+1)%n), pb.get((u-1+m)%m)))
+		{
+			t++;
+			u = (u-1+m)%m;
+		}
+		while(t - s < Math.min(n, m) - 2 && isEqual(pa.get((s-1+n)%n), pb.get((u+t-s+1)%m)))
+		{
+			s--;
+		}
+		int k = t - s;
+
+		if(!isCoplanar(pa, pb))
+			return null;
+
+		//apart from the chain the polygons must not share any point, otherwise the merged ring would not be simple
+		HashSet<String> keysA = new HashSet<String>();
+		for(Point point : pa)
+			keysA.add(getPointKey(point));
+		for(int j = k+1; j < m; j++)
+		{
+			if(keysA.contains(getPointKey(pb.get((u+j)%m))))
+				return null;
+		}
+
+		//a from the end of the chain around to its start, followed by b behind the chain
+		List<Point> ring = new ArrayList<Point>();
+		for(int i = 0; i <= n - k; i++)
+			ring.add(pa.get(((t+i)%n+n)%n));
+		for(int j = k+1; j < m; j++)
+			ring.add(pb.get((u+j)%m));
+
+		ring = rotateToNonCollinearStart(ring);
+		if(ring == null)
+			return null;
+		return buildPolygon(ring, new Vector<List<Point>>());
+	}
+
+	/**
+	 * Tests if two rings are lying in the same plane and have the same orientation.
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private boolean isCoplanar(List<Point> a, List<Point> b)
+	{
+		double[] na = computeNewellNormal(a);
+		double[] nb = computeNewellNormal(b);
+		double la = Math.sqrt(na[0]*na[0] + na[1]*na[1] + na[2]*na[2]);
+		double lb = Math.sqrt(nb[0]*nb[0] + nb[1]*nb[1] + nb[2]*nb[2]);
+		for(int i = 0; i < 3; i++)
+		{
+			na[i] /= la;
+			nb[i] /= lb;
+		}
+		if(na[0]*nb[0] + na[1]*nb[1] + na[2]*nb[2] < 0.9999)
+			return false;
+
+		Point origin = a.get(0);
+		for(List<Point> ring : Arrays.asList(a, b))
+		{
+			for(Point p : ring)
+			{
+				double d = na[0] * (p.coords[0] - origin.coords[0])
+						 + na[1] * (p.coords[1] - origin.coords[1])
+						 + na[2] * (p.coords[2] - origin.coords[2]);
+				if(Math.abs(d) > tolerance)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Computes the (not normalized) normal of a ring according to Newell. The length of the normal equals twice the area of the ring.
+	 * In contrast to the normal of the plane of a polygon, this does not depend on the first three points of the ring.
+	 * @param points
+	 * @return
+	 */
+	public static double[] computeNewellNormal(List<Point> points)
+	{
+		double[] n = new double[3];
+		int size = points.size();
+		for(int i = 0; i < size; i++)
+		{
+			double[] c = points.get(i).coords;
+			double[] d = points.get((i+1)%size).coords;
+			n[0] += (c[1] - d[1]) * (c[2] + d[2]);
+			n[1] += (c[2] - d[2]) * (c[0] + d[0]);
+			n[2] += (c[0] - d[0]) * (c[1] + d[1]);
+		}
+		return n;
+	}
+
+	/**
+	 * Constructs a new, projected polygon from the given rings
+	 * @param exterior
+	 * @param interiors
+	 * @return
+	 */
+	private Polygon buildPolygon(List<Point> exterior, List<List<Point>> interiors)
+	{
+		Polygon result = new Polygon();
+		Ring r = new Ring();
+		for(Point p : exterior)
+			r.addPoint(p);
+		result.addExterior(r);
+		for(List<Point> interior : interiors)
+		{
+			Ring ri = new Ring();
+			for(Point p : interior)
+				ri.addPoint(p);
+			result.addInterior(ri);
+		}
+		result.project();
+		return result;
+	}
+
+	/**
+	 * Tests if two points are equal up to the tolerance
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private boolean isEqual(Point a, Point b)
+	{
+		return Math.abs(a.coords[0] - b.coords[0]) <= tolerance
+			&& Math.abs(a.coords[1] - b.coords[1]) <= tolerance
+			&& Math.abs(a.coords[2] - b.coords[2]) <= tolerance;
+	}
+
+	/**
+	 * Key of a point snapped to a grid with the size of the tolerance
+	 * @param p
+	 * @return
+	 */
+	private String getPointKey(Point p)
+	{
+		return Math.round(p.coords[0] / tolerance) + "/" + Math.round(p.coords[1] / tolerance) + "/" + Math.round(p.coords[2] / tolerance);
+	}
+
+	/**
+	 * Key of an undirected edge
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private String getEdgeKey(Point a, Point b)
+	{
+		String ka = getPointKey(a);
+		String kb = getPointKey(b);
+		return ka.compareTo(kb) < 0 ? ka + ";" + kb : kb + ";" + ka;
+	}
+
+	/**
+	 * Returns true if polygon p is a duplicate of a polygon stored in cells. Near duplicates have a centroid of the exterior ring
+	 * within the tolerance, so the cell of the centroid and its neighbouring cells are searched.
+	 * @param p
+	 * @param cells
+	 * @return
+	 */
+	private boolean isDuplicate(Polygon p, HashMap<String, List<Polygon>> cells)
+	{
+		for(int dx = -1; dx <= 1; dx++)
+		{
+			for(int dy = -1; dy <= 1; dy++)
+			{
+				for(int dz = -1; dz <= 1; dz++)
+				{
+					List<Polygon> candidates = cells.get(getCellKey(p, dx, dy, dz));
+					if(candidates == null)
+						continue;
+					for(Polygon q : candidates)
+					{
+						if(isEqual(p, q))
+							return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Key of the cell (grid with the size of the tolerance) of the centroid of the exterior ring of p, shifted by dx, dy, dz cells
+	 * @param p
+	 * @param dx
+	 * @param dy
+	 * @param dz
+	 * @return
+	 */
+	private String getCellKey(Polygon p, int dx, int dy, int dz)
+	{
+		double[] c = new double[3];
+		for(Point point : p.getExterior().pos)
+		{
+			for(int axis = 0; axis < 3; axis++)
+				c[axis] += point.coords[axis] / p.getExterior().pos.size();
+		}
+		return (Math.floor(c[0] / tolerance) + dx) + "/" + (Math.floor(c[1] / tolerance) + dy) + "/" + (Math.floor(c[2] / tolerance) + dz);
+	}
+	
+	/**
+	 * Returns true if the polygons have equal exterior rings and each interior ring of a is equal to an interior ring of b
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private boolean isEqual(Polygon a, Polygon b)
+	{
+		if(a.getInterior().size() != b.getInterior().size() || !isEqual(a.getExterior().pos, b.getExterior().pos))
+			return false;
+		for(Ring ra : a.getInterior())
+		{
+			boolean found = false;
+			for(Ring rb : b.getInterior())
+				found = found || isEqual(ra.pos, rb.pos);
+			if(!found)
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns true if the rings have the same sequence of points up to the tolerance, 
+	 * independent of the starting point and of the orientation
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private boolean isEqual(List<Point> a, List<Point> b)
+	{
+		int n = a.size();
+		if(b.size() != n)
+			return false;
+		for(int start = 0; start < n; start++)
+		{
+			if(!isEqual(a.get(0), b.get(start)))
+				continue;
+			boolean forward = true, backward = true;
+			for(int i = 1; i < n && (forward || backward); i++)
+			{
+				forward = forward && isEqual(a.get(i), b.get((start + i) % n));
+				backward = backward && isEqual(a.get(i), b.get((start - i + n) % n));
+			}
+			if(forward || backward)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Number of polygons removed in the last run because they do not span an area
+	 * @return
+	 */
+	public int getRemovedDegenerate() {
+		return removedDegenerate;
+	}
+
+	/**
+	 * Number of polygons removed in the last run because they are duplicates of other polygons
+	 * @return
+	 */
+	public int getRemovedDuplicates() {
+		return removedDuplicates;
+	}
+
+	/**
+	 * Number of merge operations of coplanar polygons in the last run
+	 * @return
+	 */
+	public int getMergedPolygons() {
+		return mergedPolygons;
+	}
+}
@@ -0,0 +1,454 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package helperClasses;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+import dataTypes.Point;
+import dataTypes.Point2D;
+import dataTypes.Polygon;
+import dataTypes.Ring;
+
+/**
+ * Splits polygons into triangles by ear clipping in the local 2D coordinate system of their plane (cf. Polygon.project()).
+ *
+ * The exterior ring is oriented counterclockwise, the interior rings clockwise. Each interior ring is connected to the exterior 
+ * by a bridge from its rightmost point to a visible point of the outer chain (in the order of decreasing rightmost points),
+ * which gives a single ring without holes. Ears are convex corners whose triangle contains no other point of the ring;
+ * collinear corners are removed without a triangle. All triangles of a polygon have the same orientation.
+ * If no ear is found (self-intersecting rings), a corner is cut off anyway and the polygon is counted as failed.
+ * If no bridge is found for an interior ring (e.g. it is not inside the exterior), the polygon gives no triangles at all, 
+ * since dropping the ring would fill the opening. It is counted as failed and returned by getUntriangulatedPolygons.
+ *
+ * @author Horst Steuer
+ *
+ */
+public class PolygonTriangulator {
+
+	//corners of the ring being clipped: 2D coordinates, 3D points and the doubly linked list of the remaining corners
+	private double[] u, v;
+	private Point[] points;
+	private int[] prev, next;
+	private int size;
+	
+	//statistics of the last run
+	private int numTriangles;
+	private int failedPolygons;
+	private Vector<Polygon> untriangulated = new Vector<Polygon>();
+	
+	/**
+	 * Triangulates polygons. Each triangle is given by its three corners in 3D.
+	 * @param polygons
+	 * @return
+	 */
+	public List<Point[]> triangulate(Vector<Polygon> polygons)
+	{
+		numTriangles = 0;
+		failedPolygons = 0;
+		untriangulated = new Vector<Polygon>();
+		List<Point[]> result = new ArrayList<Point[]>();
+		for(Polygon p : polygons)
+		{
+			if(!triangulate(p, result))
+				failedPolygons++;
+		}
+		numTriangles = result.size();
+		return result;
+	}
+	
+	/**
+	 * Returns the number of triangles of the last run
+	 * @return
+	 */
+	public int getNumTriangles()
+	{
+		return numTriangles;
+	}
+	
+	/**
+	 * Returns the number of polygons of the last run which could not be triangulated by ears only or not at all
+	 * @return
+	 */
+	public int getFailedPolygons()
+	{
+		return failedPolygons;
+	}
+	
+	/**
+	 * Returns the polygons of the last run which gave no triangles because an interior ring could not be bridged
+	 * @return
+	 */
+	public Vector<Polygon> getUntriangulatedPolygons()
+	{
+		return untriangulated;
+	}
+	
+	/**
+	 * Adds the triangles of polygon p to result. Returns false if a corner had to be cut off without being an ear
+	 * or if an interior ring could not be bridged, then no triangles are added.
+	 * @param p
+	 * @param result
+	 * @return
+	 */
+	private boolean triangulate(Polygon p, List<Point[]> result)
+	{
+		p.project();
+		
+		//rings without repeated points, exterior counterclockwise and interior clockwise
+		List<int[]> holes = new ArrayList<int[]>();
+		int total = p.getExterior().pos.size();
+		for(Ring r : p.getInterior())
+			total += r.pos.size();
+		u = new double[3 * total];
+		v = new double[3 * total];
+		points = new Point[3 * total];
+		prev = new int[3 * total];
+		next = new int[3 * total];
+		size = 0;
+		
+		int[] outer = addRing(p.getExterior(), true);
+		if(outer == null)
+			return true;
+		for(Ring r : p.getInterior())
+		{
+			int[] hole = addRing(r, false);
+			if(hole != null)
+				holes.add(hole);
+		}
+		
+		//bridges from the holes with the rightmost points first
+		while(!holes.isEmpty())
+		{
+			int best = 0;
+			for(int h = 1; h < holes.size(); h++)
+			{
+				if(u[holes.get(h)[1]] > u[holes.get(best)[1]])
+					best = h;
+			}
+			int[] hole = holes.remove(best);
+			int bridge = findBridge(hole[1], outer[0]);
+			if(bridge < 0)
+			{
+				untriangulated.add(p);
+				return false;
+			}
+			splice(bridge, hole[1]);
+		}
+		
+		return clipEars(outer[0], result);
+	}
+	
+	/**
+	 * Appends the points of ring r to the corner arrays as closed linked list, with consecutive duplicates removed and in the orientation
+	 * given by counterclockwise. Returns the first corner and the corner with the largest u, or null if the ring has less than 3 corners.
+	 * @param r
+	 * @param counterclockwise
+	 * @return
+	 */
+	private int[] addRing(Ring r, boolean counterclockwise)
+	{
+		int n = r.pos.size();
+		if(r.pos2D.size() != n)
+			return null;
+		
+		double area = 0.0;
+		for(int i = 0; i < n; i++)
+		{
+			Point2D a = r.pos2D.get(i);
+			Point2D b = r.pos2D.get((i + 1) % n);
+			area += a.coords[0] * b.coords[1] - b.coords[0] * a.coords[1];
+		}
+		boolean reverse = (area > 0) != counterclockwise;
+		
+		int first = size;
+		for(int k = 0; k < n; k++)
+		{
+			int i = reverse ? n - 1 - k : k;
+			Point2D q = r.pos2D.get(i);
+			if(size > first && q.coords[0] == u[size - 1] && q.coords[1] == v[size - 1])
+				continue;
+			u[size] = q.coords[0];
+			v[size] = q.coords[1];
+			points[size] = r.pos.get(i);
+			size++;
+		}
+		while(size - first > 1 && u[size - 1] == u[first] && v[size - 1] == v[first])
+			size--;
+		if(size - first < 3)
+		{
+			size = first;
+			return null;
+		}
+		
+		int rightmost = first;
+		for(int i = first; i < size; i++)
+		{
+			prev[i] = (i == first) ? size - 1 : i - 1;
+			next[i] = (i == size - 1) ? first : i + 1;
+			if(u[i] > u[rightmost])
+				rightmost = i;
+		}
+		return new int[] {first, rightmost};
+	}
+	
+	/**
+	 * Finds a corner of the outer chain starting at start which can be connected to the rightmost corner m of a hole without crossing 
+	 * an edge: the ray from m in direction +u hits the nearest edge of the chain at i. If a corner of the chain lies in the triangle 
+	 * of m, i and the endpoint of the edge with the larger u, the one with the smallest angle to the ray is taken, otherwise the endpoint.
+	 * Returns -1 if the ray does not hit the chain.
+	 * @param m
+	 * @param start
+	 * @return
+	 */
+	private int findBridge(int m, int start)
+	{
+		double mu = u[m], mv = v[m];
+		
+		//the interior of the counterclockwise chain is on the left of its edges, so the edges right of the hole go upwards
+		double hitU = Double.POSITIVE_INFINITY;
+		int candidate = -1;
+		boolean hitCorner = false;
+		int a = start;
+		do
+		{
+			int b = next[a];
+			if(v[a] <= mv && mv <= v[b] && v[a] < v[b])
+			{
+				double x = u[a] + (mv - v[a]) * (u[b] - u[a]) / (v[b] - v[a]);
+				if(x >= mu && x < hitU)
+				{
+					hitU = x;
+					hitCorner = (mv == v[a]) || (mv == v[b]);
+					if(hitCorner)
+						candidate = (mv == v[a]) ? a : b;
+					else
+						candidate = (u[a] > u[b]) ? a : b;
+				}
+			}
+			a = b;
+		}
+		while(a != start);
+		
+		if(candidate < 0)
+			return -1;
+		if(hitCorner)
+			return selectCopy(candidate, m);
+		
+		//corners in the triangle of m, the hit point and the candidate would block the bridge
+		int result = candidate;
+		double cu = u[candidate], cv = v[candidate];
+		double bestTan = Math.abs(cv - mv) / (cu - mu);
+		a = start;
+		do
+		{
+			if(u[a] > mu && !(u[a] == cu && v[a] == cv) && pointInTriangle(mu, mv, hitU, mv, cu, cv, u[a], v[a]))
+			{
+				double tan = Math.abs(v[a] - mv) / (u[a] - mu);
+				if(tan < bestTan || (tan == bestTan && u[a] < u[result]))
+				{
+					result = a;
+					bestTan = tan;
+				}
+			}
+			a = next[a];
+		}
+		while(a != start);
+		return selectCopy(result, m);
+	}
+	
+	/**
+	 * Returns a corner at the position of corner r (there are copies at the ends of bridges) at which the segment to m starts
+	 * into the interior of the chain, or r if there is none
+	 * @param r
+	 * @param m
+	 * @return
+	 */
+	private int selectCopy(int r, int m)
+	{
+		int a = r;
+		do
+		{
+			if(u[a] == u[r] && v[a] == v[r])
+			{
+				int p = prev[a], n = next[a];
+				boolean convex = orientation(p, a, u[n], v[n]) >= 0;
+				boolean leftOfIncoming = orientation(p, a, u[m], v[m]) >= 0;
+				boolean leftOfOutgoing = orientation(a, n, u[m], v[m]) >= 0;
+				if(convex ? (leftOfIncoming && leftOfOutgoing) : (leftOfIncoming || leftOfOutgoing))
+					return a;
+			}
+			a = next[a];
+		}
+		while(a != r);
+		return r;
+	}
+	
+	/**
+	 * Returns the cross product of the vectors from corner a to corner b and from corner a to the point pu,pv 
+	 * (positive if the point is on the left of a, b)
+	 * @param a
+	 * @param b
+	 * @param pu
+	 * @param pv
+	 * @return
+	 */
+	private double orientation(int a, int b, double pu, double pv)
+	{
+		return (u[b] - u[a]) * (pv - v[a]) - (v[b] - v[a]) * (pu - u[a]);
+	}
+	
+	/**
+	 * Connects corner a of the outer chain with corner b of a hole: the chain continues from a to the hole, around it back to b
+	 * and over copies of b and a to the successor of a
+	 * @param a
+	 * @param b
+	 */
+	private void splice(int a, int b)
+	{
+		int a2 = copyCorner(a);
+		int b2 = copyCorner(b);
+		int an = next[a];
+		int bp = prev[b];
+		
+		next[a] = b;
+		prev[b] = a;
+		
+		next[bp] = b2;
+		prev[b2] = bp;
+		next[b2] = a2;
+		prev[a2] = b2;
+		next[a2] = an;
+		prev[an] = a2;
+	}
+	
+	/**
+	 * Appends a copy of corner i and returns its index
+	 * @param i
+	 * @return
+	 */
+	private int copyCorner(int i)
+	{
+		u[size] = u[i];
+		v[size] = v[i];
+		points[size] = points[i];
+		return size++;
+	}
+	
+	/**
+	 * Cuts off ears of the ring starting at start until a triangle remains. Returns false if a corner had to be cut off without being an ear.
+	 * @param start
+	 * @param result
+	 * @return
+	 */
+	private boolean clipEars(int start, List<Point[]> result)
+	{
+		boolean ok = true;
+		int remaining = 1;
+		for(int i = next[start]; i != start; i = next[i])
+			remaining++;
+		
+		int ear = start;
+		int tested = 0;
+		while(remaining > 3)
+		{
+			int a = prev[ear], c = next[ear];
+			double cross = (u[ear] - u[a]) * (v[c] - v[a]) - (v[ear] - v[a]) * (u[c] - u[a]);
+			boolean isEar = (cross > 0) && isEmpty(a, ear, c);
+			if(cross == 0 || isEar || tested > remaining)
+			{
+				if(cross != 0)
+					result.add(new Point[] {points[a], points[ear], points[c]});
+				if(!isEar && cross != 0)
+					ok = false;
+				next[a] = c;
+				prev[c] = a;
+				remaining--;
+				tested = 0;
+				ear = a;
+				continue;
+			}
+			ear = c;
+			tested++;
+		}
+		
+		int a = prev[ear], c = next[ear];
+		double cross = (u[ear] - u[a]) * (v[c] - v[a]) - (v[ear] - v[a]) * (u[c] - u[a]);
+		if(cross != 0)
+			result.add(new Point[] {points[a], points[ear], points[c]});
+		return ok;
+	}
+	
+	/**
+	 * Returns true if no other corner of the ring lies in the triangle a, b, c (corners at the same position as a, b or c are ignored)
+	 * @param a
+	 * @param b
+	 * @param c
+	 * @return
+	 */
+	private boolean isEmpty(int a, int b, int c)
+	{
+		for(int i = next[c]; i != a; i = next[i])
+		{
+			if((u[i] == u[a] && v[i] == v[a]) || (u[i] == u[b] && v[i] == v[b]) || (u[i] == u[c] && v[i] == v[c]))
+				continue;
+			if(pointInTriangle(u[a], v[a], u[b], v[b], u[c], v[c], u[i], v[i]))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns true if the point pu,pv lies in the triangle a, b, c (of any orientation) or on its boundary
+	 * @param au
+	 * @param av
+	 * @param bu
+	 * @param bv
+	 * @param cu
+	 * @param cv
+	 * @param pu
+	 * @param pv
+	 * @return
+	 */
+	private static boolean pointInTriangle(double au, double av, double bu, double bv, double cu, double cv, double pu, double pv)
+	{
+		double d1 = (bu - au) * (pv - av) - (bv - av) * (pu - au);
+		double d2 = (cu - bu) * (pv - bv) - (cv - bv) * (pu - bu);
+		double d3 = (au - cu) * (pv - cv) - (av - cv) * (pu - cu);
+		return (d1 >= 0 && d2 >= 0 && d3 >= 0) || (d1 <= 0 && d2 <= 0 && d3 <= 0);
+	}
+}
@@ -0,0 +1,117 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package helperClasses;
+
+/**
+ * Sobol sequence of points in the unit cube [0,1)^3 (Gray code construction, direction numbers of S. Joe and F. Y. Kuo).
+ * The first 2^k points are evenly spread over the cube, so averages over them converge faster than averages over random points.
+ * @author Horst Steuer
+ *
+ */
+public class SobolSequence {
+	
+	public static final int DIMENSIONS = 3;
+	private static final int BITS = 32;
+	
+	//degree s, coefficients a of the primitive polynomial and initial direction numbers m of the second and third dimension
+	private static final int[] S = {1, 2};
+	private static final int[] A = {0, 1};
+	private static final int[][] M = {{1}, {1, 3}};
+	
+	private final int[][] directions = new int[DIMENSIONS][BITS];
+	private final int[] x = new int[DIMENSIONS];
+	private long index = 0;
+	
+	/**
+	 * Constructor
+	 */
+	public SobolSequence()
+	{
+		for(int k = 0; k < BITS; k++)
+			directions[0][k] = 1 << (BITS - 1 - k);
+		
+		for(int d = 1; d < DIMENSIONS; d++)
+		{
+			int s = S[d-1];
+			int a = A[d-1];
+			int[] v = directions[d];
+			for(int k = 0; k < BITS; k++)
+			{
+				if(k < s)
+				{
+					v[k] = M[d-1][k] << (BITS - 1 - k);
+					continue;
+				}
+				v[k] = v[k-s] ^ (v[k-s] >>> s);
+				for(int j = 1; j < s; j++)
+				{
+					if(((a >>> (s - 1 - j)) & 1) != 0)
+						v[k] ^= v[k-j];
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Writes the next point into point as unsigned 32 bit fractions, i.e. coordinate i is toUnit(point[i]). 
+	 * The first point is the origin.
+	 * @param point
+	 */
+	public void next(int[] point)
+	{
+		if(index >= (1L << BITS))
+			throw new IllegalStateException("Sobol sequence exhausted");
+		
+		for(int d = 0; d < DIMENSIONS; d++)
+			point[d] = x[d];
+		
+		//Gray code: the next point differs in the direction number of the lowest zero bit of index
+		int c = Long.numberOfTrailingZeros(~index);
+		for(int d = 0; d < DIMENSIONS; d++)
+			x[d] ^= directions[d][c];
+		index++;
+	}
+	
+	/**
+	 * Converts an unsigned 32 bit fraction into a value in [0,1)
+	 * @param bits
+	 * @return
+	 */
+	public static double toUnit(int bits)
+	{
+		return (bits & 0xffffffffL) / 4294967296.0;
+	}
+}
@@ -0,0 +1,167 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package helperClasses;
+
+import java.util.Vector;
+
+import dataTypes.Point;
+import dataTypes.Polygon;
+import dataTypes.Ring;
+
+/**
+ * Generates simple closed and outward oriented buildings with known volume, e.g. for benchmarks and calibration.
+ * @author Horst Steuer
+ *
+ */
+public class SyntheticBuildings {
+
+	/**
+	 * Returns a box with its minimal corner at the origin (volume: sizex * sizey * sizez)
+	 * @param sizex
+	 * @param sizey
+	 * @param sizez
+	 * @return
+	 */
+	public static Vector<Polygon> box(double sizex, double sizey, double sizez)
+	{
+		double[][] footprint = {{0, 0}, {sizex, 0}, {sizex, sizey}, {0, sizey}};
+		return prism(footprint, sizez);
+	}
+	
+	/**
+	 * Returns an approximation of a cylinder with the given number of sides, its axis is the z-axis 
+	 * (volume: 0.5 * sides * radius^2 * sin(2 pi / sides) * height)
+	 * @param radius
+	 * @param height
+	 * @param sides
+	 * @return
+	 */
+	public static Vector<Polygon> cylinder(double radius, double height, int sides)
+	{
+		double[][] footprint = new double[sides][2];
+		for(int i = 0; i < sides; i++)
+		{
+			footprint[i][0] = radius * Math.cos(2.0 * Math.PI * i / sides);
+			footprint[i][1] = radius * Math.sin(2.0 * Math.PI * i / sides);
+		}
+		return prism(footprint, height);
+	}
+	
+	/**
+	 * Returns a prism between z = 0 and z = height. The footprint is given as counterclockwise list of 2D points (x,y).
+	 * The result consists of one ground surface, one roof surface and one wall per edge of the footprint.
+	 * @param footprint
+	 * @param height
+	 * @return
+	 */
+	public static Vector<Polygon> prism(double[][] footprint, double height)
+	{
+		Vector<Polygon> result = new Vector<Polygon>();
+		int n = footprint.length;
+		
+		Point[] bottom = new Point[n];
+		Point[] top = new Point[n];
+		for(int i = 0; i < n; i++)
+		{
+			bottom[i] = new Point(footprint[i][0], footprint[i][1], 0);
+			top[i] = new Point(footprint[i][0], footprint[i][1], height);
+		}
+		
+		//ground surface: clockwise seen from above, i.e. normal pointing down
+		Point[] ground = new Point[n];
+		for(int i = 0; i < n; i++)
+			ground[i] = bottom[n - 1 - i];
+		result.add(createPolygon(ground));
+		
+		//roof surface
+		result.add(createPolygon(top));
+		
+		//walls
+		for(int i = 0; i < n; i++)
+		{
+			int j = (i + 1) % n;
+			result.add(createPolygon(new Point[]{bottom[i], bottom[j], top[j], top[i]}));
+		}
+		
+		for(Polygon p : result)
+			p.project();
+		return result;
+	}
+	
+	/**
+	 * Returns a box with its minimal corner at the origin and a pyramid roof whose four triangles meet at the center of the roof,
+	 * roofHeight above the walls (volume: sizex * sizey * (height + roofHeight / 3)). 
+	 * Rays through the center of the footprint hit the apex, rays in the diagonal planes hit the edges shared by two triangles.
+	 * @param sizex
+	 * @param sizey
+	 * @param height
+	 * @param roofHeight
+	 * @return
+	 */
+	public static Vector<Polygon> pyramidRoof(double sizex, double sizey, double height, double roofHeight)
+	{
+		Vector<Polygon> result = box(sizex, sizey, height);
+		//replace the flat roof (cf. prism)
+		result.remove(1);
+		
+		double[][] footprint = {{0, 0}, {sizex, 0}, {sizex, sizey}, {0, sizey}};
+		Point apex = new Point(sizex / 2, sizey / 2, height + roofHeight);
+		for(int i = 0; i < footprint.length; i++)
+		{
+			int j = (i + 1) % footprint.length;
+			Polygon p = createPolygon(new Point[]{new Point(footprint[i][0], footprint[i][1], height), 
+					new Point(footprint[j][0], footprint[j][1], height), apex});
+			p.project();
+			result.add(p);
+		}
+		return result;
+	}
+	
+	/**
+	 * Creates a polygon with an exterior ring through points
+	 * @param points
+	 * @return
+	 */
+	private static Polygon createPolygon(Point[] points)
+	{
+		Ring r = new Ring();
+		for(Point p : points)
+			r.addPoint(p);
+		Polygon result = new Polygon();
+		result.addExterior(r);
+		return result;
+	}
+}
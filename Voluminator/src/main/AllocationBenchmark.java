@@ -0,0 +1,124 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package main;
+
+import java.lang.management.ManagementFactory;
+import java.util.Vector;
+
+import dataTypes.Options;
+import dataTypes.Polygon;
+import helperClasses.SyntheticBuildings;
+import voluminator.Voluminator;
+
+/**
+ * Checks that the classification of the voxels does not allocate objects per voxel. For each configuration a synthetic building is 
+ * computed with two voxel sizes, the bytes allocated by the thread are measured (com.sun.management.ThreadMXBean) and divided by the 
+ * difference of the numbers of voxels. Allocations per polygon or per computation cancel out. The voxels are stored off-heap,
+ * so that the voxel volume itself does not count. Exits with status 1 if any configuration exceeds MAX_BYTES_PER_VOXEL.
+ * Optional argument: voxel size of the coarser computation.
+ * @author Horst Steuer
+ *
+ */
+public class AllocationBenchmark {
+	
+	public static final double MAX_BYTES_PER_VOXEL = 0.01;
+
+	public static void main(String[] args) throws Exception {
+		
+		double voxelsize = (args.length > 0) ? Double.parseDouble(args[0]) : 0.4;
+		Vector<Polygon> polygons = SyntheticBuildings.cylinder(5, 10, 32);
+		
+		String[] names = {"scalar", "scalar, duplicate intersections removed", "scalar, early exit", "scalar, probability version", 
+				"scalar, old version", "packet"};
+		boolean failed = false;
+		for(int i = 0; i < names.length; i++)
+		{
+			Options o = new Options();
+			o.voxelStorage = Options.VOXEL_STORAGE_OFF_HEAP;
+			o.removeDuplicateIntersections = (i == 1);
+			o.earlyExitVoting = (i == 2);
+			o.probabilityversion = (i == 3);
+			o.engine = (i == 5) ? Options.ENGINE_PACKET : Options.ENGINE_SCALAR;
+			
+			//warm up, so that the measurement does not include allocations of class loading and compilation
+			for(int r = 0; r < 3; r++)
+				measure(polygons, o, voxelsize, i == 4);
+			
+			long[] coarse = measure(polygons, o, voxelsize, i == 4);
+			long[] fine = measure(polygons, o, voxelsize / 2.0, i == 4);
+			double bytesPerVoxel = (double) (fine[0] - coarse[0]) / (fine[1] - coarse[1]);
+			boolean ok = bytesPerVoxel <= MAX_BYTES_PER_VOXEL;
+			failed |= !ok;
+			System.out.println(names[i] + ": " + bytesPerVoxel + " bytes per voxel (" + coarse[0] + " / " + fine[0] + " bytes for " 
+					+ coarse[1] + " / " + fine[1] + " voxels) " + (ok ? "ok" : "FAILED"));
+		}
+		if(failed)
+		{
+			System.out.println("Allocation per voxel exceeds " + MAX_BYTES_PER_VOXEL + " bytes");
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Computes the volume and returns the bytes allocated by the current thread and the number of voxels
+	 * @param polygons
+	 * @param options
+	 * @param voxelsize
+	 * @param oldVersion
+	 * @return
+	 */
+	@SuppressWarnings("deprecation")	//the old version is measured for comparison
+	private static long[] measure(Vector<Polygon> polygons, Options options, double voxelsize, boolean oldVersion)
+	{
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		options.voxelsize = voxelsize;
+		
+		Voluminator v = new Voluminator(options);
+		long before = bean.getThreadAllocatedBytes(thread);
+		if(oldVersion)
+			v.computeVolumeOldVersion(polygons);
+		else if(options.probabilityversion)
+			v.computeVolumeProbabilityVersion(polygons, options);
+		else
+			v.computeVolume(polygons, options);
+		long allocated = bean.getThreadAllocatedBytes(thread) - before;
+		
+		long voxels = v.getVoxelvolume().getNumberOfVoxels();
+		v.getVoxelvolume().release();
+		return new long[]{allocated, voxels};
+	}
+}
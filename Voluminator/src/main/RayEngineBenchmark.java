@@ -0,0 +1,127 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package main;
+
+import java.util.Vector;
+
+import dataTypes.Options;
+import dataTypes.Polygon;
+import helperClasses.SyntheticBuildings;
+import voluminator.Voluminator;
+
+/**
+ * Compares runtime and result of the scalar, the packet, the column, the flood fill and the triangle engine for the classification of voxels 
+ * on synthetic buildings. The results are compared for the vote and for the probability version, which is sensitive to rays hitting 
+ * edges shared by several polygons (e.g. the pyramid roof). The speedup of the packet engine is modest (typically 1.15 - 1.24,
+ * below 1 for the box), the runtimes of few repetitions are dominated by the JIT compiler.
+ * Optional arguments: voxel size, packet width and number of repetitions.
+ * @author Horst Steuer
+ *
+ */
+public class RayEngineBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		double voxelsize = (args.length > 0) ? Double.parseDouble(args[0]) : 0.25;
+		int packetWidth = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+		int repetitions = (args.length > 2) ? Integer.parseInt(args[2]) : 3;
+		
+		String[] names = {"box 10x12x4", "cylinder r=5 h=10 (32 sides)", "cylinder r=5 h=10 (128 sides)", "pyramid roof 10x10x4+3"};
+		Vector<Vector<Polygon>> buildings = new Vector<Vector<Polygon>>();
+		buildings.add(SyntheticBuildings.box(10, 12, 4));
+		buildings.add(SyntheticBuildings.cylinder(5, 10, 32));
+		buildings.add(SyntheticBuildings.cylinder(5, 10, 128));
+		buildings.add(SyntheticBuildings.pyramidRoof(10, 10, 4, 3));
+		
+		for(int i = 0; i < buildings.size(); i++)
+		{
+			double[] scalar = run(buildings.get(i), Options.ENGINE_SCALAR, voxelsize, packetWidth, repetitions);
+			double[] packet = run(buildings.get(i), Options.ENGINE_PACKET, voxelsize, packetWidth, repetitions);
+			double[] column = run(buildings.get(i), Options.ENGINE_COLUMN, voxelsize, packetWidth, repetitions);
+			double[] floodfill = run(buildings.get(i), Options.ENGINE_FLOODFILL, voxelsize, packetWidth, repetitions);
+			double[] triangles = run(buildings.get(i), Options.ENGINE_TRIANGLES, voxelsize, packetWidth, repetitions);
+			
+			System.out.println(names[i] + ":");
+			System.out.println("   scalar engine: volume " + scalar[0] + " (probability version " + scalar[2] + "), " + scalar[1] + " ms");
+			print("packet engine", scalar, packet, " (width " + packetWidth + ")");
+			print("column engine", scalar, column, "");
+			print("flood fill engine", scalar, floodfill, "");
+			print("triangle engine", scalar, triangles, "");
+		}
+	}
+	
+	/**
+	 * Prints volume, runtime and speedup of an engine and if its results are identical to the ones of the scalar engine
+	 * @param name
+	 * @param scalar
+	 * @param engine
+	 * @param remark
+	 */
+	private static void print(String name, double[] scalar, double[] engine, String remark)
+	{
+		System.out.println("   " + name + ": volume " + engine[0] + " (probability version " + engine[2] + "), " + engine[1] + " ms" + remark);
+		System.out.println("   speedup: " + (scalar[1] / Math.max(engine[1], 1e-3)) + ", identical result: " + (scalar[0] == engine[0]) 
+				+ ", identical probability version: " + (scalar[2] == engine[2]));
+	}
+	
+	/**
+	 * Computes the volume repetitions times and returns the volume, the fastest runtime in ms and the volume of the probability version
+	 * @param polygons
+	 * @param engine
+	 * @param voxelsize
+	 * @param packetWidth
+	 * @param repetitions
+	 * @return
+	 */
+	private static double[] run(Vector<Polygon> polygons, int engine, double voxelsize, int packetWidth, int repetitions)
+	{
+		Options o = new Options();
+		o.voxelsize = voxelsize;
+		o.engine = engine;
+		o.packetWidth = packetWidth;
+		
+		double volume = 0;
+		long best = Long.MAX_VALUE;
+		for(int r = 0; r < repetitions; r++)
+		{
+			long start = System.nanoTime();
+			volume = new Voluminator(o).computeVolume(polygons, o);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		double probabilityVolume = new Voluminator(o).computeVolumeProbabilityVersion(polygons, o);
+		return new double[]{volume, best / 1e6, probabilityVolume};
+	}
+}
@@ -0,0 +1,461 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package voluminator;
+
+import helperClasses.BuildingReader;
+import helperClasses.CityGMLSplitter;
+import helperClasses.MemoryBudget;
+import helperClasses.OBJReader;
+import helperClasses.PolygonConstructor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import dataTypes.BuildingCallable;
+import dataTypes.Options;
+
+/**
+ * Staged pipeline for the batch computations (cf. Options.pipeline). The buildings pass five stages which run concurrently:
+ * 
+ * read:      one thread reads the input, i.e. the cityObjectMember elements of a CityGML file (cf. helperClasses.CityGMLSplitter) 
+ *            or the names of the files of an OBJ directory
+ * parse:     numberOfParsingThreads threads unmarshal the members or read the OBJ files
+ * construct: numberOfParsingThreads threads construct the polygons of the buildings
+ * voxelize:  numberOfThreads threads compute the volumes, within options.memoryBudget if it is set
+ * write:     numberOfWritingThreads threads write the voxel volumes (if requested) and the results to the log file
+ * 
+ * Each stage takes its input from a bounded queue of options.pipelineQueueCapacity elements, so a slow stage blocks the stages 
+ * before it instead of collecting the whole input in memory. The depths of the queues show which stage is the bottleneck 
+ * (cf. getQueueDepth, getMaxQueueDepth). The results are written in the order in which the buildings are finished.
+ * If a stage fails, the whole pipeline is stopped and run() throws the exception.
+ * 
+ * @author Horst Steuer
+ *
+ */
+public class BuildingPipeline {
+	
+	public static final int INPUT_CITYGML = 0;
+	public static final int INPUT_OBJ = 1;
+	
+	public static final int STAGE_PARSE = 0;
+	public static final int STAGE_CONSTRUCT = 1;
+	public static final int STAGE_VOXELIZE = 2;
+	public static final int STAGE_WRITE = 3;
+	public static final String[] STAGE_NAMES = {"parse", "construct", "voxelize", "write"};
+	
+	//markers for the end of the input of a stage, compared by identity
+	private static final String END_OF_DOCUMENTS = new String("end");
+	private static final BuildingCallable END_OF_BUILDINGS = new BuildingCallable();
+	
+	private Options options;
+	private int inputType;
+	private String systemId;	//URI of the CityGML input file
+	
+	//queues in front of the stages parse, construct, voxelize and write
+	private BlockingQueue<String> documents;
+	private BlockingQueue<BuildingCallable> parsed;
+	private BlockingQueue<BuildingCallable> constructed;
+	private BlockingQueue<BuildingCallable> computed;
+	private AtomicIntegerArray maxQueueDepths = new AtomicIntegerArray(STAGE_NAMES.length);
+	
+	private List<ExecutorService> pools = new CopyOnWriteArrayList<ExecutorService>();
+	private volatile Throwable failure = null;
+	
+	private MemoryBudget budget;
+	private Map<BuildingCallable, Long> reservedMemory = new ConcurrentHashMap<BuildingCallable, Long>();
+	private PrintWriter out;
+	
+	/**
+	 * Constructor
+	 * @param inputType INPUT_CITYGML or INPUT_OBJ
+	 * @param options
+	 */
+	public BuildingPipeline(int inputType, Options options)
+	{
+		this.inputType = inputType;
+		this.options = options;
+		this.systemId = (options.inputfile != null) ? new File(options.inputfile).toURI().toString() : null;
+		int capacity = Math.max(1, options.pipelineQueueCapacity);
+		documents = new ArrayBlockingQueue<String>(capacity);
+		parsed = new ArrayBlockingQueue<BuildingCallable>(capacity);
+		constructed = new ArrayBlockingQueue<BuildingCallable>(capacity);
+		computed = new ArrayBlockingQueue<BuildingCallable>(capacity);
+		if(options.memoryBudget > 0)
+			budget = new MemoryBudget(options.memoryBudget);
+	}
+	
+	/**
+	 * Computes all buildings of options.inputfile and appends the results to the log file options.logBasename + options.voxelsize + ".log".
+	 * Returns when all results are written.
+	 * @throws Exception
+	 */
+	public void run() throws Exception
+	{
+		out = new PrintWriter(new BufferedWriter(new FileWriter(options.logBasename + options.voxelsize + ".log", true)));
+		try {
+			startReader();
+			startStage(documents, END_OF_DOCUMENTS, parsed, options.numberOfParsingThreads, new Worker<String>() {
+				@Override
+				public void process(String document) throws Exception {
+					parse(document);
+				}
+			});
+			startStage(parsed, END_OF_BUILDINGS, constructed, options.numberOfParsingThreads, new Worker<BuildingCallable>() {
+				@Override
+				public void process(BuildingCallable b) throws Exception {
+					construct(b);
+				}
+			});
+			startStage(constructed, END_OF_BUILDINGS, computed, options.numberOfThreads, new Worker<BuildingCallable>() {
+				@Override
+				public void process(BuildingCallable b) throws Exception {
+					voxelize(b);
+				}
+			});
+			startStage(computed, END_OF_BUILDINGS, null, options.numberOfWritingThreads, new Worker<BuildingCallable>() {
+				@Override
+				public void process(BuildingCallable b) throws Exception {
+					write(b);
+				}
+			});
+			
+			for(ExecutorService pool : pools)
+				pool.shutdown();
+			for(ExecutorService pool : pools)
+			{
+				while(!pool.awaitTermination(options.pipelineReportInterval > 0 ? options.pipelineReportInterval : 1000, TimeUnit.MILLISECONDS))
+				{
+					//stages started after a failure are stopped here
+					if(failure != null)
+						fail(failure);
+					else if(options.pipelineReportInterval > 0)
+						System.out.println("pipeline queue depths: " + getQueueDepthReport(false));
+				}
+			}
+		} finally {
+			for(ExecutorService pool : pools)
+				pool.shutdownNow();
+			out.close();
+		}
+		System.out.println("pipeline maximal queue depths: " + getQueueDepthReport(true));
+		
+		if(failure instanceof Exception)
+			throw (Exception) failure;
+		if(failure != null)
+			throw new Exception(failure);
+	}
+	
+	/**
+	 * Returns the number of elements waiting in the queue in front of stage (STAGE_PARSE, STAGE_CONSTRUCT, STAGE_VOXELIZE or STAGE_WRITE)
+	 * @param stage
+	 * @return
+	 */
+	public int getQueueDepth(int stage)
+	{
+		return getQueue(stage).size();
+	}
+	
+	/**
+	 * Returns the maximal number of elements which have been waiting in the queue in front of stage at the same time
+	 * @param stage
+	 * @return
+	 */
+	public int getMaxQueueDepth(int stage)
+	{
+		return maxQueueDepths.get(stage);
+	}
+	
+	/**
+	 * Returns the capacity of each queue
+	 * @return
+	 */
+	public int getQueueCapacity()
+	{
+		return documents.size() + documents.remainingCapacity();
+	}
+	
+	/**
+	 * Returns the current or maximal queue depths of all stages as text, e.g. "parse 0/16, construct 0/16, voxelize 16/16, write 2/16"
+	 * @param maximal
+	 * @return
+	 */
+	public String getQueueDepthReport(boolean maximal)
+	{
+		String result = "";
+		for(int stage = 0; stage < STAGE_NAMES.length; stage++)
+		{
+			int depth = maximal ? getMaxQueueDepth(stage) : getQueueDepth(stage);
+			result += (stage > 0 ? ", " : "") + STAGE_NAMES[stage] + " " + depth + "/" + getQueueCapacity();
+		}
+		return result;
+	}
+	
+	private BlockingQueue<?> getQueue(int stage)
+	{
+		switch(stage)
+		{
+			case STAGE_PARSE: return documents;
+			case STAGE_CONSTRUCT: return parsed;
+			case STAGE_VOXELIZE: return constructed;
+			default: return computed;
+		}
+	}
+	
+	/**
+	 * Starts the thread which puts the input into the queue of the parse stage, followed by END_OF_DOCUMENTS
+	 */
+	private void startReader()
+	{
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		pools.add(pool);
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if(inputType == INPUT_CITYGML)
+					{
+						CityGMLSplitter splitter = new CityGMLSplitter(options.inputfile);
+						try {
+							String header = splitter.getHeader();
+							String member;
+							while((member = splitter.nextMember()) != null)
+								put(documents, CityGMLSplitter.wrapMember(header, member));
+						} finally {
+							splitter.close();
+						}
+					}
+					else
+					{
+						File[] files = new File(options.inputfile).listFiles();
+						if(files != null)
+						{
+							for(File f : files)
+							{
+								if(!f.isDirectory())
+									put(documents, f.getAbsolutePath());
+							}
+						}
+					}
+					documents.put(END_OF_DOCUMENTS);
+				} catch (Throwable e) {
+					fail(e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Processing of a single element by a stage
+	 */
+	private interface Worker<I>
+	{
+		public void process(I element) throws Exception;
+	}
+	
+	/**
+	 * Starts numberOfThreads threads which take the elements of input and process them until end is taken. 
+	 * end is put back for the other threads of the stage, the last thread which finishes puts END_OF_BUILDINGS into output.
+	 * @param input
+	 * @param end
+	 * @param output
+	 * @param numberOfThreads
+	 * @param worker
+	 */
+	private <I> void startStage(final BlockingQueue<I> input, final I end, final BlockingQueue<BuildingCallable> output, int numberOfThreads, final Worker<I> worker)
+	{
+		numberOfThreads = Math.max(1, numberOfThreads);
+		final AtomicInteger running = new AtomicInteger(numberOfThreads);
+		ExecutorService pool = Executors.newFixedThreadPool(numberOfThreads);
+		pools.add(pool);
+		for(int i = 0; i < numberOfThreads; i++)
+		{
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while(true)
+						{
+							I element = input.take();
+							if(element == end)
+							{
+								input.put(element);
+								break;
+							}
+							worker.process(element);
+						}
+						if(running.decrementAndGet() == 0 && output != null)
+							output.put(END_OF_BUILDINGS);
+					} catch (Throwable e) {
+						fail(e);
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Parse stage: creates the buildings of a CityGML member or of an OBJ file
+	 * @param document
+	 * @throws Exception
+	 */
+	private void parse(String document) throws Exception
+	{
+		if(inputType == INPUT_CITYGML)
+		{
+			for(BuildingCallable b : BuildingReader.parseDocument(document, systemId, options))
+				put(parsed, b);
+		}
+		else
+		{
+			BuildingCallable b = new BuildingCallable(options);
+			b.setBuildingId(document);
+			b.setPolygons(new OBJReader().readfile(document));
+			put(parsed, b);
+		}
+	}
+	
+	/**
+	 * Construct stage: constructs the polygons of a building if they do not exist yet
+	 * @param b
+	 * @throws Exception
+	 */
+	private void construct(BuildingCallable b) throws Exception
+	{
+		if(b.getPolygons() == null)
+			b.setPolygons(new PolygonConstructor().constructPolygons(b.getBsp()));
+		put(constructed, b);
+	}
+	
+	/**
+	 * Voxelize stage: computes the volume of a building. The export of the voxel volume is left to the write stage, 
+	 * the reserved memory is released when the voxel volume has been released.
+	 * @param b
+	 * @throws Exception
+	 */
+	private void voxelize(BuildingCallable b) throws Exception
+	{
+		long estimate = 0;
+		if(budget != null)
+		{
+			estimate = b.estimatePeakMemory();
+			budget.acquire(estimate);
+		}
+		try {
+			b.compute(true);
+		} catch (Exception e) {
+			if(budget != null)
+				budget.release(estimate);
+			throw e;
+		}
+		if(budget != null)
+		{
+			if(b.hasDeferredVoxelvolume())
+				reservedMemory.put(b, estimate);
+			else
+				budget.release(estimate);
+		}
+		put(computed, b);
+	}
+	
+	/**
+	 * Write stage: writes the voxel volume of a building and its result
+	 * @param b
+	 */
+	private void write(BuildingCallable b)
+	{
+		b.writeVoxelvolume();
+		Long estimate = reservedMemory.remove(b);
+		if(estimate != null)
+			budget.release(estimate);
+		
+		String line;
+		if(inputType == INPUT_CITYGML)
+		{
+			line = ThreadedVolumeCalculationCityGML.getResultLine(b, options.probabilityversion);
+		}
+		else
+		{
+			line = ThreadedVolumeCalculationObj.getResultLine(b);
+			System.out.println(line);
+		}
+		synchronized(out)
+		{
+			out.println(line);
+		}
+	}
+	
+	/**
+	 * Puts element into queue and updates the maximal depth of the queue
+	 * @param queue
+	 * @param element
+	 * @throws InterruptedException
+	 */
+	private <T> void put(BlockingQueue<T> queue, T element) throws InterruptedException
+	{
+		queue.put(element);
+		int stage = (queue == documents) ? STAGE_PARSE : (queue == parsed) ? STAGE_CONSTRUCT : (queue == constructed) ? STAGE_VOXELIZE : STAGE_WRITE;
+		int depth = queue.size();
+		int max;
+		while(depth > (max = maxQueueDepths.get(stage)) && !maxQueueDepths.compareAndSet(stage, max, depth));
+	}
+	
+	/**
+	 * Stores the first failure and stops all stages
+	 * @param e
+	 */
+	private synchronized void fail(Throwable e)
+	{
+		if(e instanceof InterruptedException)
+			return;
+		if(failure == null)
+			failure = e;
+		for(ExecutorService pool : pools)
+			pool.shutdownNow();
+	}
+}
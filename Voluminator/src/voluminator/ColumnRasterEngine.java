@@ -0,0 +1,464 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package voluminator;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+import dataTypes.Options;
+import dataTypes.Point;
+import dataTypes.Polygon;
+import dataTypes.Ring;
+import dataTypes.Voxelvolume;
+
+/**
+ * Voxel classification which asks every polygon which voxel columns it covers instead of asking every ray which polygons it hits.
+ *
+ * For each axis the lines of the voxel centers in direction of the axis form a 2D lattice of columns on the plane of the other two axes.
+ * Every polygon is scan-converted onto this lattice: row by row, its edges are intersected with the row and the columns between the
+ * crossings are filled (non-zero winding rule per ring, interior rings are cut out). For each covered column the height of the plane 
+ * of the polygon is appended to the crossing list of the column (compressed row storage, counted in a first pass and stored in a second).
+ * The sorted crossing list of a column then gives the vote of all its voxels by parity: crossings below a voxel center correspond to 
+ * the "left" intersections of the scalar engine, crossings above it to the "right" ones. Duplicate intersections are removed as in
+ * the scalar engine if options.removeDuplicateIntersections is set.
+ *
+ * The cost is proportional to the projected area of the polygons plus the number of voxels and does not depend on the number of 
+ * polygons a ray passes. Columns on a shared edge of two polygons are assigned to exactly one of them (half-open rule), 
+ * while the scalar engine may count such a ray for both polygons or for none. Therefore the results differ from the scalar engine 
+ * on any model whose rays hit shared edges, above all in the probability version, which counts every single ray: for the pyramid 
+ * roof of SyntheticBuildings 269 voxels differ, the probability version gives 479.750 instead of 477.063 at voxel size 0.5 and 
+ * 489.9375 instead of 488.380 at 0.25 (cf. main.RayEngineBenchmark). Early exit voting is not used.
+ *
+ * The crossing lists also give the volume without voxels (cf. computeLineIntegralVolume): the length of a column inside the object
+ * is the sum of the distances between its crossings taken in pairs. Summed over the columns and multiplied by the area of a column,
+ * this is the volume, with an accuracy which depends on the 2D lattice of the columns instead of on a 3D lattice of voxels.
+ *
+ * @author Horst Steuer
+ *
+ */
+public class ColumnRasterEngine implements VoxelClassifier {
+
+	//same criterion as Plane.isParallel for a unit direction vector
+	private static final double PARALLEL_TOLERANCE = 0.0001;
+	
+	private Options options;
+	
+	//lattice of the voxel centers: origin, spacing and number of voxels per axis
+	private double[] origin;
+	private double[] spacing;
+	private int[] size;
+	
+	//crossing lists of the columns of one axis: the heights of column c are heights[offsets[c]] to heights[offsets[c+1]-1].
+	//next is the position at which the next height of a column is stored, null while the crossings are counted
+	private int[] offsets;
+	private int[] next;
+	private double[] heights;
+	
+	//reusable buffers for the crossings of one row with the rings of a polygon and the winding numbers of the rings
+	private double[] rowU = new double[16];
+	private int[] rowRing = new int[16];
+	private int[] rowDirection = new int[16];
+	private int[] winding = new int[4];
+	
+	//number of distinct heights in front of each position of a column (if duplicate intersections are removed)
+	private int[] distinct = new int[17];
+	
+	//number of columns with an odd number of crossings during the last line integral
+	private long unpairedColumns;
+
+	/**
+	 * Constructor
+	 * @param options
+	 */
+	public ColumnRasterEngine(Options options)
+	{
+		this.options = options;
+	}
+
+	@Override
+	public void classify(Vector<Polygon> polygons, Voxelvolume vox, boolean probabilityversion)
+	{
+		origin = vox.minPoint.coords;
+		spacing = new double[] {vox.voxsizex, vox.voxsizey, vox.voxsizez};
+		size = new int[] {vox.sizex, vox.sizey, vox.sizez};
+		
+		for(int axis = 0; axis < 3; axis++)
+		{
+			rasterize(polygons, axis);
+			addVotes(vox, axis);
+		}
+		offsets = null;
+		next = null;
+		heights = null;
+		
+		if(probabilityversion)
+			return;
+		for(int x = 0 ; x < vox.sizex; x++ )
+			for(int y = 0 ; y < vox.sizey; y++ )
+				for(int z = 0 ; z < vox.sizez; z++ )
+					vox.set(x, y, z, (vox.get(x, y, z) >= options.mindirections) ? 1 : 0);
+	}
+	
+	/**
+	 * Computes the volume of the object given by polygons from the inside lengths of the columns of the voxel centers of a voxel volume
+	 * from min to max with the given voxel size, without creating the voxel volume. For each axis the sorted crossings of every column 
+	 * are taken in pairs (in front of the first crossing the column is outside) and the lengths of the inside intervals times the area
+	 * of a column are summed up. The result is the average of the three axes, whose volumes are stored in axisVolumes if it is not null.
+	 * Duplicate intersections are removed first if options.removeDuplicateIntersections is set. 
+	 * If a column has an odd number of crossings (gaps in the surface), its last crossing is ignored and the column is counted 
+	 * (cf. getUnpairedColumns). The result is then not reliable, since one gap changes the inside lengths of all columns through it.
+	 * @param polygons
+	 * @param min
+	 * @param max
+	 * @param voxelsize
+	 * @param axisVolumes
+	 * @return
+	 */
+	public double computeLineIntegralVolume(Vector<Polygon> polygons, Point min, Point max, double voxelsize, double[] axisVolumes)
+	{
+		origin = min.coords;
+		spacing = new double[] {voxelsize, voxelsize, voxelsize};
+		size = new int[3];
+		for(int axis = 0; axis < 3; axis++)
+			size[axis] = Voxelvolume.getSize(min, max, voxelsize, axis);
+		
+		double volume = 0.0;
+		unpairedColumns = 0;
+		for(int axis = 0; axis < 3; axis++)
+		{
+			rasterize(polygons, axis);
+			double axisVolume = integrate(axis);
+			if(axisVolumes != null)
+				axisVolumes[axis] = axisVolume;
+			volume += axisVolume;
+		}
+		offsets = null;
+		next = null;
+		heights = null;
+		return volume / 3.0;
+	}
+	
+	/**
+	 * Sums up the inside lengths of the columns in direction axis times their area
+	 * @param axis
+	 * @return
+	 */
+	private double integrate(int axis)
+	{
+		int u = (axis == 0) ? 1 : 0;
+		int v = (axis == 2) ? 1 : 2;
+		double length = 0.0;
+		for(int c = 0; c + 1 < offsets.length; c++)
+		{
+			int from = offsets[c];
+			int to = offsets[c+1];
+			Arrays.sort(heights, from, to);
+			if(options.removeDuplicateIntersections)
+			{
+				//keep the first height of each group of duplicates
+				int m = from;
+				for(int i = from; i < to; i++)
+				{
+					if(i == from || heights[i] - heights[i-1] > options.duplicateIntersectionTolerance)
+						heights[m++] = heights[i];
+				}
+				to = m;
+			}
+			if((to - from) % 2 == 1)
+				unpairedColumns++;
+			for(int i = from; i + 1 < to; i += 2)
+				length += heights[i+1] - heights[i];
+		}
+		return length * spacing[u] * spacing[v];
+	}
+	
+	/**
+	 * Returns the number of columns with an odd number of crossings during the last call of computeLineIntegralVolume.
+	 * It is 0 for closed surfaces.
+	 * @return
+	 */
+	public long getUnpairedColumns()
+	{
+		return unpairedColumns;
+	}
+	
+	/**
+	 * Builds the crossing lists of the columns in direction axis
+	 * @param polygons
+	 * @param axis
+	 */
+	private void rasterize(Vector<Polygon> polygons, int axis)
+	{
+		int u = (axis == 0) ? 1 : 0;
+		int v = (axis == 2) ? 1 : 2;
+		int columns = size[u] * size[v];
+		
+		//first pass: count the crossings per column
+		offsets = new int[columns + 1];
+		next = null;
+		for(int p = 0; p < polygons.size(); p++)
+			scanPolygon(polygons.get(p), u, v, axis);
+		for(int c = 0; c < columns; c++)
+			offsets[c+1] += offsets[c];
+		
+		//second pass: store the heights
+		heights = new double[offsets[columns]];
+		next = Arrays.copyOf(offsets, columns);
+		for(int p = 0; p < polygons.size(); p++)
+			scanPolygon(polygons.get(p), u, v, axis);
+	}
+	
+	/**
+	 * Scan-converts polygon onto the lattice of the columns in direction w and counts or stores its heights over the covered columns.
+	 * The columns are given by their coordinates on the axes u and v.
+	 * @param polygon
+	 * @param u
+	 * @param v
+	 * @param w
+	 */
+	private void scanPolygon(Polygon polygon, int u, int v, int w)
+	{
+		double[] n = polygon.getPlane().normal.coords;
+		if(Math.abs(n[w]) < PARALLEL_TOLERANCE)
+			return;
+		double[] q = polygon.getPlane().point.coords;
+		
+		Ring exterior = polygon.getExterior();
+		Vector<Ring> interior = polygon.getInterior();
+		int rings = 1 + interior.size();
+		if(winding.length < rings)
+			winding = new int[rings];
+		
+		double vMin = Double.POSITIVE_INFINITY, vMax = Double.NEGATIVE_INFINITY;
+		for(int i = 0; i < exterior.pos.size(); i++)
+		{
+			vMin = Math.min(vMin, exterior.pos.get(i).coords[v]);
+			vMax = Math.max(vMax, exterior.pos.get(i).coords[v]);
+		}
+		//one more row on each side against rounding, the crossings decide exactly
+		int first = Math.max(0, (int) Math.floor((vMin - origin[v]) / spacing[v]));
+		int last = Math.min(size[v] - 1, (int) Math.ceil((vMax - origin[v]) / spacing[v]));
+		
+		for(int j = first; j <= last; j++)
+		{
+			double rv = origin[v] + j*spacing[v];
+			int count = addRowCrossings(exterior, 0, u, v, rv, 0);
+			for(int r = 1; r < rings; r++)
+				count = addRowCrossings(interior.get(r-1), r, u, v, rv, count);
+			if(count == 0)
+				continue;
+			sortRow(count);
+			
+			//sweep along the row: a column takes the state behind the last crossing before it (or at it)
+			for(int r = 0; r < rings; r++)
+				winding[r] = 0;
+			int insideInterior = 0;
+			for(int k = 0; k < count; k++)
+			{
+				int r = rowRing[k];
+				boolean wasInside = winding[r] != 0;
+				winding[r] += rowDirection[k];
+				if(r > 0 && wasInside != (winding[r] != 0))
+					insideInterior += wasInside ? -1 : 1;
+				if(winding[0] == 0 || insideInterior > 0)
+					continue;
+				
+				double start = rowU[k];
+				double end = (k + 1 < count) ? rowU[k+1] : Double.POSITIVE_INFINITY;
+				int i = Math.max(0, (int) Math.floor((start - origin[u]) / spacing[u]));
+				while(i > 0 && origin[u] + (i-1)*spacing[u] > start)
+					i--;
+				while(i < size[u] && origin[u] + i*spacing[u] <= start)
+					i++;
+				for( ; i < size[u]; i++)
+				{
+					double cu = origin[u] + i*spacing[u];
+					if(cu > end)
+						break;
+					int c = i * size[v] + j;
+					if(next == null)
+						offsets[c+1]++;
+					else
+						heights[next[c]++] = q[w] - (n[u] * (cu - q[u]) + n[v] * (rv - q[v])) / n[w];
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Appends the crossings of the edges of ring with the row v = rv to the row buffers and returns the new number of crossings.
+	 * An edge crosses the row if exactly one of its end points is at or above it. The crossing is computed from the end points 
+	 * ordered by height, so that an edge shared by two polygons gives the same crossing for both.
+	 * @param ring
+	 * @param index
+	 * @param u
+	 * @param v
+	 * @param rv
+	 * @param count
+	 * @return
+	 */
+	private int addRowCrossings(Ring ring, int index, int u, int v, double rv, int count)
+	{
+		Vector<Point> pos = ring.pos;
+		int npoints = pos.size();
+		double[] a = pos.get(npoints - 1).coords;
+		for(int i = 0; i < npoints; i++)
+		{
+			double[] b = pos.get(i).coords;
+			boolean aAbove = a[v] >= rv;
+			boolean bAbove = b[v] >= rv;
+			if(aAbove != bAbove)
+			{
+				double[] low = aAbove ? b : a;
+				double[] high = aAbove ? a : b;
+				if(count == rowU.length)
+				{
+					rowU = Arrays.copyOf(rowU, 2 * count);
+					rowRing = Arrays.copyOf(rowRing, 2 * count);
+					rowDirection = Arrays.copyOf(rowDirection, 2 * count);
+				}
+				rowU[count] = low[u] + (rv - low[v]) * (high[u] - low[u]) / (high[v] - low[v]);
+				rowRing[count] = index;
+				rowDirection[count] = bAbove ? 1 : -1;
+				count++;
+			}
+			a = b;
+		}
+		return count;
+	}
+	
+	/**
+	 * Sorts the first count crossings of the row buffers by their coordinate (insertion sort, rows have few crossings)
+	 * @param count
+	 */
+	private void sortRow(int count)
+	{
+		for(int i = 1; i < count; i++)
+		{
+			double cu = rowU[i];
+			int ring = rowRing[i];
+			int direction = rowDirection[i];
+			int k = i - 1;
+			while(k >= 0 && rowU[k] > cu)
+			{
+				rowU[k+1] = rowU[k];
+				rowRing[k+1] = rowRing[k];
+				rowDirection[k+1] = rowDirection[k];
+				k--;
+			}
+			rowU[k+1] = cu;
+			rowRing[k+1] = ring;
+			rowDirection[k+1] = direction;
+		}
+	}
+	
+	/**
+	 * Adds the votes (0, 1 or 2) of the columns in direction axis to the voxels of vox. The first axis overwrites the voxels.
+	 * @param vox
+	 * @param axis
+	 */
+	private void addVotes(Voxelvolume vox, int axis)
+	{
+		int u = (axis == 0) ? 1 : 0;
+		int v = (axis == 2) ? 1 : 2;
+		boolean removeDuplicates = options.removeDuplicateIntersections;
+		int[] index = new int[3];
+		
+		for(int i = 0; i < size[u]; i++)
+		{
+			for(int j = 0; j < size[v]; j++)
+			{
+				int c = i * size[v] + j;
+				int from = offsets[c];
+				int m = offsets[c+1] - from;
+				Arrays.sort(heights, from, from + m);
+				if(removeDuplicates)
+					countDistinct(from, m);
+				
+				index[u] = i;
+				index[v] = j;
+				int below = 0, notAbove = 0;
+				for(int k = 0; k < size[axis]; k++)
+				{
+					//crossings below the voxel center are left of it, crossings above right of it, crossings at it do not count
+					double cw = origin[axis] + k*spacing[axis];
+					while(below < m && heights[from + below] < cw)
+						below++;
+					notAbove = Math.max(notAbove, below);
+					while(notAbove < m && heights[from + notAbove] <= cw)
+						notAbove++;
+					
+					int left, right;
+					if(removeDuplicates)
+					{
+						left = distinct[below];
+						right = (notAbove < m) ? 1 + distinct[m] - distinct[notAbove + 1] : 0;
+					}
+					else
+					{
+						left = below;
+						right = m - notAbove;
+					}
+					int vote = (left % 2) + (right % 2);
+					
+					index[axis] = k;
+					if(axis == 0)
+						vox.set(index[0], index[1], index[2], vote);
+					else
+						vox.set(index[0], index[1], index[2], vox.get(index[0], index[1], index[2]) + vote);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Stores the number of distinct heights in front of each of the m sorted heights of a column starting at from in distinct 
+	 * (as Voluminator.countDistinct: heights which differ by no more than the tolerance from their predecessor are duplicates)
+	 * @param from
+	 * @param m
+	 */
+	private void countDistinct(int from, int m)
+	{
+		if(distinct.length < m + 1)
+			distinct = new int[2 * m + 1];
+		distinct[0] = 0;
+		for(int i = 0; i < m; i++)
+		{
+			boolean starts = (i == 0) || (heights[from + i] - heights[from + i - 1] > options.duplicateIntersectionTolerance);
+			distinct[i+1] = distinct[i] + (starts ? 1 : 0);
+		}
+	}
+}
@@ -0,0 +1,409 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package voluminator;
+
+import helperClasses.BuildingReader;
+import helperClasses.MemoryEstimator;
+import helperClasses.OBJReader;
+import helperClasses.PolygonConstructor;
+import helperClasses.SyntheticBuildings;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Vector;
+
+import dataTypes.BoundingBox;
+import dataTypes.BuildingCallable;
+import dataTypes.JobConfiguration;
+import dataTypes.Options;
+import dataTypes.Polygon;
+
+/**
+ * Estimates the costs of a batch computation without voxelizing (cf. Options.dryRun): 
+ * number of polygons, number of voxels, predicted runtime and peak memory per building and in total.
+ * 
+ * The runtime of a building is predicted as nanosPerUnit * units + nanosPerTest * tests. The units are the voxels 
+ * (the points for the Monte Carlo mode) and the tests are the ray-polygon tests: units * polygons for the engines which cast rays 
+ * per voxel (scalar, packet and flood fill engine, the latter only for the voxels which are not exterior, which the calibration 
+ * accounts for) and for the Monte Carlo mode, columns * polygons for the engines which cast rays per column (column and triangle engine) 
+ * and for line integrals. The extrapolation mode adds the costs of its voxel sizes.
+ * The Monte Carlo mode is predicted with options.monteCarloMaxSamples points, i.e. as an upper bound.
+ * 
+ * Both constants depend on the machine, the engine and the computation mode (cf. getCalibrationKey) and are read from 
+ * options.calibrationFile. If the file has no values for the key, they are measured on two synthetic buildings with more than 
+ * 100000 voxels after a warm-up of the JIT compiler and stored in the file. The prediction is still rough, since the costs of 
+ * a ray test also depend on the orientation of the polygons, e.g. the scalar engine is slower for polygons parallel to the axes.
+ * The automatic resolution mode is predicted with the voxels estimated by MemoryEstimator, which is only a rough guess for 
+ * AUTO_RESOLUTION_CONVERGENCE.
+ * 
+ * @author Horst Steuer
+ *
+ */
+public class CostEstimator {
+	
+	private static final double CALIBRATION_VOXELSIZE = 0.2;
+	private static final int CALIBRATION_WARMUP = 3;
+	private static final int CALIBRATION_RUNS = 3;
+	private static final long CALIBRATION_SAMPLES = 1000000;
+	
+	private Options options;
+	private double nanosPerUnit;
+	private double nanosPerTest;
+	
+	//estimates of the buildings
+	private List<String> ids = new ArrayList<String>();
+	private List<Integer> polygons = new ArrayList<Integer>();
+	private List<Long> voxels = new ArrayList<Long>();
+	private List<Double> runtimes = new ArrayList<Double>();
+	private List<Long> memory = new ArrayList<Long>();
+	
+	/**
+	 * Constructor, reads or measures the calibration for the engine and computation mode of options
+	 * @param options
+	 * @throws IOException
+	 */
+	public CostEstimator(Options options) throws IOException
+	{
+		this.options = options;
+		calibrate();
+	}
+	
+	/**
+	 * Estimates the costs for all buildings of the CityGML file options.inputfile and writes the report.
+	 * @param options
+	 * @throws Exception
+	 */
+	public static void estimateCityGML(Options options) throws Exception
+	{
+		estimateCityGMLFiles(new File[]{new File(options.inputfile)}, options);
+	}
+	
+	/**
+	 * Estimates the costs for all buildings of the given CityGML files, e.g. the tiles of a city, and writes one report 
+	 * for all of them. The files are read one after another, so only one file is kept in memory.
+	 * @param files
+	 * @param options
+	 * @throws Exception
+	 */
+	public static void estimateCityGMLFiles(File[] files, Options options) throws Exception
+	{
+		CostEstimator estimator = new CostEstimator(options);
+		PolygonConstructor constructor = new PolygonConstructor();
+		for(File f : files)
+		{
+			List<BuildingCallable> buildings = new BuildingReader().readCityGMLFile(f.getAbsolutePath(), options);
+			for(BuildingCallable b : buildings)
+			{
+				estimator.addBuilding(b.getBuildingId(), constructor.computeBoundingBox(b.getBsp()), constructor.countPolygons(b.getBsp()));
+			}
+		}
+		estimator.writeReport();
+	}
+	
+	/**
+	 * Estimates the costs for all OBJ-files in the directory options.inputfile and writes the report.
+	 * @param options
+	 * @throws Exception
+	 */
+	public static void estimateObj(Options options) throws Exception
+	{
+		CostEstimator estimator = new CostEstimator(options);
+		File[] files = new File(options.inputfile).listFiles();
+		if(files != null)
+		{
+			for(File f : files)
+			{
+				if(f.isDirectory())
+					continue;
+				OBJReader reader = new OBJReader();
+				BoundingBox bb = reader.readBoundingBox(f.getAbsolutePath());
+				estimator.addBuilding(f.getAbsolutePath(), bb, reader.getNumberOfFaces());
+			}
+		}
+		estimator.writeReport();
+	}
+	
+	/**
+	 * Adds the estimate of a building with bounding box bb and the given number of polygons
+	 * @param id
+	 * @param bb
+	 * @param numberOfPolygons
+	 */
+	public void addBuilding(String id, BoundingBox bb, int numberOfPolygons)
+	{
+		long v = (numberOfPolygons == 0) ? 0 : MemoryEstimator.estimateVoxels(bb, options);
+		ids.add(id);
+		polygons.add(numberOfPolygons);
+		voxels.add(v);
+		runtimes.add((numberOfPolygons == 0) ? 0.0 : predictRuntime(bb, numberOfPolygons));
+		memory.add(MemoryEstimator.estimatePeakMemory(bb, numberOfPolygons, options));
+	}
+	
+	/**
+	 * Predicted runtime in ms for a building with bounding box bb and the given number of polygons
+	 * @param bb
+	 * @param numberOfPolygons
+	 * @return
+	 */
+	public double predictRuntime(BoundingBox bb, int numberOfPolygons)
+	{
+		double[] units = getUnits(bb, numberOfPolygons, options);
+		return (nanosPerUnit * units[0] + nanosPerTest * units[1]) / 1e6;
+	}
+	
+	/**
+	 * Returns the units (voxels or points) and the ray-polygon tests of the computation of a building with bounding box bb 
+	 * and the given number of polygons with options o (cf. class description)
+	 * @param bb
+	 * @param numberOfPolygons
+	 * @param o
+	 * @return
+	 */
+	private static double[] getUnits(BoundingBox bb, int numberOfPolygons, Options o)
+	{
+		double[] units = new double[2];
+		boolean singleResolution = o.multiResolutionVoxelsizes == null && o.autoResolution == Options.AUTO_RESOLUTION_OFF;
+		if(singleResolution && o.extrapolationVoxelsizes != null)
+		{
+			for(double h : o.extrapolationVoxelsizes)
+				addUnits(units, bb, MemoryEstimator.getNumberOfVoxels(bb, h), h, numberOfPolygons, o);
+		}
+		else if(singleResolution && !o.lineIntegral && o.monteCarlo != Options.MONTE_CARLO_OFF)
+		{
+			units[0] = o.monteCarloMaxSamples;
+			units[1] = (double) o.monteCarloMaxSamples * numberOfPolygons;
+		}
+		else
+		{
+			//voxel size of the estimated voxel volume, the number of voxels is proportional to voxelsize^-3
+			long voxels = MemoryEstimator.estimateVoxels(bb, o);
+			long reference = MemoryEstimator.getNumberOfVoxels(bb, o.voxelsize);
+			double h = o.voxelsize * Math.cbrt(reference / (double) Math.max(1, voxels));
+			addUnits(units, bb, voxels, h, numberOfPolygons, o);
+		}
+		return units;
+	}
+	
+	/**
+	 * Adds the units and ray-polygon tests of a voxel volume with the given number of voxels and voxel size
+	 * @param units
+	 * @param bb
+	 * @param voxels
+	 * @param voxelsize
+	 * @param numberOfPolygons
+	 * @param o
+	 */
+	private static void addUnits(double[] units, BoundingBox bb, long voxels, double voxelsize, int numberOfPolygons, Options o)
+	{
+		boolean perColumn = o.lineIntegral || o.engine == Options.ENGINE_COLUMN || o.engine == Options.ENGINE_TRIANGLES;
+		units[0] += voxels;
+		units[1] += (double) (perColumn ? MemoryEstimator.getNumberOfColumns(bb, voxelsize) : voxels) * numberOfPolygons;
+	}
+	
+	/**
+	 * Returns the key of the calibration constants for options o: the engine and the computation mode. 
+	 * Modes which combine several voxel volumes (multi-resolution, automatic resolution, extrapolation) use the key of the 
+	 * computation of a single voxel volume.
+	 * @param o
+	 * @return
+	 */
+	public static String getCalibrationKey(Options o)
+	{
+		String mode;
+		if(o.lineIntegral)
+			mode = "lineIntegral";
+		else if(o.monteCarlo != Options.MONTE_CARLO_OFF)
+			mode = "monteCarlo" + o.monteCarlo;
+		else if(o.probabilityversion)
+			mode = (o.earlyExitVoting && o.earlyExitProbabilityVersion) ? "probabilityEarlyExit" : "probability";
+		else
+			mode = o.earlyExitVoting ? "earlyExit" : "vote";
+		if(o.removeDuplicateIntersections)
+			mode += ".distinct";
+		if(o.footprintSkipping != Options.FOOTPRINT_OFF)
+			mode += ".footprint" + o.footprintSkipping;
+		return "engine" + o.engine + "." + mode;
+	}
+	
+	/**
+	 * Predicted runtime in ms of all buildings on options.numberOfThreads threads. 
+	 * This is the sum of all runtimes divided by the number of threads, but at least the runtime of the largest building.
+	 * @return
+	 */
+	public double getTotalRuntime()
+	{
+		double sum = 0.0, max = 0.0;
+		for(double r : runtimes)
+		{
+			sum += r;
+			max = Math.max(max, r);
+		}
+		return Math.max(sum / Math.max(1, options.numberOfThreads), max);
+	}
+	
+	/**
+	 * Predicted peak memory in bytes of all buildings on options.numberOfThreads threads: the sum of the options.numberOfThreads
+	 * largest estimates. If options.memoryBudget is set, the buildings running at the same time use at most the budget 
+	 * or the estimate of the largest building.
+	 * @return
+	 */
+	public long getTotalPeakMemory()
+	{
+		List<Long> sorted = new ArrayList<Long>(memory);
+		Collections.sort(sorted, Collections.reverseOrder());
+		long result = 0;
+		for(int i = 0; i < Math.min(sorted.size(), Math.max(1, options.numberOfThreads)); i++)
+			result += sorted.get(i);
+		if(options.memoryBudget > 0 && !sorted.isEmpty())
+			result = Math.min(result, Math.max(options.memoryBudget, sorted.get(0)));
+		return result;
+	}
+	
+	/**
+	 * Writes the estimates to options.logBasename + options.voxelsize + ".estimate.log" and the totals to the console.
+	 * Columns: building, polygons, voxels, predicted runtime (ms), peak memory (bytes)
+	 * @throws IOException
+	 */
+	public void writeReport() throws IOException
+	{
+		long totalVoxels = 0, totalPolygons = 0;
+		try(PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(options.logBasename + options.voxelsize + ".estimate.log")))) {
+			for(int i = 0; i < ids.size(); i++)
+			{
+				out.println(ids.get(i) + ", " + polygons.get(i) + ", " + voxels.get(i) + ", " + Math.round(runtimes.get(i)) + ", " + memory.get(i));
+				totalVoxels += voxels.get(i);
+				totalPolygons += polygons.get(i);
+			}
+			out.println("total, " + totalPolygons + ", " + totalVoxels + ", " + Math.round(getTotalRuntime()) + ", " + getTotalPeakMemory());
+		}
+		System.out.println("buildings: " + ids.size());
+		System.out.println("polygons: " + totalPolygons);
+		System.out.println("voxels: " + totalVoxels);
+		System.out.println("predicted runtime (ms, " + options.numberOfThreads + " threads): " + Math.round(getTotalRuntime()));
+		System.out.println("predicted peak memory (bytes): " + getTotalPeakMemory());
+	}
+	
+	/**
+	 * Reads the calibration constants for the engine and computation mode of options from options.calibrationFile, 
+	 * or measures and stores them if they are missing.
+	 * @throws IOException
+	 */
+	private void calibrate() throws IOException
+	{
+		Properties calibration = new Properties();
+		File file = new File(options.calibrationFile);
+		if(file.exists())
+		{
+			try(InputStream in = new FileInputStream(file)) {
+				calibration.load(in);
+			}
+		}
+		
+		String prefix = getCalibrationKey(options) + ".";
+		if(calibration.getProperty(prefix + "nanosPerUnit") == null || calibration.getProperty(prefix + "nanosPerTest") == null)
+		{
+			measure();
+			calibration.setProperty(prefix + "nanosPerUnit", Double.toString(nanosPerUnit));
+			calibration.setProperty(prefix + "nanosPerTest", Double.toString(nanosPerTest));
+			try(OutputStream out = new FileOutputStream(file)) {
+				calibration.store(out, "Voluminator runtime calibration");
+			}
+		}
+		else
+		{
+			nanosPerUnit = Double.parseDouble(calibration.getProperty(prefix + "nanosPerUnit"));
+			nanosPerTest = Double.parseDouble(calibration.getProperty(prefix + "nanosPerTest"));
+		}
+	}
+	
+	/**
+	 * Measures the calibration constants with two synthetic buildings with the same bounding box and different numbers of polygons
+	 * (about 130000 voxels at CALIBRATION_VOXELSIZE). Each building is computed CALIBRATION_WARMUP times for the JIT compiler, 
+	 * then the fastest of CALIBRATION_RUNS runs is used.
+	 */
+	private void measure()
+	{
+		Vector<Polygon> small = SyntheticBuildings.cylinder(5, 10, 16);
+		Vector<Polygon> large = SyntheticBuildings.cylinder(5, 10, 128);
+		
+		Options o = new Options();
+		o.voxelsize = CALIBRATION_VOXELSIZE;
+		o.engine = options.engine;
+		o.packetWidth = options.packetWidth;
+		o.removeDuplicateIntersections = options.removeDuplicateIntersections;
+		o.duplicateIntersectionTolerance = options.duplicateIntersectionTolerance;
+		o.probabilityversion = options.probabilityversion;
+		o.earlyExitVoting = options.earlyExitVoting;
+		o.earlyExitProbabilityVersion = options.earlyExitProbabilityVersion;
+		o.footprintSkipping = options.footprintSkipping;
+		o.lineIntegral = options.lineIntegral;
+		o.monteCarlo = options.monteCarlo;
+		//the Monte Carlo mode runs until the maximal number of points
+		o.monteCarloMaxSamples = CALIBRATION_SAMPLES;
+		o.monteCarloRelativeError = 0.0;
+		
+		double[] nanos = new double[2];
+		double[][] units = new double[2][];
+		for(int i = 0; i < 2; i++)
+		{
+			Vector<Polygon> polygons = (i == 0) ? small : large;
+			units[i] = getUnits(new Voluminator(o).computeBoundingBox(polygons), polygons.size(), o);
+			
+			nanos[i] = Double.POSITIVE_INFINITY;
+			for(int run = 0; run < CALIBRATION_WARMUP + CALIBRATION_RUNS; run++)
+			{
+				long start = System.nanoTime();
+				new VolumeEngine().compute(polygons, new JobConfiguration(o));
+				if(run >= CALIBRATION_WARMUP)
+					nanos[i] = Math.min(nanos[i], System.nanoTime() - start);
+			}
+		}
+		
+		nanosPerTest = Math.max(0.0, (nanos[1] - nanos[0]) / (units[1][1] - units[0][1]));
+		nanosPerUnit = Math.max(0.0, (nanos[0] - nanosPerTest * units[0][1]) / units[0][0]);
+	}
+}
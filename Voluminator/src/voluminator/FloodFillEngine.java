@@ -0,0 +1,507 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package voluminator;
+
+import java.util.Vector;
+
+import dataTypes.Options;
+import dataTypes.Point;
+import dataTypes.Polygon;
+import dataTypes.Ring;
+import dataTypes.Voxelvolume;
+
+/**
+ * Voxel classification by surface voxelization and a flood fill of the exterior, which casts rays only where the topology is unclear.
+ *
+ * 1. Surface: every voxel whose cell may overlap a polygon is marked. The test is conservative: the cell overlaps the polygon
+ *    in the projection along the dominant axis of its normal (cf. the extent of the polygon within the row of the cell) 
+ *    and the plane of the polygon passes through the cell. Cells which lie completely inside an interior ring are not marked,
+ *    so the fill passes through openings larger than a voxel.
+ * 2. Exterior: all voxels which are reachable from the border of the voxel volume without crossing the surface are outside.
+ * 3. Votes: surface voxels and exterior voxels next to the surface are classified by the vote of the 6 rays (cf. Voluminator.classifyPoint).
+ *    If such an exterior voxel is inside by vote (in the probability version: has any inside vote), the fill has leaked through a gap 
+ *    of broken geometry or the rays disagree near it: starting from it, the exterior voxels are classified by vote as long as they are 
+ *    inside. Every voxel which the fill did not reach (the interior or a pocket) is classified by vote. Samples of a region do not 
+ *    suffice: rays through openings or shared edges change the votes of single voxels deep inside it.
+ *
+ * Only the exterior voxels away from the surface are not classified by rays, so the cost is O((surface + interior) * polygons + voxels)
+ * instead of O(voxels * polygons). They are outside (0 votes). The vote of the scalar engine gives them 0 votes as well unless a ray 
+ * passes through an opening or hits an edge shared by several polygons. The results therefore only differ from the scalar engine for 
+ * such voxels, above all in the probability version, where a single ray counts: e.g. for the pyramid roof of SyntheticBuildings 
+ * or a box with a hole in a wall.
+ *
+ * The state of the voxels takes one byte per voxel on the heap (cf. MemoryEstimator.getEngineMemory). If the voxel volume is not
+ * on the heap and the state does not fit into the free heap, every voxel is classified by vote instead.
+ *
+ * @author Horst Steuer
+ *
+ */
+public class FloodFillEngine implements VoxelClassifier {
+	
+	//state of the voxels
+	private static final byte UNKNOWN = 0;
+	private static final byte SURFACE = 1;
+	private static final byte EXTERIOR = 2;
+	private static final byte DONE = 3;
+	
+	private Options options;
+	private Voluminator voluminator;
+	
+	private Voxelvolume vox;
+	private Polygon[] polygons;
+	private boolean probabilityversion;
+	private int sizex, sizey, sizez;
+	private byte[] state;
+	private IntQueue queue = new IntQueue();
+	
+	//number of voxels classified by vote during the last classification
+	private long votedVoxels;
+	
+	/**
+	 * Constructor
+	 * @param options
+	 * @param voluminator classifies single voxels by vote
+	 */
+	public FloodFillEngine(Options options, Voluminator voluminator)
+	{
+		this.options = options;
+		this.voluminator = voluminator;
+	}
+
+	@Override
+	public void classify(Vector<Polygon> polygons, Voxelvolume vox, boolean probabilityversion)
+	{
+		this.vox = vox;
+		this.polygons = polygons.toArray(new Polygon[polygons.size()]);
+		this.probabilityversion = probabilityversion;
+		sizex = vox.sizex;
+		sizey = vox.sizey;
+		sizez = vox.sizez;
+		votedVoxels = 0;
+		
+		long voxels = (long) sizex * sizey * sizez;
+		if(voxels > Integer.MAX_VALUE - 8 || (vox.getStorage() != Options.VOXEL_STORAGE_HEAP && voxels > getAvailableHeap()))
+		{
+			//the state does not fit into an array or, for a voxel volume outside of the heap, into the heap: classify every voxel by vote
+			for(int x = 0 ; x < sizex; x++ )
+				for(int y = 0 ; y < sizey; y++ )
+					for(int z = 0 ; z < sizez; z++ )
+						vox.set(x, y, z, vote(index(x, y, z)));
+			return;
+		}
+		
+		state = new byte[sizex * sizey * sizez];
+		for(Polygon p : this.polygons)
+			markSurface(p);
+		fillExterior();
+		classifySurface();
+		classifyRegions();
+		
+		state = null;
+		this.polygons = null;
+		this.vox = null;
+	}
+	
+	/**
+	 * Returns the heap memory in bytes which can still be allocated
+	 * @return
+	 */
+	private static long getAvailableHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+	}
+	
+	/**
+	 * Returns the number of voxels classified by vote during the last classification
+	 * @return
+	 */
+	public long getVotedVoxels()
+	{
+		return votedVoxels;
+	}
+	
+	/**
+	 * Marks the voxels whose cells may overlap polygon as SURFACE. The polygon is projected along the dominant axis d of its normal.
+	 * For each row of cells on the other axes u and v, the extent of the polygon within the row gives the candidate cells, 
+	 * and the range of the plane over each of them gives the voxels along d. Cells inside an interior ring are skipped.
+	 * @param polygon
+	 */
+	private void markSurface(Polygon polygon)
+	{
+		double[] n = polygon.getPlane().normal.coords;
+		double[] q = polygon.getPlane().point.coords;
+		int d = 0;
+		for(int i = 1; i < 3; i++)
+		{
+			if(Math.abs(n[i]) > Math.abs(n[d]))
+				d = i;
+		}
+		if(n[d] == 0.0)
+			return;
+		int u = (d == 0) ? 1 : 0;
+		int v = (d == 2) ? 1 : 2;
+		
+		double[] origin = vox.minPoint.coords;
+		double[] spacing = {vox.voxsizex, vox.voxsizey, vox.voxsizez};
+		int[] size = {sizex, sizey, sizez};
+		//half sizes of the cells, slightly enlarged against rounding
+		double[] h = new double[3];
+		for(int i = 0; i < 3; i++)
+			h[i] = spacing[i] / 2.0 * (1.0 + 1e-6);
+		
+		Vector<Point> pos = polygon.getExterior().pos;
+		int npoints = pos.size();
+		double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+		double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		for(int k = 0; k < npoints; k++)
+		{
+			for(int i = 0; i < 3; i++)
+			{
+				min[i] = Math.min(min[i], pos.get(k).coords[i]);
+				max[i] = Math.max(max[i], pos.get(k).coords[i]);
+			}
+		}
+		
+		int[] index = new int[3];
+		int firstRow = Math.max(0, (int) Math.ceil((min[v] - h[v] - origin[v]) / spacing[v]));
+		int lastRow = Math.min(size[v] - 1, (int) Math.floor((max[v] + h[v] - origin[v]) / spacing[v]));
+		for(int j = firstRow; j <= lastRow; j++)
+		{
+			double cv = origin[v] + j*spacing[v];
+			double bandLow = cv - h[v], bandHigh = cv + h[v];
+			
+			//extent of the polygon within the row: the edges clipped to the band
+			double uLow = Double.POSITIVE_INFINITY, uHigh = Double.NEGATIVE_INFINITY;
+			double[] a = pos.get(npoints - 1).coords;
+			for(int k = 0; k < npoints; k++)
+			{
+				double[] b = pos.get(k).coords;
+				double low = Math.max(bandLow, Math.min(a[v], b[v]));
+				double high = Math.min(bandHigh, Math.max(a[v], b[v]));
+				if(low <= high)
+				{
+					if(a[v] == b[v])
+					{
+						uLow = Math.min(uLow, Math.min(a[u], b[u]));
+						uHigh = Math.max(uHigh, Math.max(a[u], b[u]));
+					}
+					else
+					{
+						double u0 = a[u] + (low - a[v]) * (b[u] - a[u]) / (b[v] - a[v]);
+						double u1 = a[u] + (high - a[v]) * (b[u] - a[u]) / (b[v] - a[v]);
+						uLow = Math.min(uLow, Math.min(u0, u1));
+						uHigh = Math.max(uHigh, Math.max(u0, u1));
+					}
+				}
+				a = b;
+			}
+			if(uLow > uHigh)
+				continue;
+			
+			int first = Math.max(0, (int) Math.ceil((uLow - h[u] - origin[u]) / spacing[u]));
+			int last = Math.min(size[u] - 1, (int) Math.floor((uHigh + h[u] - origin[u]) / spacing[u]));
+			for(int i = first; i <= last; i++)
+			{
+				double cu = origin[u] + i*spacing[u];
+				if(isInsideInterior(polygon, u, v, cu, cv, h[u], h[v]))
+					continue;
+				//range of the plane over the cell, limited to the extent of the polygon
+				double center = q[d] - (n[u] * (cu - q[u]) + n[v] * (cv - q[v])) / n[d];
+				double spread = (Math.abs(n[u]) * h[u] + Math.abs(n[v]) * h[v]) / Math.abs(n[d]);
+				double dLow = Math.max(min[d], center - spread);
+				double dHigh = Math.min(max[d], center + spread);
+				int kFirst = Math.max(0, (int) Math.ceil((dLow - h[d] - origin[d]) / spacing[d]));
+				int kLast = Math.min(size[d] - 1, (int) Math.floor((dHigh + h[d] - origin[d]) / spacing[d]));
+				
+				index[u] = i;
+				index[v] = j;
+				for(int k = kFirst; k <= kLast; k++)
+				{
+					index[d] = k;
+					state[index(index[0], index[1], index[2])] = SURFACE;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tests if the cell with center cu,cv and half sizes hu,hv in the projection onto the axes u and v lies completely inside 
+	 * an interior ring of polygon, i.e. its center is inside the ring and no edge of the ring passes through the cell
+	 * @param polygon
+	 * @param u
+	 * @param v
+	 * @param cu
+	 * @param cv
+	 * @param hu
+	 * @param hv
+	 * @return
+	 */
+	private static boolean isInsideInterior(Polygon polygon, int u, int v, double cu, double cv, double hu, double hv)
+	{
+		for(Ring ring : polygon.getInterior())
+		{
+			Vector<Point> pos = ring.pos;
+			int npoints = pos.size();
+			boolean inside = false;
+			boolean crossed = false;
+			double[] a = pos.get(npoints - 1).coords;
+			for(int k = 0; k < npoints && !crossed; k++)
+			{
+				double[] b = pos.get(k).coords;
+				//even-odd test of the center
+				if((a[v] > cv) != (b[v] > cv) && cu < a[u] + (cv - a[v]) * (b[u] - a[u]) / (b[v] - a[v]))
+					inside = !inside;
+				crossed = cutsCell(a[u], a[v], b[u], b[v], cu - hu, cu + hu, cv - hv, cv + hv);
+				a = b;
+			}
+			if(inside && !crossed)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Tests if the segment from a0,a1 to b0,b1 passes through the rectangle [low0, high0] x [low1, high1] (Liang-Barsky clipping)
+	 * @return
+	 */
+	private static boolean cutsCell(double a0, double a1, double b0, double b1, double low0, double high0, double low1, double high1)
+	{
+		double[] p = {a0 - b0, b0 - a0, a1 - b1, b1 - a1};
+		double[] q = {a0 - low0, high0 - a0, a1 - low1, high1 - a1};
+		double t0 = 0.0, t1 = 1.0;
+		for(int k = 0; k < 4; k++)
+		{
+			if(p[k] == 0.0)
+			{
+				if(q[k] < 0.0)
+					return false;
+			}
+			else
+			{
+				double t = q[k] / p[k];
+				if(p[k] < 0.0)
+					t0 = Math.max(t0, t);
+				else
+					t1 = Math.min(t1, t);
+			}
+		}
+		return t0 <= t1;
+	}
+	
+	/**
+	 * Marks all voxels reachable from the border without crossing the surface as EXTERIOR and sets them outside
+	 */
+	private void fillExterior()
+	{
+		queue.clear();
+		for(int x = 0 ; x < sizex; x++ )
+		{
+			for(int y = 0 ; y < sizey; y++ )
+			{
+				for(int z = 0 ; z < sizez; z++ )
+				{
+					if(x == 0 || y == 0 || z == 0 || x == sizex-1 || y == sizey-1 || z == sizez-1)
+						enqueue(index(x, y, z), UNKNOWN, EXTERIOR);
+				}
+			}
+		}
+		while(!queue.isEmpty())
+		{
+			int i = queue.poll();
+			vox.set(i / (sizey*sizez), (i / sizez) % sizey, i % sizez, 0);
+			visitNeighbours(i, UNKNOWN, EXTERIOR);
+		}
+	}
+	
+	/**
+	 * Classifies the surface voxels and the exterior voxels next to them by vote. Exterior voxels which are inside by vote
+	 * are the start of leaks: their exterior neighbours are classified by vote as well, as long as they are inside.
+	 */
+	private void classifySurface()
+	{
+		queue.clear();
+		for(int i = 0; i < state.length; i++)
+		{
+			if(state[i] != SURFACE)
+				continue;
+			set(i, vote(i));
+			state[i] = DONE;
+			voteExteriorNeighbours(i);
+		}
+		//leaks: continue through the exterior as long as the voxels are inside
+		while(!queue.isEmpty())
+			voteExteriorNeighbours(queue.poll());
+	}
+	
+	/**
+	 * Classifies the exterior neighbours of voxel i by vote and queues those which are inside (cf. voteExterior)
+	 * @param i
+	 */
+	private void voteExteriorNeighbours(int i)
+	{
+		int x = i / (sizey*sizez), y = (i / sizez) % sizey, z = i % sizez;
+		if(x > 0) voteExterior(i - sizey*sizez);
+		if(x < sizex-1) voteExterior(i + sizey*sizez);
+		if(y > 0) voteExterior(i - sizez);
+		if(y < sizey-1) voteExterior(i + sizez);
+		if(z > 0) voteExterior(i - 1);
+		if(z < sizez-1) voteExterior(i + 1);
+	}
+	
+	/**
+	 * Classifies voxel i by vote if it is an exterior voxel which has not been classified yet and queues it if it is inside
+	 * (in the probability version if it has any inside vote)
+	 * @param i
+	 */
+	private void voteExterior(int i)
+	{
+		if(state[i] != EXTERIOR)
+			return;
+		int value = vote(i);
+		set(i, value);
+		state[i] = DONE;
+		if(value > 0)
+			queue.add(i);
+	}
+	
+	/**
+	 * Classifies every voxel which the fill did not reach by vote
+	 */
+	private void classifyRegions()
+	{
+		for(int i = 0; i < state.length; i++)
+		{
+			if(state[i] != UNKNOWN)
+				continue;
+			set(i, vote(i));
+			state[i] = DONE;
+		}
+	}
+	
+	/**
+	 * Queues the 6 neighbours of voxel i which are in state from and changes their state to to
+	 * @param i
+	 * @param from
+	 * @param to
+	 */
+	private void visitNeighbours(int i, byte from, byte to)
+	{
+		int x = i / (sizey*sizez), y = (i / sizez) % sizey, z = i % sizez;
+		if(x > 0) enqueue(i - sizey*sizez, from, to);
+		if(x < sizex-1) enqueue(i + sizey*sizez, from, to);
+		if(y > 0) enqueue(i - sizez, from, to);
+		if(y < sizey-1) enqueue(i + sizez, from, to);
+		if(z > 0) enqueue(i - 1, from, to);
+		if(z < sizez-1) enqueue(i + 1, from, to);
+	}
+	
+	private void enqueue(int i, byte from, byte to)
+	{
+		if(state[i] != from)
+			return;
+		state[i] = to;
+		queue.add(i);
+	}
+	
+	/**
+	 * Classifies voxel i by vote: the number of inside votes in the probability version, otherwise 1 if inside and 0 else
+	 * @param i
+	 * @return
+	 */
+	private int vote(int i)
+	{
+		votedVoxels++;
+		int x = i / (sizey*sizez), y = (i / sizez) % sizey, z = i % sizez;
+		//center of the voxel as in Voxelvolume.getPointAt
+		double px = vox.minPoint.coords[0] + x*vox.voxsizex;
+		double py = vox.minPoint.coords[1] + y*vox.voxsizey;
+		double pz = vox.minPoint.coords[2] + z*vox.voxsizez;
+		return voluminator.classifyPoint(px, py, pz, polygons, probabilityversion);
+	}
+	
+	private void set(int i, int value)
+	{
+		vox.set(i / (sizey*sizez), (i / sizez) % sizey, i % sizez, value);
+	}
+	
+	private int index(int x, int y, int z)
+	{
+		return (x * sizey + y) * sizez + z;
+	}
+	
+	/**
+	 * Queue of voxel indices in a ring buffer which grows if necessary
+	 */
+	private static class IntQueue
+	{
+		private int[] elements = new int[1024];
+		private int head, size;
+		
+		void add(int i)
+		{
+			if(size == elements.length)
+			{
+				int[] grown = new int[2 * size];
+				for(int k = 0; k < size; k++)
+					grown[k] = elements[(head + k) % elements.length];
+				elements = grown;
+				head = 0;
+			}
+			elements[(head + size) % elements.length] = i;
+			size++;
+		}
+		
+		int poll()
+		{
+			int i = elements[head];
+			head = (head + 1) % elements.length;
+			size--;
+			return i;
+		}
+		
+		boolean isEmpty()
+		{
+			return size == 0;
+		}
+		
+		void clear()
+		{
+			head = 0;
+			size = 0;
+		}
+	}
+}
@@ -0,0 +1,288 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package voluminator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import dataTypes.Point;
+import dataTypes.Polygon;
+import dataTypes.Ring;
+import dataTypes.Voxelvolume;
+
+/**
+ * 2D mask of the columns of voxels along the z axis which may be inside of the object (cf. Options.footprintSkipping).
+ * 
+ * The edges of the rings of the footprint polygons are projected onto the x-y plane and every column whose center lies within 
+ * about 3/4 voxel of an edge is marked as outline. All columns which are reachable from the border of the voxel volume without 
+ * crossing the outline are outside of the footprint. The footprint is everything else, i.e. the outline and the regions enclosed by it. 
+ * Therefore only the outline of the footprint has to be rasterized, it does not matter if the interior of the projection is 
+ * covered by a roof, a ground surface or only enclosed by walls.
+ * 
+ * The line along the z axis through a voxel outside of the footprint does not cut any polygon. For objects whose projection 
+ * is enclosed by their outline all rays of such voxels vote outside.
+ * 
+ * If a wall is missing, the projected outline has a gap and the fill leaks into the object, although the rays of the voxels there 
+ * vote inside. This is excluded by requiring that every horizontal cross-section of the polygons is closed: every edge which is 
+ * shared by an odd number of polygons (an edge of a gap) has to be horizontal, such as the edges of a missing roof or ground surface. 
+ * Then every horizontal ray starting outside of the footprint crosses the polygons an even number of times. Otherwise no column 
+ * is skipped (cf. isClosed). Split edges or corners which do not match exactly are taken as open as well, which only costs the skipping.
+ * @author Horst Steuer
+ *
+ */
+public class FootprintMask {
+	
+	private static final byte FREE = 0;
+	private static final byte OUTLINE = 1;
+	private static final byte OUTSIDE = 2;
+	
+	private int sizex, sizey;
+	private byte[] state;
+	private long skippedColumns;
+	private boolean closed;
+	
+	/**
+	 * Computes the footprint of polygons on the columns of vox
+	 * @param vox
+	 * @param polygons
+	 */
+	public FootprintMask(Voxelvolume vox, Vector<Polygon> polygons)
+	{
+		sizex = vox.sizex;
+		sizey = vox.sizey;
+		state = new byte[sizex * sizey];
+		
+		HashMap<String, Integer> edges = new HashMap<String, Integer>();
+		for(Polygon p : polygons)
+		{
+			markRing(vox, p.getExterior(), edges);
+			for(Ring r : p.getInterior())
+				markRing(vox, r, edges);
+		}
+		closed = isClosed(edges);
+		if(closed)
+			fillOutside();
+	}
+	
+	/**
+	 * Returns true if the horizontal cross-sections of the polygons are closed, otherwise no column is skipped
+	 * @return
+	 */
+	public boolean isClosed()
+	{
+		return closed;
+	}
+	
+	/**
+	 * Returns true if the column x,y of the voxel volume may be inside of the object
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public boolean contains(int x, int y)
+	{
+		return state[x * sizey + y] != OUTSIDE;
+	}
+	
+	/**
+	 * Returns the number of columns outside of the footprint
+	 * @return
+	 */
+	public long getSkippedColumns()
+	{
+		return skippedColumns;
+	}
+	
+	/**
+	 * Returns the fraction of the columns (and thus of the voxels) outside of the footprint
+	 * @return
+	 */
+	public double getSkippedFraction()
+	{
+		if(state.length == 0)
+			return 0.0;
+		return (double) skippedColumns / state.length;
+	}
+	
+	/**
+	 * Marks the columns along the projected edges of ring r as outline and counts its edges in edges
+	 * @param vox
+	 * @param r
+	 * @param edges
+	 */
+	private void markRing(Voxelvolume vox, Ring r, HashMap<String, Integer> edges)
+	{
+		int n = r.pos.size();
+		for(int i = 0; i < n; i++)
+		{
+			Point a = r.pos.get(i);
+			Point b = r.pos.get((i + 1) % n);
+			markEdge(vox, a.coords[0], a.coords[1], b.coords[0], b.coords[1]);
+			
+			String ka = getPointKey(vox, a);
+			String kb = getPointKey(vox, b);
+			int order = ka.compareTo(kb);
+			if(order == 0)
+				continue;
+			String key = (order < 0) ? ka + ";" + kb : kb + ";" + ka;
+			Integer count = edges.get(key);
+			edges.put(key, (count == null) ? 1 : count + 1);
+		}
+	}
+	
+	/**
+	 * Tests if every edge which is shared by an odd number of polygons is horizontal
+	 * @param edges
+	 * @return
+	 */
+	private static boolean isClosed(HashMap<String, Integer> edges)
+	{
+		for(Map.Entry<String, Integer> edge : edges.entrySet())
+		{
+			if(edge.getValue() % 2 == 0)
+				continue;
+			String[] corners = edge.getKey().split(";");
+			if(!corners[0].substring(corners[0].lastIndexOf('/')).equals(corners[1].substring(corners[1].lastIndexOf('/'))))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Key of p, snapped to a grid of a thousandth of a voxel
+	 * @param vox
+	 * @param p
+	 * @return
+	 */
+	private static String getPointKey(Voxelvolume vox, Point p)
+	{
+		return Math.round(p.coords[0] / vox.voxsizex * 1000.0) + "/" + Math.round(p.coords[1] / vox.voxsizey * 1000.0) 
+				+ "/" + Math.round(p.coords[2] / vox.voxsizez * 1000.0);
+	}
+	
+	/**
+	 * Marks the columns along the edge x0,y0 - x1,y1 (in the coordinates of the object) as outline. 
+	 * The edge is sampled in steps of at most half a voxel and the 3x3 columns around the nearest column of each sample are marked,
+	 * which covers all columns whose center is within 3/4 voxel of the edge.
+	 * @param vox
+	 * @param x0
+	 * @param y0
+	 * @param x1
+	 * @param y1
+	 */
+	private void markEdge(Voxelvolume vox, double x0, double y0, double x1, double y1)
+	{
+		//coordinates in units of voxels relative to the center of column 0,0 (cf. Voxelvolume.getPointAt)
+		double u0 = (x0 - vox.minPoint.coords[0]) / vox.voxsizex;
+		double v0 = (y0 - vox.minPoint.coords[1]) / vox.voxsizey;
+		double u1 = (x1 - vox.minPoint.coords[0]) / vox.voxsizex;
+		double v1 = (y1 - vox.minPoint.coords[1]) / vox.voxsizey;
+		
+		int steps = (int) Math.ceil(2.0 * Math.max(Math.abs(u1 - u0), Math.abs(v1 - v0)));
+		for(int s = 0; s <= steps; s++)
+		{
+			double f = (steps == 0) ? 0.0 : (double) s / steps;
+			int cx = (int) Math.round(u0 + f * (u1 - u0));
+			int cy = (int) Math.round(v0 + f * (v1 - v0));
+			for(int x = Math.max(0, cx - 1); x <= Math.min(sizex - 1, cx + 1); x++)
+			{
+				for(int y = Math.max(0, cy - 1); y <= Math.min(sizey - 1, cy + 1); y++)
+				{
+					state[x * sizey + y] = OUTLINE;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Marks all free columns which are reachable from the border of the voxel volume (4-neighbourhood) as outside
+	 */
+	private void fillOutside()
+	{
+		int[] stack = new int[Math.max(16, 2 * (sizex + sizey))];
+		int top = 0;
+		for(int x = 0; x < sizex; x++)
+		{
+			for(int y = 0; y < sizey; y++)
+			{
+				if(x != 0 && y != 0 && x != sizex - 1 && y != sizey - 1)
+					continue;
+				int i = x * sizey + y;
+				if(state[i] != FREE)
+					continue;
+				state[i] = OUTSIDE;
+				if(top == stack.length)
+					stack = grow(stack);
+				stack[top++] = i;
+			}
+		}
+		
+		while(top > 0)
+		{
+			int i = stack[--top];
+			skippedColumns++;
+			int x = i / sizey;
+			int y = i % sizey;
+			for(int d = 0; d < 4; d++)
+			{
+				int nx = x + ((d == 0) ? -1 : (d == 1) ? 1 : 0);
+				int ny = y + ((d == 2) ? -1 : (d == 3) ? 1 : 0);
+				if(nx < 0 || ny < 0 || nx >= sizex || ny >= sizey)
+					continue;
+				int j = nx * sizey + ny;
+				if(state[j] != FREE)
+					continue;
+				state[j] = OUTSIDE;
+				if(top == stack.length)
+					stack = grow(stack);
+				stack[top++] = j;
+			}
+		}
+	}
+	
+	/**
+	 * Returns a copy of stack with twice its length
+	 * @param stack
+	 * @return
+	 */
+	private static int[] grow(int[] stack)
+	{
+		int[] grown = new int[2 * stack.length];
+		System.arraycopy(stack, 0, grown, 0, stack.length);
+		return grown;
+	}
+}
@@ -0,0 +1,298 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package voluminator;
+
+import java.util.Random;
+
+import dataTypes.Options;
+import dataTypes.Point;
+import dataTypes.Polygon;
+import dataTypes.VolumeEstimate;
+import helperClasses.SobolSequence;
+
+/**
+ * Estimation of the volume by classifying sample points in the bounding box with the vote of the voxels (cf. Voluminator.classifyPoint).
+ * The volume is the fraction of points inside times the volume of the bounding box. Points are classified in batches until the 
+ * confidence interval is within options.monteCarloRelativeError of the estimate or options.monteCarloMaxSamples is reached, 
+ * so the cost depends on the required accuracy and not on the voxel size.
+ * 
+ * MONTE_CARLO_RANDOM uses pseudo-random points, the interval is the Wilson score interval of the fraction of points inside 
+ * (in the probability version with the variance bounded by mean * (1 - mean)). Unlike the normal approximation it does not
+ * collapse to a single point if all points are on the same side.
+ * MONTE_CARLO_SOBOL uses SOBOL_REPLICATES copies of a Sobol sequence, each with its own random digital shift. The estimates 
+ * of the copies are independent, the interval follows from their spread (Student's t-distribution). If all copies agree, 
+ * the spread says nothing and the Wilson interval of all points is used instead.
+ * The sampling never stops while no point is inside: an estimate of 0 can not reach a relative error.
+ * 
+ * @author Horst Steuer
+ *
+ */
+public class MonteCarloVolume {
+	
+	//number of randomly shifted Sobol sequences
+	private static final int SOBOL_REPLICATES = 16;
+	
+	//number of points classified between two tests of the confidence interval
+	private static final int BATCH_SIZE = 4096;
+	
+	private Options options;
+	
+	/**
+	 * Constructor
+	 * @param options
+	 */
+	public MonteCarloVolume(Options options)
+	{
+		this.options = options;
+	}
+	
+	/**
+	 * Estimates the volume of the object given by polygons within the box from min to max using the vote of v
+	 * @param v
+	 * @param polygons
+	 * @param min
+	 * @param max
+	 * @return
+	 */
+	VolumeEstimate estimate(Voluminator v, Polygon[] polygons, Point min, Point max)
+	{
+		double[] size = new double[3];
+		for(int i = 0; i < 3; i++)
+			size[i] = max.coords[i] - min.coords[i];
+		double boxVolume = size[0] * size[1] * size[2];
+		
+		Random random = new Random(options.monteCarloSeed);
+		double[] interval;
+		if(options.monteCarlo == Options.MONTE_CARLO_SOBOL)
+			interval = estimateSobol(v, polygons, min.coords, size, random);
+		else
+			interval = estimateRandom(v, polygons, min.coords, size, random);
+		
+		return new VolumeEstimate(interval[0] * boxVolume, Math.max(0.0, interval[1]) * boxVolume, Math.min(1.0, interval[2]) * boxVolume, 
+				options.monteCarloConfidence, (long) interval[3]);
+	}
+	
+	/**
+	 * Classifies pseudo-random points. Returns the fraction of the box inside the object, the bounds of its confidence interval
+	 * and the number of points.
+	 * @param v
+	 * @param polygons
+	 * @param min
+	 * @param size
+	 * @param random
+	 * @return
+	 */
+	private double[] estimateRandom(Voluminator v, Polygon[] polygons, double[] min, double[] size, Random random)
+	{
+		double z = normalQuantile(0.5 + options.monteCarloConfidence / 2.0);
+		long n = 0;
+		double sum = 0.0, mean = 0.0;
+		double[] bounds = {0.0, 1.0};
+		while(n < options.monteCarloMaxSamples)
+		{
+			long batch = Math.min(BATCH_SIZE, options.monteCarloMaxSamples - n);
+			for(long i = 0; i < batch; i++)
+			{
+				double y = sample(v, polygons, min[0] + size[0] * random.nextDouble(), min[1] + size[1] * random.nextDouble(), 
+						min[2] + size[2] * random.nextDouble());
+				sum += y;
+			}
+			n += batch;
+			
+			mean = sum / n;
+			bounds = wilsonInterval(mean, n, z);
+			if(isAccurate(mean, bounds))
+				break;
+		}
+		return new double[] {mean, bounds[0], bounds[1], n};
+	}
+	
+	/**
+	 * Classifies the points of randomly shifted Sobol sequences. Returns the fraction of the box inside the object, 
+	 * the bounds of its confidence interval and the number of points.
+	 * @param v
+	 * @param polygons
+	 * @param min
+	 * @param size
+	 * @param random
+	 * @return
+	 */
+	private double[] estimateSobol(Voluminator v, Polygon[] polygons, double[] min, double[] size, Random random)
+	{
+		int[][] shifts = new int[SOBOL_REPLICATES][SobolSequence.DIMENSIONS];
+		for(int r = 0; r < SOBOL_REPLICATES; r++)
+			for(int d = 0; d < SobolSequence.DIMENSIONS; d++)
+				shifts[r][d] = random.nextInt();
+		
+		double t = studentQuantile(0.5 + options.monteCarloConfidence / 2.0, SOBOL_REPLICATES - 1);
+		double z = normalQuantile(0.5 + options.monteCarloConfidence / 2.0);
+		SobolSequence sobol = new SobolSequence();
+		int[] point = new int[SobolSequence.DIMENSIONS];
+		double[] sums = new double[SOBOL_REPLICATES];
+		long points = 0;
+		double mean = 0.0;
+		double[] bounds = {0.0, 1.0};
+		while(points * SOBOL_REPLICATES < options.monteCarloMaxSamples)
+		{
+			long batch = Math.max(1, Math.min(BATCH_SIZE, options.monteCarloMaxSamples - points * SOBOL_REPLICATES) / SOBOL_REPLICATES);
+			for(long i = 0; i < batch; i++)
+			{
+				sobol.next(point);
+				for(int r = 0; r < SOBOL_REPLICATES; r++)
+				{
+					sums[r] += sample(v, polygons, min[0] + size[0] * SobolSequence.toUnit(point[0] ^ shifts[r][0]), 
+							min[1] + size[1] * SobolSequence.toUnit(point[1] ^ shifts[r][1]), 
+							min[2] + size[2] * SobolSequence.toUnit(point[2] ^ shifts[r][2]));
+				}
+			}
+			points += batch;
+			
+			mean = 0.0;
+			for(int r = 0; r < SOBOL_REPLICATES; r++)
+				mean += sums[r] / points;
+			mean /= SOBOL_REPLICATES;
+			double variance = 0.0;
+			for(int r = 0; r < SOBOL_REPLICATES; r++)
+				variance += (sums[r] / points - mean) * (sums[r] / points - mean);
+			variance /= SOBOL_REPLICATES - 1;
+			boolean agree = true;
+			for(int r = 1; r < SOBOL_REPLICATES; r++)
+				agree &= sums[r] == sums[0];
+			if(!agree)
+			{
+				double halfWidth = t * Math.sqrt(variance / SOBOL_REPLICATES);
+				bounds = new double[] {mean - halfWidth, mean + halfWidth};
+			}
+			else
+				bounds = wilsonInterval(mean, points * SOBOL_REPLICATES, z);
+			if(isAccurate(mean, bounds))
+				break;
+		}
+		return new double[] {mean, bounds[0], bounds[1], points * SOBOL_REPLICATES};
+	}
+	
+	/**
+	 * Wilson score interval of a fraction mean of n points for the normal quantile z. Returns the lower and the upper bound.
+	 * @param mean
+	 * @param n
+	 * @param z
+	 * @return
+	 */
+	static double[] wilsonInterval(double mean, long n, double z)
+	{
+		double z2n = z * z / n;
+		double center = (mean + z2n / 2.0) / (1.0 + z2n);
+		double halfWidth = z / (1.0 + z2n) * Math.sqrt(mean * (1.0 - mean) / n + z2n / (4.0 * n));
+		//the bounds at 0 and 1 are exact, not subject to rounding
+		return new double[] {(mean == 0.0) ? 0.0 : center - halfWidth, (mean == 1.0) ? 1.0 : center + halfWidth};
+	}
+	
+	/**
+	 * Tests if the interval from bounds[0] to bounds[1] is within options.monteCarloRelativeError of a positive fraction mean
+	 * @param mean
+	 * @param bounds
+	 * @return
+	 */
+	private boolean isAccurate(double mean, double[] bounds)
+	{
+		if(mean <= 0.0)
+			return false;
+		double limit = options.monteCarloRelativeError * mean;
+		return mean - bounds[0] <= limit && bounds[1] - mean <= limit;
+	}
+	
+	/**
+	 * Classifies the point px,py,pz: 1 if it is inside by vote, 0 otherwise. In the probability version the fraction of inside votes.
+	 * @param v
+	 * @param polygons
+	 * @param px
+	 * @param py
+	 * @param pz
+	 * @return
+	 */
+	private double sample(Voluminator v, Polygon[] polygons, double px, double py, double pz)
+	{
+		int vote = v.classifyPoint(px, py, pz, polygons, options.probabilityversion);
+		if(options.probabilityversion)
+			return (double) vote / options.maxdirections;
+		return vote;
+	}
+	
+	/**
+	 * Quantile of the standard normal distribution (rational approximation of P. J. Acklam, relative error below 1.2e-9)
+	 * @param p
+	 * @return
+	 */
+	static double normalQuantile(double p)
+	{
+		final double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02, 1.383577518672690e+02, 
+				-3.066479806614716e+01, 2.506628277459239e+00};
+		final double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02, 6.680131188771972e+01, 
+				-1.328068155288572e+01};
+		final double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00, -2.549732539343734e+00, 
+				4.374664141464968e+00, 2.938163982698783e+00};
+		final double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00, 3.754408661907416e+00};
+		
+		if(p < 0.02425)
+		{
+			double q = Math.sqrt(-2.0 * Math.log(p));
+			return (((((c[0]*q + c[1])*q + c[2])*q + c[3])*q + c[4])*q + c[5]) / ((((d[0]*q + d[1])*q + d[2])*q + d[3])*q + 1.0);
+		}
+		if(p > 1.0 - 0.02425)
+			return -normalQuantile(1.0 - p);
+		
+		double q = p - 0.5;
+		double r = q * q;
+		return (((((a[0]*r + a[1])*r + a[2])*r + a[3])*r + a[4])*r + a[5]) * q / (((((b[0]*r + b[1])*r + b[2])*r + b[3])*r + b[4])*r + 1.0);
+	}
+	
+	/**
+	 * Quantile of Student's t-distribution with df degrees of freedom (Cornish-Fisher expansion around the normal quantile)
+	 * @param p
+	 * @param df
+	 * @return
+	 */
+	static double studentQuantile(double p, int df)
+	{
+		double z = normalQuantile(p);
+		double z2 = z * z;
+		double n = df;
+		return z + z * (z2 + 1) / (4 * n) 
+				+ z * ((5 * z2 + 16) * z2 + 3) / (96 * n * n)
+				+ z * (((3 * z2 + 19) * z2 + 17) * z2 - 15) / (384 * n * n * n)
+				+ z * ((((79 * z2 + 776) * z2 + 1482) * z2 - 1920) * z2 - 945) / (92160 * n * n * n * n);
+	}
+}
@@ -36,8 +36,9 @@
 package voluminator;
 
 
+import dataTypes.JobConfiguration;
 import dataTypes.Options;
-import voluminator.Voluminator;
+import dataTypes.VolumeResult;
 import helperClasses.OBJReader;
 
 import java.io.FileNotFoundException;
@@ -55,6 +56,9 @@ public class ObjVoluminatorThread extends Thread {
 	public String result;
 	boolean probabilityVersion;
 	
+	//the engine is reentrant, so one instance serves all threads
+	private static final VolumeEngine ENGINE = new VolumeEngine();
+	
 	/**
 	 * Constructor
 	 * @param filename
@@ -87,21 +91,46 @@ public class ObjVoluminatorThread extends Thread {
 			zstVorher = System.currentTimeMillis();
 			
 			
-			Voluminator v = new Voluminator(options);
-			options.OBJfileInner = fname + "_" + options.voxelsize + "inner.obj";
-			options.OBJfileOuter = fname + "_" + options.voxelsize + "outer.obj";
-			double volume = 0.0;
-			if( probabilityVersion)
+			//the options are shared by all threads, so the computation gets its own configuration
+			Options o = options.copy();
+			o.probabilityversion = probabilityVersion;
+			JobConfiguration job = new JobConfiguration(o, fname + "_" + o.voxelsize + "inner.obj", fname + "_" + o.voxelsize + "outer.obj");
+			VolumeResult r = ENGINE.compute(bsp, job);
+			double volume = r.getVolume();
+			String additionalInformation = "";
+			if( o.multiResolutionVoxelsizes != null)
+			{
+				for(double d : r.getVolumes())
+				{
+					additionalInformation += "     " + d;
+				}
+			}
+			else if( o.autoResolution != Options.AUTO_RESOLUTION_OFF)
+			{
+				additionalInformation = "     " + r.getUsedVoxelsize();
+			}
+			else if( r.getEstimate() != null)
+			{
+				additionalInformation = "     " + r.getEstimate().getLower() + "     " + r.getEstimate().getUpper() 
+						+ "     " + r.getEstimate().getSamples();
+			}
+	
+			if( o.exactVolumeForClosedSurfaces)
+			{
+				additionalInformation += "     " + (r.isExactVolumeUsed() ? "exact" : "voxel");
+			}
+			if( o.footprintSkipping != Options.FOOTPRINT_OFF)
 			{
-				volume = v.computeVolumeProbabilityVersion(bsp, options);
+				additionalInformation += "     " + r.getSkippedFraction();
 			}
-			else
+			if( o.earlyExitVoting)
 			{
-				volume = v.computeVolume(bsp, options);
+				for(int depth = 0; depth < 4; depth++)
+					additionalInformation += "     " + r.getVoteDepth(depth);
 			}
 	
 			zstNachher = System.currentTimeMillis();
-			result = fname + "  " + volume 	+ "     " + (zstNachher - zstVorher);
+			result = fname + "  " + volume 	+ "     " + (zstNachher - zstVorher) + additionalInformation;
 	
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
@@ -0,0 +1,378 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package voluminator;
+
+import helperClasses.CityGMLSplitter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dataTypes.Options;
+
+/**
+ * Coordinator of the sharded computation with several worker processes on the same machine (cf. Options.numberOfProcesses).
+ * 
+ * The buildings of a CityGML file (cf. helperClasses.CityGMLSplitter) or the files of an OBJ directory are split into shards 
+ * in a temporary directory. options.numberOfProcesses worker JVMs (cf. ShardWorker) are started and get one shard after another 
+ * over their standard input. Each worker writes the results of a shard incrementally into a result file. 
+ * If a worker dies, its shard is queued again and continued by a new worker, at most options.maxShardAttempts times. 
+ * At the end the results of all shards are appended to the log file options.logBasename + options.voxelsize + ".log".
+ * 
+ * @author Horst Steuer
+ *
+ */
+public class ShardCoordinator {
+	
+	private Options options;
+	private String type;
+	private File optionsFile;
+	private BlockingQueue<Shard> queue = new LinkedBlockingQueue<Shard>();
+	private AtomicInteger remaining = new AtomicInteger();
+	private List<Shard> failed = Collections.synchronizedList(new ArrayList<Shard>());
+	
+	/**
+	 * A shard with its result file and the number of attempts to compute it
+	 */
+	private static class Shard {
+		File file;
+		File results;
+		int attempts = 0;
+	}
+	
+	/**
+	 * Computes the buildings of the CityGML file options.inputfile with options.numberOfProcesses worker processes
+	 * @param options
+	 * @throws Exception
+	 */
+	public static void computeCityGML(Options options) throws Exception
+	{
+		ShardCoordinator coordinator = new ShardCoordinator(options, ShardWorker.TYPE_CITYGML);
+		File directory = coordinator.createDirectory();
+		coordinator.compute(CityGMLSplitter.split(options.inputfile, options.numberOfProcesses * options.shardsPerProcess, directory), directory);
+	}
+	
+	/**
+	 * Computes the OBJ-files in the directory options.inputfile with options.numberOfProcesses worker processes
+	 * @param options
+	 * @throws Exception
+	 */
+	public static void computeObj(Options options) throws Exception
+	{
+		ShardCoordinator coordinator = new ShardCoordinator(options, ShardWorker.TYPE_OBJ);
+		File directory = coordinator.createDirectory();
+		coordinator.compute(splitObjDirectory(options.inputfile, options.numberOfProcesses * options.shardsPerProcess, directory), directory);
+	}
+	
+	/**
+	 * Constructor
+	 * @param options
+	 * @param type
+	 */
+	private ShardCoordinator(Options options, String type)
+	{
+		this.options = options;
+		this.type = type;
+	}
+	
+	/**
+	 * Creates the temporary directory for the shards and writes the options of the workers into it
+	 * @return
+	 * @throws IOException
+	 */
+	private File createDirectory() throws IOException
+	{
+		File directory = Files.createTempDirectory("voluminator").toFile();
+		
+		//workers compute their shards in a single process
+		Options workerOptions = Options.fromProperties(options.toProperties());
+		workerOptions.numberOfProcesses = 0;
+		optionsFile = new File(directory, "options.properties");
+		try(OutputStream out = new FileOutputStream(optionsFile)) {
+			workerOptions.toProperties().store(out, "Voluminator worker options");
+		}
+		return directory;
+	}
+	
+	/**
+	 * Splits the OBJ-files of inputDirectory into at most numberOfShards lists of files with about the same total file size
+	 * @param inputDirectory
+	 * @param numberOfShards
+	 * @param directory
+	 * @return
+	 * @throws IOException
+	 */
+	private static List<File> splitObjDirectory(String inputDirectory, int numberOfShards, File directory) throws IOException
+	{
+		List<File> files = new ArrayList<File>();
+		File[] list = new File(inputDirectory).listFiles();
+		if(list != null)
+		{
+			for(File f : list)
+			{
+				if(!f.isDirectory())
+					files.add(f);
+			}
+		}
+		//largest files first, each into the smallest shard
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(b.length(), a.length());
+			}
+		});
+		
+		List<List<File>> shards = new ArrayList<List<File>>();
+		long[] sizes = new long[numberOfShards];
+		for(int i = 0; i < numberOfShards; i++)
+			shards.add(new ArrayList<File>());
+		for(File f : files)
+		{
+			int shard = 0;
+			for(int i = 1; i < numberOfShards; i++)
+			{
+				if(sizes[i] < sizes[shard])
+					shard = i;
+			}
+			shards.get(shard).add(f);
+			sizes[shard] += f.length();
+		}
+		
+		List<File> result = new ArrayList<File>();
+		for(int i = 0; i < numberOfShards; i++)
+		{
+			if(shards.get(i).isEmpty())
+				continue;
+			File shardfile = new File(directory, "shard" + i + ".txt");
+			try(PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(shardfile)))) {
+				for(File f : shards.get(i))
+					out.println(f.getAbsolutePath());
+			}
+			result.add(shardfile);
+		}
+		return result;
+	}
+	
+	/**
+	 * Computes the shards with the worker processes and merges their results into the log file
+	 * @param shardfiles
+	 * @param directory
+	 * @throws Exception
+	 */
+	private void compute(List<File> shardfiles, File directory) throws Exception
+	{
+		long start = System.currentTimeMillis();
+		
+		List<Shard> shards = new ArrayList<Shard>();
+		for(File f : shardfiles)
+		{
+			Shard s = new Shard();
+			s.file = f;
+			s.results = new File(directory, f.getName() + ".results");
+			shards.add(s);
+		}
+		queue.addAll(shards);
+		remaining.set(shards.size());
+		
+		List<Thread> workers = new ArrayList<Thread>();
+		for(int i = 0; i < Math.min(options.numberOfProcesses, shards.size()); i++)
+		{
+			Thread t = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					runWorker();
+				}
+			});
+			t.start();
+			workers.add(t);
+		}
+		for(Thread t : workers)
+			t.join();
+		
+		merge(shards);
+		for(Shard s : failed)
+			System.out.println("Shard " + s.file + " could not be completed after " + s.attempts + " attempts");
+		
+		//the shards are kept for inspection if some of them failed
+		if(failed.isEmpty())
+		{
+			for(File f : directory.listFiles())
+				f.delete();
+			directory.delete();
+		}
+		System.out.println("calculation time: " + (System.currentTimeMillis() - start));
+	}
+	
+	/**
+	 * Runs one worker process after another, as long as there are shards: each shard is sent to the current worker process. 
+	 * If the process dies, the shard is queued again and a new process is started for the next shard.
+	 */
+	private void runWorker()
+	{
+		Process process = null;
+		PrintWriter toWorker = null;
+		BufferedReader fromWorker = null;
+		try {
+			while(remaining.get() > 0)
+			{
+				Shard shard = queue.poll(100, TimeUnit.MILLISECONDS);
+				if(shard == null)
+					continue;
+				
+				boolean done = false;
+				try {
+					if(process == null)
+					{
+						process = startProcess();
+						toWorker = new PrintWriter(new OutputStreamWriter(process.getOutputStream()));
+						fromWorker = new BufferedReader(new InputStreamReader(process.getInputStream()));
+					}
+					toWorker.println(shard.file.getAbsolutePath() + "\t" + shard.results.getAbsolutePath());
+					toWorker.flush();
+					
+					String line;
+					while((line = fromWorker.readLine()) != null)
+					{
+						if(line.startsWith(ShardWorker.DONE))
+						{
+							done = true;
+							break;
+						}
+						System.out.println(line);
+					}
+				} catch (IOException e) {
+					System.out.println("Worker failed: " + e.getMessage());
+				}
+				
+				if(done)
+				{
+					remaining.decrementAndGet();
+					continue;
+				}
+				
+				//worker died: start a new one and try again
+				if(process != null)
+					process.destroy();
+				process = null;
+				shard.attempts++;
+				if(shard.attempts < options.maxShardAttempts)
+				{
+					queue.add(shard);
+				}
+				else
+				{
+					failed.add(shard);
+					remaining.decrementAndGet();
+				}
+			}
+			
+			if(process != null)
+			{
+				toWorker.close();
+				process.waitFor();
+			}
+		} catch (InterruptedException e) {
+			if(process != null)
+				process.destroy();
+		}
+	}
+	
+	/**
+	 * Starts a worker JVM with the class path of this JVM
+	 * @return
+	 * @throws IOException
+	 */
+	private Process startProcess() throws IOException
+	{
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		if(!options.workerJvmArguments.trim().isEmpty())
+			command.addAll(Arrays.asList(options.workerJvmArguments.trim().split("\\s+")));
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ShardWorker.class.getName());
+		command.add(optionsFile.getAbsolutePath());
+		command.add(type);
+		
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		return builder.start();
+	}
+	
+	/**
+	 * Appends the results of all shards to the log file
+	 * @param shards
+	 * @throws IOException
+	 */
+	private void merge(List<Shard> shards) throws IOException
+	{
+		String resultFileName = options.logBasename + options.voxelsize + ".log";
+		try(PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(resultFileName, true)))) {
+			for(Shard s : shards)
+			{
+				if(!s.results.exists())
+					continue;
+				try(BufferedReader in = new BufferedReader(new FileReader(s.results))) {
+					String line;
+					while((line = in.readLine()) != null)
+					{
+						String[] parts = line.split("\t", 3);
+						if(parts[0].equals("R") && parts.length == 3)
+							out.println(parts[2]);
+					}
+				}
+			}
+		}
+	}
+}
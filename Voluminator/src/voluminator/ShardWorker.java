@@ -0,0 +1,331 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package voluminator;
+
+import helperClasses.BuildingReader;
+import helperClasses.MemoryBudget;
+import helperClasses.MemoryEstimator;
+import helperClasses.OBJReader;
+import helperClasses.PolygonConstructor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import dataTypes.BoundingBox;
+import dataTypes.BuildingCallable;
+import dataTypes.Options;
+
+/**
+ * Worker process of the sharded computation (cf. ShardCoordinator). 
+ * 
+ * Arguments: options file (cf. Options.toProperties) and type of the shards ("citygml" or "obj").
+ * The worker reads lines "shard file TAB result file" from standard input, computes the buildings of the shard with 
+ * options.numberOfThreads threads and answers with DONE followed by the shard file on standard output. 
+ * CityGML shards are CityGML files, OBJ shards are lists of OBJ files, one per line. If options.memoryBudget is set, a building 
+ * is only started if its estimated peak memory fits into the budget together with the running buildings (cf. helperClasses.MemoryBudget).
+ * 
+ * The result file is written incrementally: "S TAB id" when a building is started, "I TAB id" when it is started alone and 
+ * "R TAB id TAB line of the log file" when it is finished. If a result file exists already, because an earlier worker died, 
+ * finished buildings are skipped. Buildings which were running when the worker died are not blamed at once, since any of them 
+ * may have killed it: they are computed again one at a time before the other buildings. Only a building which killed the worker 
+ * while running alone options.maxShardAttempts - 2 times (at least once) is logged as failed instead of computed again, so that 
+ * with the attempts of the coordinator a single faulty building is blamed and the rest of the shard is still computed.
+ * 
+ * @author Horst Steuer
+ *
+ */
+public class ShardWorker {
+	
+	public static final String DONE = "#shard-done ";
+	public static final String TYPE_CITYGML = "citygml";
+	public static final String TYPE_OBJ = "obj";
+	
+	private Options options;
+	private PrintWriter results;
+	
+	//state of the result file of the current shard
+	private Map<String, Integer> started = new HashMap<String, Integer>();
+	private Map<String, Integer> startedAlone = new HashMap<String, Integer>();
+	private Set<String> finished = new HashSet<String>();
+	
+	public static void main(String[] args) throws Exception {
+		
+		Properties properties = new Properties();
+		try(InputStream in = new FileInputStream(args[0])) {
+			properties.load(in);
+		}
+		ShardWorker worker = new ShardWorker(Options.fromProperties(properties));
+		boolean citygml = TYPE_CITYGML.equals(args[1]);
+		
+		BufferedReader commands = new BufferedReader(new InputStreamReader(System.in));
+		String line;
+		while((line = commands.readLine()) != null)
+		{
+			String[] parts = line.split("\t");
+			if(citygml)
+				worker.computeCityGMLShard(parts[0], parts[1]);
+			else
+				worker.computeObjShard(parts[0], parts[1]);
+			System.out.println(DONE + parts[0]);
+			System.out.flush();
+		}
+	}
+	
+	/**
+	 * Constructor
+	 * @param options
+	 */
+	public ShardWorker(Options options)
+	{
+		this.options = options;
+	}
+	
+	/**
+	 * Computes all buildings of a CityGML shard which are not yet in the result file
+	 * @param shardfile
+	 * @param resultfile
+	 * @throws Exception
+	 */
+	public void computeCityGMLShard(String shardfile, String resultfile) throws Exception
+	{
+		readResults(resultfile);
+		
+		Map<String, Callable<String>> tasks = new LinkedHashMap<String, Callable<String>>();
+		Map<String, Long> estimates = new HashMap<String, Long>();
+		PolygonConstructor constructor = new PolygonConstructor();
+		results = new PrintWriter(new BufferedWriter(new FileWriter(resultfile, true)));
+		try {
+			for(final BuildingCallable b : new BuildingReader().readCityGMLFile(shardfile, options))
+			{
+				String id = b.getBuildingId();
+				if(finished.contains(id))
+					continue;
+				if(isFailed(id))
+				{
+					writeResult(id, id + ", failed");
+					continue;
+				}
+				if(options.memoryBudget > 0)
+					estimates.put(id, MemoryEstimator.estimatePeakMemory(constructor.computeBoundingBox(b.getBsp()), 
+							constructor.countPolygons(b.getBsp()), options));
+				tasks.put(id, new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						return ThreadedVolumeCalculationCityGML.getResultLine(b.call(), options.probabilityversion);
+					}
+				});
+			}
+			run(tasks, estimates);
+		} finally {
+			results.close();
+		}
+	}
+	
+	/**
+	 * Computes all OBJ-files of an OBJ shard which are not yet in the result file
+	 * @param shardfile
+	 * @param resultfile
+	 * @throws Exception
+	 */
+	public void computeObjShard(String shardfile, String resultfile) throws Exception
+	{
+		readResults(resultfile);
+		
+		Map<String, Callable<String>> tasks = new LinkedHashMap<String, Callable<String>>();
+		Map<String, Long> estimates = new HashMap<String, Long>();
+		results = new PrintWriter(new BufferedWriter(new FileWriter(resultfile, true)));
+		try(BufferedReader in = new BufferedReader(new FileReader(shardfile))) {
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				final String fname = line.trim();
+				if(fname.isEmpty() || finished.contains(fname))
+					continue;
+				if(isFailed(fname))
+				{
+					writeResult(fname, fname + "  failed");
+					continue;
+				}
+				if(options.memoryBudget > 0)
+				{
+					OBJReader reader = new OBJReader();
+					BoundingBox bb = reader.readBoundingBox(fname);
+					estimates.put(fname, MemoryEstimator.estimatePeakMemory(bb, reader.getNumberOfFaces(), options));
+				}
+				tasks.put(fname, new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						ObjVoluminatorThread thread = new ObjVoluminatorThread(fname, options, options.probabilityversion);
+						thread.run();
+						return thread.result;
+					}
+				});
+			}
+			run(tasks, estimates);
+		} finally {
+			results.close();
+		}
+	}
+	
+	/**
+	 * Returns true if the building killed the worker while running alone options.maxShardAttempts - 2 times (at least once)
+	 * @param id
+	 * @return
+	 */
+	private boolean isFailed(String id)
+	{
+		int crashes = startedAlone.containsKey(id) ? startedAlone.get(id) : 0;
+		return crashes >= Math.max(1, options.maxShardAttempts - 2);
+	}
+	
+	/**
+	 * Computes the buildings and writes their results. The buildings which were running when an earlier worker died are computed 
+	 * first, one at a time. The other buildings are computed with options.numberOfThreads threads within options.memoryBudget.
+	 * @param tasks computation of the result line per building
+	 * @param estimates estimated peak memory per building, empty if options.memoryBudget is not set
+	 * @throws Exception
+	 */
+	private void run(Map<String, Callable<String>> tasks, Map<String, Long> estimates) throws Exception
+	{
+		List<Callable<String>> parallel = new ArrayList<Callable<String>>();
+		final MemoryBudget budget = new MemoryBudget(options.memoryBudget > 0 ? options.memoryBudget : Long.MAX_VALUE);
+		for(Map.Entry<String, Callable<String>> task : tasks.entrySet())
+		{
+			final String id = task.getKey();
+			final Callable<String> computation = task.getValue();
+			if(started.containsKey(id))
+			{
+				writeStart(id, true);
+				writeResult(id, computation.call());
+				continue;
+			}
+			
+			final long estimate = estimates.containsKey(id) ? estimates.get(id) : 0;
+			parallel.add(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					budget.acquire(estimate);
+					try {
+						writeStart(id, false);
+						writeResult(id, computation.call());
+					} finally {
+						budget.release(estimate);
+					}
+					return id;
+				}
+			});
+		}
+		
+		ExecutorService executerService = Executors.newFixedThreadPool(Math.max(1, options.numberOfThreads));
+		try {
+			CompletionService<String> completionService = new ExecutorCompletionService<String>(executerService);
+			for(Callable<String> task : parallel)
+				completionService.submit(task);
+			for(int i = 0; i < parallel.size(); i++)
+				completionService.take().get();
+		} finally {
+			executerService.shutdown();
+		}
+	}
+	
+	/**
+	 * Reads the result file of a shard, if it exists: how often each building has been started, how often alone 
+	 * and which buildings are finished
+	 * @param resultfile
+	 * @throws IOException
+	 */
+	private void readResults(String resultfile) throws IOException
+	{
+		started.clear();
+		startedAlone.clear();
+		finished.clear();
+		if(!new File(resultfile).exists())
+			return;
+		try(BufferedReader in = new BufferedReader(new FileReader(resultfile))) {
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				String[] parts = line.split("\t", 3);
+				if(parts.length < 2)
+					continue;
+				if(parts[0].equals("S") || parts[0].equals("I"))
+					increment(started, parts[1]);
+				if(parts[0].equals("I"))
+					increment(startedAlone, parts[1]);
+				else if(parts[0].equals("R") && parts.length == 3)
+					finished.add(parts[1]);
+			}
+		}
+	}
+	
+	private static void increment(Map<String, Integer> counts, String id)
+	{
+		counts.put(id, counts.containsKey(id) ? counts.get(id) + 1 : 1);
+	}
+	
+	private synchronized void writeStart(String id, boolean alone)
+	{
+		results.println((alone ? "I\t" : "S\t") + id);
+		results.flush();
+	}
+	
+	private synchronized void writeResult(String id, String line)
+	{
+		results.println("R\t" + id + "\t" + line);
+		results.flush();
+	}
+}
@@ -0,0 +1,396 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package voluminator;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+
+import dataTypes.Point;
+import dataTypes.Polygon;
+import dataTypes.Ring;
+import helperClasses.PolygonTriangulator;
+
+/**
+ * Exact volume of buildings whose polygons form a closed and consistently oriented surface.
+ *
+ * The surface is closed and consistently oriented if every edge of every ring is used exactly once in the opposite direction
+ * by another ring (or another edge of the same ring). For such a surface the volume follows from the divergence theorem as the
+ * sum of the signed volumes of the tetrahedra formed by a reference point and a triangle fan of each ring, which takes O(polygons).
+ * Interior rings are oriented opposite to their exterior ring and are therefore subtracted automatically.
+ * If all polygons are oriented inwards the signed volume is negative, its absolute value is still the volume of the solid.
+ * 
+ * The pairing of the edges does not detect several shells (e.g. two overlapping boxes, whose signed volumes would be added up) 
+ * or shells passing through themselves. isSolid() therefore additionally requires a single connected shell whose triangles 
+ * do not intersect each other (triangles sharing a corner are not tested against each other).
+ *
+ * @author Horst Steuer
+ *
+ */
+public class SurfaceIntegralVolume {
+
+	//distance under which two points are considered equal
+	private double tolerance;
+
+	/**
+	 * Constructor
+	 * @param tolerance distance under which two points are considered equal
+	 */
+	public SurfaceIntegralVolume(double tolerance)
+	{
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Tests if the polygons are the surface of a single solid: closed and consistently oriented (cf. isClosedAndOriented), 
+	 * connected by their edges and without intersections
+	 * @param polygons
+	 * @return
+	 */
+	public boolean isSolid(Vector<Polygon> polygons)
+	{
+		return isClosedAndOriented(polygons) && isConnected(polygons) && !isSelfIntersecting(polygons);
+	}
+
+	/**
+	 * Tests if the polygons form a closed surface in which all polygons are oriented consistently:
+	 * each directed edge occurs exactly once and its reverse occurs exactly once as well.
+	 * @param polygons
+	 * @return
+	 */
+	public boolean isClosedAndOriented(Vector<Polygon> polygons)
+	{
+		if(polygons.size() < 4)
+			return false;
+
+		HashMap<String, Integer> edges = new HashMap<String, Integer>();
+		for(Polygon p : polygons)
+		{
+			if(!addEdges(p.getExterior(), edges))
+				return false;
+			for(Ring r : p.getInterior())
+			{
+				if(!addEdges(r, edges))
+					return false;
+			}
+		}
+
+		for(String edge : edges.keySet())
+		{
+			String[] points = edge.split(";");
+			if(!edges.containsKey(points[1] + ";" + points[0]))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the directed edges of ring r to edges. Returns false if an edge is already contained,
+	 * i.e. if two polygons are not consistently oriented or more than two polygons share an edge.
+	 * @param r
+	 * @param edges
+	 * @return
+	 */
+	private boolean addEdges(Ring r, HashMap<String, Integer> edges)
+	{
+		int n = r.pos.size();
+		for(int i = 0; i < n; i++)
+		{
+			String a = getPointKey(r.pos.get(i));
+			String b = getPointKey(r.pos.get((i+1)%n));
+			if(a.equals(b))
+				continue;
+			if(edges.put(a + ";" + b, 1) != null)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Tests if all polygons are connected by shared edges (union-find over the polygons)
+	 * @param polygons
+	 * @return
+	 */
+	private boolean isConnected(Vector<Polygon> polygons)
+	{
+		int[] parent = new int[polygons.size()];
+		for(int i = 0; i < parent.length; i++)
+			parent[i] = i;
+		
+		HashMap<String, Integer> edges = new HashMap<String, Integer>();
+		for(int i = 0; i < polygons.size(); i++)
+		{
+			Polygon p = polygons.get(i);
+			addUndirectedEdges(p.getExterior(), i, edges, parent);
+			for(Ring r : p.getInterior())
+				addUndirectedEdges(r, i, edges, parent);
+		}
+		
+		for(int i = 0; i < parent.length; i++)
+		{
+			if(find(parent, i) != find(parent, 0))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Joins polygon index with the polygons which share an edge of ring r (cf. isConnected)
+	 * @param r
+	 * @param index
+	 * @param edges
+	 * @param parent
+	 */
+	private void addUndirectedEdges(Ring r, int index, HashMap<String, Integer> edges, int[] parent)
+	{
+		int n = r.pos.size();
+		for(int i = 0; i < n; i++)
+		{
+			String a = getPointKey(r.pos.get(i));
+			String b = getPointKey(r.pos.get((i+1)%n));
+			if(a.equals(b))
+				continue;
+			String key = a.compareTo(b) < 0 ? a + ";" + b : b + ";" + a;
+			Integer other = edges.put(key, index);
+			if(other != null)
+				parent[find(parent, other)] = find(parent, index);
+		}
+	}
+	
+	/**
+	 * Returns the representative of i (with path halving)
+	 * @param parent
+	 * @param i
+	 * @return
+	 */
+	private static int find(int[] parent, int i)
+	{
+		while(parent[i] != i)
+		{
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+	
+	/**
+	 * Tests if two triangles of the triangulated polygons intersect, i.e. an edge of one passes through the interior of the other.
+	 * Triangles sharing a corner are not tested. The triangles are swept along x, so only triangles with overlapping x ranges are compared.
+	 * Polygons which can not be triangulated are taken as self-intersecting.
+	 * @param polygons
+	 * @return
+	 */
+	private boolean isSelfIntersecting(Vector<Polygon> polygons)
+	{
+		PolygonTriangulator triangulator = new PolygonTriangulator();
+		final List<Point[]> triangles = triangulator.triangulate(polygons);
+		if(!triangulator.getUntriangulatedPolygons().isEmpty())
+			return true;
+		int n = triangles.size();
+		final double[] min = new double[3 * n];
+		final double[] max = new double[3 * n];
+		Integer[] order = new Integer[n];
+		for(int t = 0; t < n; t++)
+		{
+			order[t] = t;
+			for(int axis = 0; axis < 3; axis++)
+			{
+				min[3*t + axis] = Double.POSITIVE_INFINITY;
+				max[3*t + axis] = Double.NEGATIVE_INFINITY;
+				for(Point p : triangles.get(t))
+				{
+					min[3*t + axis] = Math.min(min[3*t + axis], p.coords[axis]);
+					max[3*t + axis] = Math.max(max[3*t + axis], p.coords[axis]);
+				}
+			}
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(min[3*a], min[3*b]);
+			}
+		});
+		
+		for(int i = 0; i < n; i++)
+		{
+			int a = order[i];
+			for(int j = i + 1; j < n && min[3*order[j]] <= max[3*a]; j++)
+			{
+				int b = order[j];
+				if(min[3*b + 1] > max[3*a + 1] || max[3*b + 1] < min[3*a + 1] || min[3*b + 2] > max[3*a + 2] || max[3*b + 2] < min[3*a + 2])
+					continue;
+				Point[] ta = triangles.get(a);
+				Point[] tb = triangles.get(b);
+				if(shareCorner(ta, tb))
+					continue;
+				for(int k = 0; k < 3; k++)
+				{
+					if(cutsTriangle(ta[k], ta[(k+1)%3], tb) || cutsTriangle(tb[k], tb[(k+1)%3], ta))
+						return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns true if the triangles have a corner in common (up to the tolerance)
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private boolean shareCorner(Point[] a, Point[] b)
+	{
+		for(Point p : a)
+		{
+			for(Point q : b)
+			{
+				if(Math.abs(p.coords[0] - q.coords[0]) <= tolerance && Math.abs(p.coords[1] - q.coords[1]) <= tolerance 
+						&& Math.abs(p.coords[2] - q.coords[2]) <= tolerance)
+					return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns true if the segment p-q passes through the interior of triangle t: p and q are on different sides of its plane 
+	 * (by more than the tolerance) and the intersection point lies inside t (by more than the tolerance from its edges)
+	 * @param p
+	 * @param q
+	 * @param t
+	 * @return
+	 */
+	private boolean cutsTriangle(Point p, Point q, Point[] t)
+	{
+		double[] a = t[0].coords, b = t[1].coords, c = t[2].coords;
+		double[] e1 = {b[0] - a[0], b[1] - a[1], b[2] - a[2]};
+		double[] e2 = {c[0] - a[0], c[1] - a[1], c[2] - a[2]};
+		double[] n = {e1[1]*e2[2] - e1[2]*e2[1], e1[2]*e2[0] - e1[0]*e2[2], e1[0]*e2[1] - e1[1]*e2[0]};
+		double length = Math.sqrt(n[0]*n[0] + n[1]*n[1] + n[2]*n[2]);
+		if(length == 0)
+			return false;
+		
+		double dp = ((p.coords[0] - a[0]) * n[0] + (p.coords[1] - a[1]) * n[1] + (p.coords[2] - a[2]) * n[2]) / length;
+		double dq = ((q.coords[0] - a[0]) * n[0] + (q.coords[1] - a[1]) * n[1] + (q.coords[2] - a[2]) * n[2]) / length;
+		if(!((dp > tolerance && dq < -tolerance) || (dp < -tolerance && dq > tolerance)))
+			return false;
+		
+		//intersection point and its distances to the edges of t (within the plane)
+		double f = dp / (dp - dq);
+		double[] x = new double[3];
+		for(int k = 0; k < 3; k++)
+			x[k] = p.coords[k] + f * (q.coords[k] - p.coords[k]);
+		return distanceToEdge(a, b, x, n, length) > tolerance && distanceToEdge(b, c, x, n, length) > tolerance 
+				&& distanceToEdge(c, a, x, n, length) > tolerance;
+	}
+	
+	/**
+	 * Signed distance of x from the edge u-v within the plane with normal n (of length length), positive on the inner side 
+	 * of a triangle oriented counterclockwise around n
+	 * @param u
+	 * @param v
+	 * @param x
+	 * @param n
+	 * @param length
+	 * @return
+	 */
+	private static double distanceToEdge(double[] u, double[] v, double[] x, double[] n, double length)
+	{
+		double[] e = {v[0] - u[0], v[1] - u[1], v[2] - u[2]};
+		double[] d = {x[0] - u[0], x[1] - u[1], x[2] - u[2]};
+		double[] c = {e[1]*d[2] - e[2]*d[1], e[2]*d[0] - e[0]*d[2], e[0]*d[1] - e[1]*d[0]};
+		double edgeLength = Math.sqrt(e[0]*e[0] + e[1]*e[1] + e[2]*e[2]);
+		return (c[0]*n[0] + c[1]*n[1] + c[2]*n[2]) / (length * edgeLength);
+	}
+	
+	/**
+	 * Computes the signed volume enclosed by the polygons. Positive if the polygons are oriented outwards (counterclockwise
+	 * seen from outside). The result is only meaningful if isClosedAndOriented(polygons) is true.
+	 * @param polygons
+	 * @return
+	 */
+	public double computeSignedVolume(Vector<Polygon> polygons)
+	{
+		//reference point close to the object to reduce numerical cancellation
+		double[] ref = polygons.get(0).getExterior().pos.get(0).coords;
+
+		double result = 0.0;
+		for(Polygon p : polygons)
+		{
+			result += computeRingVolume(p.getExterior(), ref);
+			for(Ring r : p.getInterior())
+			{
+				result += computeRingVolume(r, ref);
+			}
+		}
+		return result / 6.0;
+	}
+
+	/**
+	 * Six times the signed volume of the cone from ref to ring r, computed as triangle fan around the first point of r
+	 * @param r
+	 * @param ref
+	 * @return
+	 */
+	private double computeRingVolume(Ring r, double[] ref)
+	{
+		double result = 0.0;
+		double[] a = r.pos.get(0).coords;
+		double ax = a[0] - ref[0], ay = a[1] - ref[1], az = a[2] - ref[2];
+		for(int i = 1; i < r.pos.size() - 1; i++)
+		{
+			double[] b = r.pos.get(i).coords;
+			double[] c = r.pos.get(i+1).coords;
+			double bx = b[0] - ref[0], by = b[1] - ref[1], bz = b[2] - ref[2];
+			double cx = c[0] - ref[0], cy = c[1] - ref[1], cz = c[2] - ref[2];
+			result += ax * (by*cz - bz*cy) + ay * (bz*cx - bx*cz) + az * (bx*cy - by*cx);
+		}
+		return result;
+	}
+
+	/**
+	 * Key of a point snapped to a grid with the size of the tolerance
+	 * @param p
+	 * @return
+	 */
+	private String getPointKey(Point p)
+	{
+		return Math.round(p.coords[0] / tolerance) + "/" + Math.round(p.coords[1] / tolerance) + "/" + Math.round(p.coords[2] / tolerance);
+	}
+}
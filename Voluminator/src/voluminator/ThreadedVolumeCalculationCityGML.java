@@ -59,14 +59,26 @@
 package voluminator;
 
 import helperClasses.BuildingReader;
+import helperClasses.MemoryBudget;
 
 import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FilenameFilter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -100,8 +112,6 @@ public class ThreadedVolumeCalculationCityGML {
 	 */
 	public static void compute(String inputfile, double voxelsize, int numberOfThreads, boolean probabilityversion, String logBasename, boolean removeDuplicateIntersections) throws Exception
 	{
-		long start = System.currentTimeMillis();
-		
 		// setting global options for calculation
 		Options options = new Options();
 		options.voxelsize = voxelsize;
@@ -111,43 +121,260 @@ public class ThreadedVolumeCalculationCityGML {
 		options.probabilityversion = probabilityversion;
 		options.logBasename = logBasename;
 		
-		String resultFileName = logBasename + voxelsize + ".log";
+		compute(options);
+	}
+	
+	/**
+	 * Starts the threaded computation for each building of the CityGML - XML - file options.inputfile.
+	 * All other parameters are taken from options as well, which allows to use options which are not part of the
+	 * parameter list of compute(String, double, int, boolean, String, boolean).
+	 * If options.inputfile is a directory, all CityGML files in it are computed (cf. computeDirectory), which supports 
+	 * dryRun and memoryBudget, but not numberOfProcesses and pipeline.
+	 * If options.dryRun is set, only the costs are estimated (cf. CostEstimator). 
+	 * If options.numberOfProcesses is set, the buildings are computed by several processes (cf. ShardCoordinator).
+	 * If options.pipeline is set, parsing, computation and writing of the buildings overlap (cf. BuildingPipeline).
+	 * @param options
+	 * 
+	 * @throws Exception
+	 */
+	public static void compute(Options options) throws Exception
+	{
+		if(new File(options.inputfile).isDirectory())
+		{
+			computeDirectory(options);
+			return;
+		}
+		if(options.dryRun)
+		{
+			CostEstimator.estimateCityGML(options);
+			return;
+		}
+		if(options.numberOfProcesses > 0)
+		{
+			ShardCoordinator.computeCityGML(options);
+			return;
+		}
+		
+		long start = System.currentTimeMillis();
+		if(options.pipeline)
+		{
+			new BuildingPipeline(BuildingPipeline.INPUT_CITYGML, options).run();
+			System.out.println("calculation time: " + (System.currentTimeMillis() - start));
+			return;
+		}
+		
+		boolean probabilityversion = options.probabilityversion;
+		String resultFileName = options.logBasename + options.voxelsize + ".log";
 
 		// reading the Building from CityGML file 
 		BuildingReader buildingreader = new BuildingReader();
-		List<BuildingCallable> buildings = buildingreader.readCityGMLFile(inputfile, options);
+		List<BuildingCallable> buildings = buildingreader.readCityGMLFile(options.inputfile, options);
 		
 		// Threaded calculation
-		ExecutorService executerService = Executors.newFixedThreadPool(numberOfThreads);
-		Set<BuildingCallable> callables = new HashSet<BuildingCallable>();
-		callables.addAll(buildings);
-		
-		List<Future<BuildingCallable>> futures = executerService.invokeAll(callables);
+		ExecutorService executerService = Executors.newFixedThreadPool(options.numberOfThreads);
+		List<Future<BuildingCallable>> futures;
+		if(options.memoryBudget > 0){
+			futures = invokeWithinMemoryBudget(buildings, executerService, options);
+		}
+		else{
+			Set<BuildingCallable> callables = new HashSet<BuildingCallable>();
+			callables.addAll(buildings);
+			futures = executerService.invokeAll(callables);
+		}
 		
 		for(Future<BuildingCallable> future : futures){
-			if(probabilityversion){
-				try(PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(resultFileName, true)))) {
-				    out.println(future.get().getBuildingId()+ ", " + future.get().getVolume() + ", " + (future.get().gettAfter() - future.get().gettBefore()) + 
-				    		" " + future.get().getNumVoxels0() +
-				    		" " + future.get().getNumVoxels1() +
-				    		" " + future.get().getNumVoxels2() +
-				    		" " + future.get().getNumVoxels3() +
-				    		" " + future.get().getNumVoxels4() +
-				    		" " + future.get().getNumVoxels5() +
-				    		" " + future.get().getNumVoxels6());
-					}catch (IOException e) {
-						System.out.println("Could not write to file");
-					}
-			}
-			else{
-				try(PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(resultFileName, true)))) {
-				    out.println(future.get().getBuildingId()+ ", " + future.get().getVolume() + ", " + (future.get().gettAfter() - future.get().gettBefore()));
-				}
+			try(PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(resultFileName, true)))) {
+			    out.println(getResultLine(future.get(), probabilityversion));
+			}catch (IOException e) {
+				System.out.println("Could not write to file");
 			}
 		}
 		executerService.shutdown();
 		long end = System.currentTimeMillis();
 		System.out.println("calculation time: " + (end-start));
 	}						
+	
+	/**
+	 * Computes the buildings of all CityGML files (*.gml, *.xml) in the directory options.inputfile, e.g. the tiles of a city, 
+	 * in the order of the file names. All files share one CityGMLBuilder and input factory (cf. BuildingReader.getBuilder) and one pool 
+	 * of options.numberOfThreads threads. The next file is read while the buildings of the current one are computed, 
+	 * so at most three files are kept in memory. The results of all files are appended to one log file options.logBasename + options.voxelsize + ".log",
+	 * in the order of the files and their buildings. 
+	 * If options.dryRun is set, only the costs of the buildings of all files are estimated (cf. CostEstimator.estimateCityGMLFiles). 
+	 * If options.memoryBudget is set, the buildings of a file are started within the budget (cf. invokeWithinMemoryBudget), 
+	 * the next file is still read meanwhile. Throws an IllegalArgumentException if options.numberOfProcesses or options.pipeline is set, 
+	 * which this mode does not support.
+	 * @param options
+	 * 
+	 * @throws Exception
+	 */
+	public static void computeDirectory(Options options) throws Exception
+	{
+		if(options.numberOfProcesses > 0)
+			throw new IllegalArgumentException("numberOfProcesses is not supported for a directory of CityGML files");
+		if(options.pipeline)
+			throw new IllegalArgumentException("pipeline is not supported for a directory of CityGML files");
+		
+		long start = System.currentTimeMillis();
+		String resultFileName = options.logBasename + options.voxelsize + ".log";
+		
+		File[] files = new File(options.inputfile).listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				String lowerCase = name.toLowerCase();
+				return lowerCase.endsWith(".gml") || lowerCase.endsWith(".xml");
+			}
+		});
+		if(files == null)
+			files = new File[0];
+		Arrays.sort(files);
+		
+		if(options.dryRun)
+		{
+			CostEstimator.estimateCityGMLFiles(files, options);
+			return;
+		}
+		
+		ExecutorService executerService = Executors.newFixedThreadPool(options.numberOfThreads);
+		ExecutorService readerService = Executors.newSingleThreadExecutor();
+		LinkedList<List<Future<BuildingCallable>>> pending = new LinkedList<List<Future<BuildingCallable>>>();
+		try(PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(resultFileName, true)))) {
+			
+			Future<List<BuildingCallable>> next = (files.length > 0) ? readerService.submit(readFile(files[0], options)) : null;
+			for(int i = 0; i < files.length; i++){
+				
+				List<BuildingCallable> buildings = next.get();
+				System.out.println(files[i].getName() + ": " + buildings.size() + " buildings");
+				if(i + 1 < files.length)
+					next = readerService.submit(readFile(files[i + 1], options));
+				
+				List<Future<BuildingCallable>> futures;
+				if(options.memoryBudget > 0){
+					//waits until the buildings of this file are finished, the next file is read meanwhile
+					futures = invokeWithinMemoryBudget(buildings, executerService, options);
+				}
+				else{
+					futures = new ArrayList<Future<BuildingCallable>>();
+					for(BuildingCallable b : buildings){
+						futures.add(executerService.submit(b));
+					}
+				}
+				pending.add(futures);
+				
+				//the results of the previous file are written while the buildings of this file are computed
+				while(pending.size() > 1){
+					writeResults(pending.removeFirst(), out, options.probabilityversion);
+				}
+			}
+			while(!pending.isEmpty()){
+				writeResults(pending.removeFirst(), out, options.probabilityversion);
+			}
+		} finally {
+			executerService.shutdown();
+			readerService.shutdownNow();
+		}
+		long end = System.currentTimeMillis();
+		System.out.println("calculation time: " + (end-start));
+	}
+	
+	/**
+	 * Returns a task which reads the buildings of a CityGML file
+	 * @param file
+	 * @param options
+	 * @return
+	 */
+	private static Callable<List<BuildingCallable>> readFile(final File file, final Options options)
+	{
+		return new Callable<List<BuildingCallable>>() {
+			@Override
+			public List<BuildingCallable> call() throws Exception {
+				return new BuildingReader().readCityGMLFile(file.getAbsolutePath(), options);
+			}
+		};
+	}
+	
+	/**
+	 * Waits for the buildings of futures and writes their results to out
+	 * @param futures
+	 * @param out
+	 * @param probabilityversion
+	 * @throws Exception
+	 */
+	private static void writeResults(List<Future<BuildingCallable>> futures, PrintWriter out, boolean probabilityversion) throws Exception
+	{
+		for(Future<BuildingCallable> future : futures){
+			out.println(getResultLine(future.get(), probabilityversion));
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Returns the line of the log file for a computed building: id, volume, computation time, in the probability version
+	 * the numbers of voxels per vote and the values of optional computation modes.
+	 * @param b
+	 * @param probabilityversion
+	 * @return
+	 */
+	static String getResultLine(BuildingCallable b, boolean probabilityversion)
+	{
+		String result = b.getBuildingId()+ ", " + b.getVolume() + ", " + (b.gettAfter() - b.gettBefore());
+		if(probabilityversion){
+			result += " " + b.getNumVoxels0() +
+		    		" " + b.getNumVoxels1() +
+		    		" " + b.getNumVoxels2() +
+		    		" " + b.getNumVoxels3() +
+		    		" " + b.getNumVoxels4() +
+		    		" " + b.getNumVoxels5() +
+		    		" " + b.getNumVoxels6();
+		}
+		return result + b.getAdditionalInformation(", ");
+	}
+	
+	/**
+	 * Runs the buildings on executerService, but starts a building only if its estimated peak memory fits into 
+	 * options.memoryBudget together with the buildings already running (cf. helperClasses.MemoryBudget). 
+	 * Waiting buildings are passed by later ones which fit. Returns the futures of all buildings after they are finished.
+	 * @param buildings
+	 * @param executerService
+	 * @param options
+	 * @return
+	 * @throws Exception
+	 */
+	private static List<Future<BuildingCallable>> invokeWithinMemoryBudget(List<BuildingCallable> buildings, ExecutorService executerService, Options options) throws Exception
+	{
+		MemoryBudget budget = new MemoryBudget(options.memoryBudget);
+		CompletionService<BuildingCallable> completionService = new ExecutorCompletionService<BuildingCallable>(executerService);
+		Map<Future<BuildingCallable>, Long> estimates = new HashMap<Future<BuildingCallable>, Long>();
+		List<Future<BuildingCallable>> futures = new ArrayList<Future<BuildingCallable>>();
+		
+		List<BuildingCallable> waiting = new LinkedList<BuildingCallable>(buildings);
+		Map<BuildingCallable, Long> waitingEstimates = new HashMap<BuildingCallable, Long>();
+		for(BuildingCallable b : waiting){
+			waitingEstimates.put(b, b.estimatePeakMemory());
+		}
+		
+		int running = 0;
+		while(!waiting.isEmpty() || running > 0){
+			
+			//start every waiting building which fits, as long as there are free threads
+			Iterator<BuildingCallable> it = waiting.iterator();
+			while(running < options.numberOfThreads && it.hasNext()){
+				BuildingCallable b = it.next();
+				long estimate = waitingEstimates.get(b);
+				if(budget.tryAcquire(estimate)){
+					Future<BuildingCallable> future = completionService.submit(b);
+					estimates.put(future, estimate);
+					futures.add(future);
+					it.remove();
+					running++;
+				}
+			}
+			
+			//wait for a building to finish and release its memory
+			Future<BuildingCallable> finished = completionService.take();
+			budget.release(estimates.get(finished));
+			running--;
+		}
+		return futures;
+	}
 }
-
@@ -36,10 +36,21 @@ package voluminator;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
+import dataTypes.BoundingBox;
+import dataTypes.BuildingCallable;
 import dataTypes.Options;
+import helperClasses.MemoryBudget;
+import helperClasses.MemoryEstimator;
+import helperClasses.OBJReader;
 
 /**
  * Main class for multithreaded calculation of volumes. For each building a new thread is started.
@@ -63,21 +74,57 @@ public class ThreadedVolumeCalculationObj {
 	 */
 	public static void compute(String inputDirectory, double voxelSize, boolean probabilityVersion, String logBasename, int nrThreads,  boolean removeDuplicateIntersections) throws Exception {
 		
-		// Create log-file
-		String resultFileName = logBasename + voxelSize + ".log";
-		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter( resultFileName, true)));
-		
 		//Set options
 		Options options = new Options();
 		options.voxelsize = voxelSize;
 		options.removeDuplicateIntersections = removeDuplicateIntersections;
+		options.inputfile = inputDirectory;
+		options.logBasename = logBasename;
+		options.numberOfThreads = nrThreads;
+		options.probabilityversion = probabilityVersion;
 		
+		compute(options);
+	}
+	
+	/**
+	 * Starts the computation for all OBJ-files in the directory options.inputfile. 
+	 * All other parameters are taken from options as well, which allows to use options which are not part of the
+	 * parameter list of compute(String, double, boolean, String, int, boolean).
+	 * If options.dryRun is set, only the costs are estimated (cf. CostEstimator).
+	 * If options.numberOfProcesses is set, the files are computed by several processes (cf. ShardCoordinator).
+	 * If options.pipeline is set, reading, computation and writing of the files overlap (cf. BuildingPipeline).
+	 * @param options
+	 * @throws Exception
+	 */
+	public static void compute(Options options) throws Exception {
 		
-		//Generate Array for threads
-		ObjVoluminatorThread[] threads = new ObjVoluminatorThread[nrThreads];
+		if (options.dryRun) {
+			CostEstimator.estimateObj(options);
+			return;
+		}
+		if (options.numberOfProcesses > 0) {
+			ShardCoordinator.computeObj(options);
+			return;
+		}
+		if (options.pipeline) {
+			new BuildingPipeline(BuildingPipeline.INPUT_OBJ, options).run();
+			return;
+		}
+		
+		String inputDirectory = options.inputfile;
+		boolean probabilityVersion = options.probabilityversion;
+		
+		// Create log-file
+		String resultFileName = options.logBasename + options.voxelsize + ".log";
+		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter( resultFileName, true)));
+		
+		//Generate Array for threads and the memory reserved for them
+		ObjVoluminatorThread[] threads = new ObjVoluminatorThread[options.numberOfThreads];
+		long[] threadEstimates = new long[options.numberOfThreads];
 		for (int i = 0; i < threads.length; i++) {
 			threads[i] = null;
 		}
+		MemoryBudget budget = new MemoryBudget(options.memoryBudget > 0 ? options.memoryBudget : Long.MAX_VALUE);
 		
 		//Iterate through all files in inputDirectory
 		File dir = new File(inputDirectory);
@@ -85,32 +132,37 @@ public class ThreadedVolumeCalculationObj {
 		if (files != null) {
 			
 			boolean end = false;
-			int count = 0;
+			List<File> waiting = new LinkedList<File>();
+			for (File f : files) {
+				if (!f.isDirectory()) {
+					waiting.add(f);
+				}
+			}
+			Map<File, Long> estimates = new HashMap<File, Long>();
 			
 			//While there are still file to open
-			while (count < files.length || !end) {
+			while (!waiting.isEmpty() || !end) {
 				end = true;
 				for (int i = 0; i < threads.length; i++) {
 					//Check if a thread has not yet been initialised yet or has terminated
 					if (threads[i] == null 	|| threads[i].getState() == Thread.State.TERMINATED) {
 					
 						if (threads[i] != null) {
-							// A thread has terminated, get result and set thread to null
+							// A thread has terminated, get result, release its memory and set thread to null
 							System.out.println(threads[i].result);
 							out.println(threads[i].result);
+							budget.release(threadEstimates[i]);
 							threads[i] = null;
 						}
 						
-						//get next file in directory
-						while (count < files.length && files[count].isDirectory()) {
-							count++;
-						}
+						//get next file in directory which fits into the memory budget
+						File next = takeNextFile(waiting, estimates, budget, options);
 						
-						if (count < files.length) {
+						if (next != null) {
 							//start a new thread for a new file
-							threads[i] = new ObjVoluminatorThread(files[count].getAbsolutePath(), options, probabilityVersion);
+							threads[i] = new ObjVoluminatorThread(next.getAbsolutePath(), options, probabilityVersion);
+							threadEstimates[i] = estimates.get(next);
 							threads[i].start();
-							count++;
 							end = false;
 						}
 
@@ -124,4 +176,47 @@ public class ThreadedVolumeCalculationObj {
 		out.close();
 
 	}
+	
+	/**
+	 * Returns the line of the log file for a file computed as BuildingCallable (cf. BuildingPipeline) in the format of ObjVoluminatorThread: 
+	 * file name, volume, computation time and the values of optional computation modes.
+	 * @param b
+	 * @return
+	 */
+	static String getResultLine(BuildingCallable b) {
+		
+		return b.getBuildingId() + "  " + b.getVolume() + "     " + (b.gettAfter() - b.gettBefore()) + b.getAdditionalInformation("     ");
+	}
+	
+	/**
+	 * Removes and returns the first waiting file whose estimated peak memory fits into the budget and reserves the memory. 
+	 * Returns null if no file fits. Estimates are only computed if options.memoryBudget is set, otherwise they are 0.
+	 * @param waiting
+	 * @param estimates
+	 * @param budget
+	 * @param options
+	 * @return
+	 * @throws FileNotFoundException
+	 */
+	private static File takeNextFile(List<File> waiting, Map<File, Long> estimates, MemoryBudget budget, Options options) throws FileNotFoundException {
+		
+		Iterator<File> it = waiting.iterator();
+		while (it.hasNext()) {
+			File f = it.next();
+			if (!estimates.containsKey(f)) {
+				long estimate = 0;
+				if (options.memoryBudget > 0) {
+					OBJReader reader = new OBJReader();
+					BoundingBox bb = reader.readBoundingBox(f.getAbsolutePath());
+					estimate = MemoryEstimator.estimatePeakMemory(bb, reader.getNumberOfFaces(), options);
+				}
+				estimates.put(f, estimate);
+			}
+			if (budget.tryAcquire(estimates.get(f))) {
+				it.remove();
+				return f;
+			}
+		}
+		return null;
+	}
 }
@@ -0,0 +1,371 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package voluminator;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import dataTypes.Options;
+import dataTypes.Point;
+import dataTypes.Polygon;
+import dataTypes.Voxelvolume;
+import helperClasses.PolygonTriangulator;
+
+/**
+ * Voxel classification by rays against the triangles of the polygons (cf. helperClasses.PolygonTriangulator) instead of the polygons.
+ *
+ * The rays are tested with a watertight ray-triangle test (Woop, Benthin and Wald: Watertight Ray/Triangle Intersection, 2013), 
+ * specialised for rays along the axes: the corners are translated to the origin of the ray and the edge functions (the 2D cross products 
+ * of the corners in the plane of the other two axes) decide hit or miss directly in 3D, without projecting the point into the plane 
+ * of a polygon. If an edge function is exactly 0, its sign is given by the direction of the edge, so a ray through an edge shared by 
+ * two triangles of a polygon hits exactly one of them. The height of the hit is interpolated with the edge functions as weights.
+ *
+ * Whether the line of a voxel center hits a triangle does not depend on the voxel, only the height of the hit does. Therefore all 
+ * hits of a line of voxel centers (a column, cf. ColumnRasterEngine) are computed once and give the votes of all of its voxels by parity,
+ * including the removal of duplicate intersections. The triangles are indexed by the rows of columns they cross.
+ * Triangles of polygons parallel to an axis are ignored for it with the same tolerance as in Plane.isParallel.
+ * Polygons which can not be triangulated because an interior ring can not be bridged (cf. PolygonTriangulator) are intersected 
+ * with each column by Polygon.lineCuts instead, so their openings are kept.
+ * A ray through an edge shared by two polygons hits exactly one of their triangles, while the scalar engine may count it for both 
+ * polygons or for none. Therefore the results differ from the scalar engine on any model whose rays hit shared edges, above all in 
+ * the probability version, which counts every single ray: for the pyramid roof of SyntheticBuildings 269 voxels differ, the probability 
+ * version gives 479.750 instead of 477.063 at voxel size 0.5 and 489.9375 instead of 488.380 at 0.25 (cf. main.RayEngineBenchmark).
+ * Early exit voting is not used.
+ *
+ * @author Horst Steuer
+ *
+ */
+public class TriangleRayEngine implements VoxelClassifier {
+
+	//same criterion as Plane.isParallel for a unit direction vector
+	private static final double PARALLEL_TOLERANCE = 0.0001;
+	
+	private Options options;
+	
+	//corners of the triangles: x, y and z of corner a, b and c of triangle t are corners[9*t] to corners[9*t+8]
+	private double[] corners;
+	private int numTriangles;
+	//polygons without triangles, intersected by Polygon.lineCuts
+	private Polygon[] untriangulated;
+	
+	//lattice of the voxel centers: origin, spacing and number of voxels per axis
+	private double[] origin;
+	private double[] spacing;
+	private int[] size;
+	
+	//triangles crossing row j of the columns of one axis: rowTriangles[rowStart[j] .. rowStart[j+1]-1]
+	private int[] rowStart;
+	private int[] rowTriangles;
+	
+	//reusable buffers for the heights of the hits of a column and the number of distinct heights in front of each of them
+	private double[] heights = new double[16];
+	private int[] distinct = new int[17];
+
+	/**
+	 * Constructor
+	 * @param options
+	 */
+	public TriangleRayEngine(Options options)
+	{
+		this.options = options;
+	}
+
+	@Override
+	public void classify(Vector<Polygon> polygons, Voxelvolume vox, boolean probabilityversion)
+	{
+		PolygonTriangulator triangulator = new PolygonTriangulator();
+		List<Point[]> triangles = triangulator.triangulate(polygons);
+		if(options.debugMode)
+		{
+			System.out.println("triangulation: " + polygons.size() + " polygons -> " + triangulator.getNumTriangles() + " triangles (" 
+					+ triangulator.getFailedPolygons() + " polygons not triangulated by ears only, " 
+					+ triangulator.getUntriangulatedPolygons().size() + " of them intersected without triangles)");
+		}
+		untriangulated = triangulator.getUntriangulatedPolygons().toArray(new Polygon[0]);
+		numTriangles = triangles.size();
+		corners = new double[9 * numTriangles];
+		for(int t = 0; t < numTriangles; t++)
+		{
+			for(int k = 0; k < 3; k++)
+			{
+				for(int axis = 0; axis < 3; axis++)
+					corners[9*t + 3*k + axis] = triangles.get(t)[k].coords[axis];
+			}
+		}
+		
+		origin = vox.minPoint.coords;
+		spacing = new double[] {vox.voxsizex, vox.voxsizey, vox.voxsizez};
+		size = new int[] {vox.sizex, vox.sizey, vox.sizez};
+		
+		for(int axis = 0; axis < 3; axis++)
+		{
+			indexRows(axis);
+			addVotes(vox, axis);
+		}
+		corners = null;
+		rowStart = null;
+		rowTriangles = null;
+		untriangulated = null;
+		
+		if(probabilityversion)
+			return;
+		for(int x = 0 ; x < vox.sizex; x++ )
+			for(int y = 0 ; y < vox.sizey; y++ )
+				for(int z = 0 ; z < vox.sizez; z++ )
+					vox.set(x, y, z, (vox.get(x, y, z) >= options.mindirections) ? 1 : 0);
+	}
+	
+	/**
+	 * Lists the triangles which are not parallel to axis for every row of columns they may cross (in two passes: count, then fill).
+	 * The range of rows is widened by one on each side, so rows at the corners of a triangle are never missed by rounding.
+	 * @param axis
+	 */
+	private void indexRows(int axis)
+	{
+		int v = (axis == 2) ? 1 : 2;
+		int rows = size[v];
+		rowStart = new int[rows + 1];
+		int[] first = new int[numTriangles];
+		int[] last = new int[numTriangles];
+		
+		for(int t = 0; t < numTriangles; t++)
+		{
+			first[t] = 0;
+			last[t] = -1;
+			if(isParallel(t, axis))
+				continue;
+			double min = Math.min(corners[9*t + v], Math.min(corners[9*t + 3 + v], corners[9*t + 6 + v]));
+			double max = Math.max(corners[9*t + v], Math.max(corners[9*t + 3 + v], corners[9*t + 6 + v]));
+			first[t] = Math.max(0, (int) Math.floor((min - origin[v]) / spacing[v]));
+			last[t] = Math.min(rows - 1, (int) Math.ceil((max - origin[v]) / spacing[v]));
+			for(int j = first[t]; j <= last[t]; j++)
+				rowStart[j + 1]++;
+		}
+		for(int j = 0; j < rows; j++)
+			rowStart[j + 1] += rowStart[j];
+		
+		rowTriangles = new int[rowStart[rows]];
+		int[] fill = Arrays.copyOf(rowStart, rows);
+		for(int t = 0; t < numTriangles; t++)
+		{
+			for(int j = first[t]; j <= last[t]; j++)
+				rowTriangles[fill[j]++] = t;
+		}
+	}
+	
+	/**
+	 * Returns true if triangle t is parallel to axis, i.e. the component of its unit normal along axis is below PARALLEL_TOLERANCE
+	 * @param t
+	 * @param axis
+	 * @return
+	 */
+	private boolean isParallel(int t, int axis)
+	{
+		int o = 9 * t;
+		double[] e1 = new double[3];
+		double[] e2 = new double[3];
+		for(int k = 0; k < 3; k++)
+		{
+			e1[k] = corners[o + 3 + k] - corners[o + k];
+			e2[k] = corners[o + 6 + k] - corners[o + k];
+		}
+		double[] normal = {e1[1]*e2[2] - e1[2]*e2[1], e1[2]*e2[0] - e1[0]*e2[2], e1[0]*e2[1] - e1[1]*e2[0]};
+		double length = Math.sqrt(normal[0]*normal[0] + normal[1]*normal[1] + normal[2]*normal[2]);
+		return length == 0 || Math.abs(normal[axis]) < PARALLEL_TOLERANCE * length;
+	}
+	
+	/**
+	 * Adds the votes (0, 1 or 2) of the columns in direction axis to the voxels of vox. The first axis overwrites the voxels.
+	 * @param vox
+	 * @param axis
+	 */
+	private void addVotes(Voxelvolume vox, int axis)
+	{
+		int u = (axis == 0) ? 1 : 0;
+		int v = (axis == 2) ? 1 : 2;
+		boolean removeDuplicates = options.removeDuplicateIntersections;
+		int[] index = new int[3];
+		
+		for(int i = 0; i < size[u]; i++)
+		{
+			for(int j = 0; j < size[v]; j++)
+			{
+				double cu = origin[u] + i*spacing[u];
+				double cv = origin[v] + j*spacing[v];
+				int m = collectHits(cu, cv, axis, u, v, j);
+				Arrays.sort(heights, 0, m);
+				if(removeDuplicates)
+					countDistinct(m);
+				
+				index[u] = i;
+				index[v] = j;
+				int below = 0, notAbove = 0;
+				for(int k = 0; k < size[axis]; k++)
+				{
+					//hits below the voxel center are left of it, hits above right of it, hits at it do not count (cf. Voluminator.getVote)
+					double cw = origin[axis] + k*spacing[axis];
+					while(below < m && heights[below] < cw)
+						below++;
+					notAbove = Math.max(notAbove, below);
+					while(notAbove < m && heights[notAbove] <= cw)
+						notAbove++;
+					
+					int left, right;
+					if(removeDuplicates)
+					{
+						left = distinct[below];
+						right = (notAbove < m) ? 1 + distinct[m] - distinct[notAbove + 1] : 0;
+					}
+					else
+					{
+						left = below;
+						right = m - notAbove;
+					}
+					int vote = (left % 2) + (right % 2);
+					
+					index[axis] = k;
+					if(axis == 0)
+						vox.set(index[0], index[1], index[2], vote);
+					else
+						vox.set(index[0], index[1], index[2], vox.get(index[0], index[1], index[2]) + vote);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Stores the heights (coordinate along axis) of the hits of the line through cu,cv in direction axis with the triangles of row j 
+	 * and with the untriangulated polygons in heights and returns their number
+	 * @param cu
+	 * @param cv
+	 * @param axis
+	 * @param u
+	 * @param v
+	 * @param j
+	 * @return
+	 */
+	private int collectHits(double cu, double cv, int axis, int u, int v, int j)
+	{
+		int m = 0;
+		for(int k = rowStart[j]; k < rowStart[j+1]; k++)
+		{
+			int o = 9 * rowTriangles[k];
+			
+			//corners relative to the line
+			double au = corners[o + u] - cu, av = corners[o + v] - cv;
+			double bu = corners[o + 3 + u] - cu, bv = corners[o + 3 + v] - cv;
+			double du = corners[o + 6 + u] - cu, dv = corners[o + 6 + v] - cv;
+			if((au < 0 && bu < 0 && du < 0) || (au > 0 && bu > 0 && du > 0) || (av < 0 && bv < 0 && dv < 0) || (av > 0 && bv > 0 && dv > 0))
+				continue;
+			
+			//edge functions, each is the weight of the opposite corner
+			double ea = bu * dv - bv * du;
+			double eb = du * av - dv * au;
+			double ec = au * bv - av * bu;
+			int sa = edgeSign(ea, bu, bv, du, dv);
+			int sb = edgeSign(eb, du, dv, au, av);
+			int sc = edgeSign(ec, au, av, bu, bv);
+			if(sa != sb || sb != sc)
+				continue;
+			double det = ea + eb + ec;
+			if(det == 0.0)
+				continue;
+			
+			if(m == heights.length)
+				heights = Arrays.copyOf(heights, 2 * m);
+			heights[m++] = (ea * corners[o + axis] + eb * corners[o + 3 + axis] + ec * corners[o + 6 + axis]) / det;
+		}
+		
+		if(untriangulated.length == 0)
+			return m;
+		//the line starts below the voxel volume, so every hit has a positive line parameter
+		double[] start = new double[3];
+		start[u] = cu;
+		start[v] = cv;
+		start[axis] = origin[axis] - spacing[axis];
+		for(Polygon p : untriangulated)
+		{
+			if(Math.abs(p.getPlane().normal.coords[axis]) < PARALLEL_TOLERANCE)
+				continue;
+			double l = p.lineCuts(start[0], start[1], start[2], axis);
+			if(l <= 0.0)
+				continue;
+			if(m == heights.length)
+				heights = Arrays.copyOf(heights, 2 * m);
+			heights[m++] = start[axis] + l;
+		}
+		return m;
+	}
+	
+	/**
+	 * Returns the sign of the edge function e of the edge from p to q. If e is 0 (the line passes through the edge) 
+	 * the sign is given by the direction of the edge, which is opposite for the two triangles sharing the edge.
+	 * @param e
+	 * @param pu
+	 * @param pv
+	 * @param qu
+	 * @param qv
+	 * @return
+	 */
+	private static int edgeSign(double e, double pu, double pv, double qu, double qv)
+	{
+		if(e > 0)
+			return 1;
+		if(e < 0)
+			return -1;
+		if(qv != pv)
+			return (qv > pv) ? 1 : -1;
+		return (qu < pu) ? 1 : -1;
+	}
+	
+	/**
+	 * Stores the number of distinct heights in front of each of the m sorted heights in distinct 
+	 * (as Voluminator.countDistinct: heights which differ by no more than the tolerance from their predecessor are duplicates)
+	 * @param m
+	 */
+	private void countDistinct(int m)
+	{
+		if(distinct.length < m + 1)
+			distinct = new int[2 * m + 1];
+		distinct[0] = 0;
+		for(int i = 0; i < m; i++)
+		{
+			boolean starts = (i == 0) || (heights[i] - heights[i - 1] > options.duplicateIntersectionTolerance);
+			distinct[i+1] = distinct[i] + (starts ? 1 : 0);
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package voluminator;
+
+import java.util.Vector;
+
+import dataTypes.JobConfiguration;
+import dataTypes.Options;
+import dataTypes.Polygon;
+import dataTypes.VolumeResult;
+import dataTypes.Voxelvolume;
+
+/**
+ * Reentrant engine for computing volumes. The engine has no state: every computation uses its own Voluminator with the options of its
+ * JobConfiguration and returns its values as VolumeResult. Therefore one engine can be used by any number of threads at the same time
+ * without locks, as long as the threads do not compute the same polygons (they are projected lazily, cf. Polygon.project()).
+ * @author Horst Steuer
+ *
+ */
+public class VolumeEngine {
+	
+	/**
+	 * Computes the volume of the object given by polygons. The voxel volume is written to the OBJ files of job if requested by its options.
+	 * @param polygons
+	 * @param job
+	 * @return
+	 */
+	public VolumeResult compute(Vector<Polygon> polygons, JobConfiguration job)
+	{
+		return compute(polygons, job, false);
+	}
+	
+	/**
+	 * Computes the volume of the object given by polygons. If keepVoxelvolume is set, the voxel volume is neither written nor released
+	 * but returned with the result, e.g. for writing it by another thread with writeVoxelvolume(). 
+	 * Otherwise it is written to the OBJ files of job if requested by its options and released.
+	 * @param polygons
+	 * @param job
+	 * @param keepVoxelvolume
+	 * @return
+	 */
+	public VolumeResult compute(Vector<Polygon> polygons, JobConfiguration job, boolean keepVoxelvolume)
+	{
+		return compute(polygons, null, job, keepVoxelvolume);
+	}
+	
+	/**
+	 * Computes the volume like compute(polygons, job, keepVoxelvolume). groundSurfaces are the GroundSurfaces of the building 
+	 * for the footprint if the options of job request FOOTPRINT_GROUND_SURFACE, may be null.
+	 * @param polygons
+	 * @param groundSurfaces
+	 * @param job
+	 * @param keepVoxelvolume
+	 * @return
+	 */
+	public VolumeResult compute(Vector<Polygon> polygons, Vector<Polygon> groundSurfaces, JobConfiguration job, boolean keepVoxelvolume)
+	{
+		Options options = job.getOptions();
+		long tBefore = System.currentTimeMillis();
+		
+		Voluminator v = new Voluminator(options);
+		v.setGroundSurfaces(groundSurfaces);
+		v.setDeferVoxelExport(keepVoxelvolume);
+		double volume;
+		double[] volumes = null;
+		double usedVoxelsize = options.voxelsize;
+		if(options.multiResolutionVoxelsizes != null)
+		{
+			//all resolutions in one pass, the main volume is the one of the finest resolution
+			volumes = v.computeVolumeMultiResolution(polygons, options);
+			int finest = 0;
+			for(int i = 1; i < volumes.length; i++)
+			{
+				if(options.multiResolutionVoxelsizes[i] < options.multiResolutionVoxelsizes[finest])
+					finest = i;
+			}
+			volume = volumes[finest];
+			usedVoxelsize = options.multiResolutionVoxelsizes[finest];
+		}
+		else if(options.autoResolution != Options.AUTO_RESOLUTION_OFF)
+		{
+			volume = v.computeVolumeAutoResolution(polygons, options);
+			usedVoxelsize = v.getUsedVoxelsize();
+		}
+		else if(options.extrapolationVoxelsizes != null)
+		{
+			volume = v.computeVolumeExtrapolated(polygons, options);
+		}
+		else if(options.lineIntegral)
+		{
+			volume = v.computeVolumeLineIntegral(polygons, options);
+		}
+		else if(options.monteCarlo != Options.MONTE_CARLO_OFF)
+		{
+			volume = v.computeVolumeMonteCarlo(polygons, options);
+		}
+		else if(options.probabilityversion)
+		{
+			volume = v.computeVolumeProbabilityVersion(polygons, options);
+		}
+		else
+		{
+			volume = v.computeVolume(polygons, options);
+		}
+		
+		Voxelvolume vox = v.getVoxelvolume();
+		long[] numVoxels = null;
+		if(options.probabilityversion && !v.isExactVolumeUsed() && vox != null)
+		{
+			numVoxels = new long[7];
+			for(int vote = 0; vote < numVoxels.length; vote++)
+				numVoxels[vote] = vox.countVoxelsWithValue(vote);
+		}
+		long tAfter = System.currentTimeMillis();
+		
+		//free off-heap memory and memory-mapped files as soon as possible
+		if(!keepVoxelvolume && vox != null)
+		{
+			vox.release();
+			vox = null;
+		}
+		return new VolumeResult(volume, volumes, usedVoxelsize, v.isExactVolumeUsed(), numVoxels, tAfter - tBefore, vox, 
+				v.getVolumeEstimate(), v.getSkippedFraction(), v.getVoteDepthStatistics());
+	}
+	
+	/**
+	 * Writes the voxel volume kept by compute(polygons, job, true) to the OBJ files of job if requested by its options and releases it.
+	 * Does nothing if no voxel volume was kept.
+	 * @param result
+	 * @param job
+	 */
+	public void writeVoxelvolume(VolumeResult result, JobConfiguration job)
+	{
+		Voxelvolume vox = result.getVoxelvolume();
+		if(vox == null)
+			return;
+		Voluminator.writeVoxelvolume(vox, job.getOptions(), job.getOBJfileOuter(), job.getOBJfileInner(), job.isProbabilityversion());
+		vox.release();
+	}
+}
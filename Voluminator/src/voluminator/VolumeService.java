@@ -0,0 +1,561 @@
+/*
+    This file is part of Voluminator.
+
+    Voluminator is free software:
+	you can redistribute it and/or modify it under the terms of the
+	GNU Lesser General Public License as published by the Free
+	Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	 
+	Voluminator is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Lesser General Public License for more details.
+	
+    You should have received a copy of the GNU Lesser General Public
+	License along with this library. If not, see 
+	<http://www.gnu.org/licenses/>
+    
+ 
+    If you are using this for scientific purposes, please cite
+
+    Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel, and Thomas H.
+	Kolbe. Voluminator - Approximating the Volume of 3D Buildings to Overcome
+	Topological Errors. In AGILE 2015, pages 343-362. Springer, 2015.
+	
+	
+	Copyright 2015 
+	Horst Steuer, Thomas Machl, Maximilian Sindram, Lukas Liebel and Thomas H.
+	Kolbe
+	LS Geoinformatik, TU Muenchen
+	Technische Universitaet Muenchen, Germany
+    https://www.gis.bgu.tum.de/
+    
+*/
+
+package voluminator;
+
+import helperClasses.BuildingReader;
+import helperClasses.CityGMLSplitter;
+import helperClasses.MemoryBudget;
+import helperClasses.MemoryEstimator;
+import helperClasses.OBJReader;
+import helperClasses.PolygonConstructor;
+import helperClasses.SyntheticBuildings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import dataTypes.BoundingBox;
+import dataTypes.BuildingCallable;
+import dataTypes.Options;
+import dataTypes.Polygon;
+
+/**
+ * Resident volume service with an HTTP interface on the loopback interface. It avoids the start of a JVM, the initialization
+ * of the CityGMLBuilder and the warm-up of the JIT compiler for every small batch of buildings.
+ * 
+ * POST /volume/citygml  body: a CityGML document or fragment (cityObjectMember or building elements of CityGML 2.0)
+ * POST /volume/obj      body: OBJ data, several objects may be separated by "o name" statements
+ * GET  /status          number of buildings waiting or running, capacity and number of computed buildings
+ * 
+ * The query parameters REQUEST_OPTIONS override the options of the service for a request, e.g. 
+ * /volume/obj?voxelsize=0.5&probabilityversion=true. Other options (e.g. files and directories) can not be set by a request, 
+ * the voxel size must not be smaller than options.serviceMinVoxelsize. The parameter id sets the name of OBJ data without 
+ * object statements. Building ids are reduced to letters, digits, '.', '-' and '_', since they are used in file names.
+ * The response contains one line per building in the format of the log files of ThreadedVolumeCalculationCityGML and 
+ * ThreadedVolumeCalculationObj.
+ * 
+ * Requests are answered by options.numberOfThreads threads, the buildings of all requests are computed by options.numberOfThreads 
+ * other threads, the buildings of a request in parallel. At most options.serviceQueueCapacity buildings are waiting or running 
+ * at the same time; a request takes its first place before its body is read, and a request whose buildings do not fit 
+ * is rejected with status 503 (413 if they never fit). Bodies larger than options.serviceMaxRequestBytes are rejected with 413.
+ * The estimated peak memory of the running buildings is kept within options.memoryBudget (half of the maximal heap size if it is 
+ * not set), buildings exceeding the whole budget are rejected with 413.
+ * 
+ * Although the service only listens on the loopback interface, web pages could send requests to it. Requests with an Origin header 
+ * (sent by browsers for requests of other pages) or a Host header which is not a loopback address (DNS rebinding) are rejected 
+ * with 403.
+ * 
+ * @author Horst Steuer
+ *
+ */
+public class VolumeService {
+	
+	public static final String PATH_CITYGML = "/volume/citygml";
+	public static final String PATH_OBJ = "/volume/obj";
+	public static final String PATH_STATUS = "/status";
+	
+	//options which may be set by the query parameters of a request
+	public static final List<String> REQUEST_OPTIONS = Arrays.asList("voxelsize", "engine", "probabilityversion", 
+			"removeDuplicateIntersections", "earlyExitVoting", "exactVolumeForClosedSurfaces", "preprocessPolygons", "lineIntegral");
+	private static final List<String> LOOPBACK_HOSTS = Arrays.asList("localhost", "127.0.0.1", "[::1]");
+	
+	//root element for CityGML fragments without root element
+	private static final String DEFAULT_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" 
+			+ "<core:CityModel xmlns:core=\"http://www.opengis.net/citygml/2.0\" xmlns:bldg=\"http://www.opengis.net/citygml/building/2.0\" "
+			+ "xmlns:gml=\"http://www.opengis.net/gml\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" "
+			+ "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">";
+	private static final String DEFAULT_FOOTER = "</core:CityModel>";
+	
+	private Options options;
+	private HttpServer server;
+	private ExecutorService executerService;
+	private ExecutorService requestService;
+	private Semaphore capacity;
+	private MemoryBudget memory;
+	private AtomicLong computedBuildings = new AtomicLong(0);
+	
+	/**
+	 * Starts the service with the options read from the properties file args[0] (cf. Options.toProperties), or default options.
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		Options options = new Options();
+		if(args.length > 0)
+		{
+			Properties properties = new Properties();
+			try(InputStream in = new FileInputStream(args[0])) {
+				properties.load(in);
+			}
+			options = Options.fromProperties(properties);
+		}
+		VolumeService service = new VolumeService(options);
+		service.start();
+		System.out.println("Voluminator service listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":" + service.getPort());
+	}
+	
+	/**
+	 * Constructor
+	 * @param options default options of all requests
+	 */
+	public VolumeService(Options options)
+	{
+		this.options = options;
+		capacity = new Semaphore(Math.max(1, options.serviceQueueCapacity));
+		memory = new MemoryBudget(options.memoryBudget > 0 ? options.memoryBudget : Runtime.getRuntime().maxMemory() / 2);
+	}
+	
+	/**
+	 * Warms up the engine and starts the HTTP server on options.servicePort (0 = any free port)
+	 * @throws IOException
+	 */
+	public void start() throws IOException
+	{
+		executerService = Executors.newFixedThreadPool(Math.max(1, options.numberOfThreads));
+		warmUp();
+		
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), options.servicePort), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				VolumeService.this.handle(exchange);
+			}
+		});
+		//requests are parsed by these threads, waiting connections are queued
+		requestService = Executors.newFixedThreadPool(Math.max(1, options.numberOfThreads));
+		server.setExecutor(requestService);
+		server.start();
+	}
+	
+	/**
+	 * Stops the HTTP server after the running requests are answered
+	 */
+	public void stop()
+	{
+		server.stop(1);
+		requestService.shutdown();
+		executerService.shutdown();
+	}
+	
+	/**
+	 * Returns the port of the HTTP server
+	 * @return
+	 */
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+	
+	/**
+	 * Initializes the CityGMLBuilder and computes a synthetic building options.serviceWarmupRuns times, so that the JIT compiler
+	 * has compiled the engine before the first request.
+	 */
+	private void warmUp()
+	{
+		try {
+			BuildingReader.getBuilder();
+		} catch (Throwable e) {
+			System.out.println("CityGML is not available: " + e);
+		}
+		
+		Options warmUpOptions = Options.fromProperties(options.toProperties());
+		warmUpOptions.writeVoxelAsOBJ = false;
+		warmUpOptions.writeVoxelAsSmallOBJ = false;
+		Vector<Polygon> polygons = SyntheticBuildings.cylinder(5.0 * options.voxelsize, 10.0 * options.voxelsize, 16);
+		for(int i = 0; i < options.serviceWarmupRuns; i++)
+		{
+			BuildingCallable b = new BuildingCallable(warmUpOptions);
+			b.setBuildingId("warm-up");
+			b.setPolygons(polygons);
+			try {
+				b.compute(false);
+			} catch (Exception e) {
+				System.out.println("Warm-up failed: " + e);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Answers a request
+	 * @param exchange
+	 * @throws IOException
+	 */
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		int status = 200;
+		String response;
+		try {
+			checkOrigin(exchange);
+			String path = exchange.getRequestURI().getPath();
+			if(PATH_STATUS.equals(path))
+			{
+				int available = capacity.availablePermits();
+				response = "queued " + (options.serviceQueueCapacity - available) + System.getProperty("line.separator")
+						+ "capacity " + options.serviceQueueCapacity + System.getProperty("line.separator")
+						+ "computed " + computedBuildings.get() + System.getProperty("line.separator");
+			}
+			else if(PATH_CITYGML.equals(path) || PATH_OBJ.equals(path))
+			{
+				if(!"POST".equals(exchange.getRequestMethod()))
+					throw new RequestException(405, "POST expected");
+				
+				Properties query = parseQuery(exchange.getRequestURI().getRawQuery());
+				Options requestOptions = getRequestOptions(query);
+				
+				//the request takes its first place before its body is read and parsed
+				if(!capacity.tryAcquire())
+					throw new RequestException(503, "Service busy");
+				int permits = 1;
+				try {
+					String body = new String(readAll(exchange.getRequestBody(), options.serviceMaxRequestBytes), CityGMLSplitter.CHARSET);
+					List<BuildingCallable> buildings;
+					if(PATH_CITYGML.equals(path))
+						buildings = readCityGML(body, requestOptions);
+					else
+						buildings = readObj(body, query.getProperty("id", "obj"), requestOptions);
+					
+					if(buildings.size() > options.serviceQueueCapacity)
+						throw new RequestException(413, buildings.size() + " buildings exceed the capacity of " + options.serviceQueueCapacity);
+					if(buildings.size() > permits)
+					{
+						if(!capacity.tryAcquire(buildings.size() - permits))
+							throw new RequestException(503, "Service busy");
+						permits = buildings.size();
+					}
+					
+					StringBuilder result = new StringBuilder();
+					for(String line : compute(buildings, PATH_CITYGML.equals(path)))
+						result.append(line).append(System.getProperty("line.separator"));
+					response = result.toString();
+				} finally {
+					capacity.release(permits);
+				}
+			}
+			else
+			{
+				throw new RequestException(404, "Unknown path " + path);
+			}
+		} catch (RequestException e) {
+			status = e.status;
+			response = e.getMessage() + System.getProperty("line.separator");
+		} catch (Exception e) {
+			status = 500;
+			response = e + System.getProperty("line.separator");
+		}
+		
+		byte[] bytes = response.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try(OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+	
+	/**
+	 * Rejects requests of web pages: requests with an Origin header and requests whose Host header is not a loopback address
+	 * @param exchange
+	 * @throws RequestException
+	 */
+	private static void checkOrigin(HttpExchange exchange) throws RequestException
+	{
+		if(exchange.getRequestHeaders().getFirst("Origin") != null)
+			throw new RequestException(403, "Cross-origin requests are not allowed");
+		
+		String host = exchange.getRequestHeaders().getFirst("Host");
+		if(host == null)
+			return;
+		host = host.trim().toLowerCase();
+		int port = host.lastIndexOf(':');
+		if(port > host.lastIndexOf(']'))
+			host = host.substring(0, port);
+		if(!LOOPBACK_HOSTS.contains(host))
+			throw new RequestException(403, "Host " + host + " is not allowed");
+	}
+	
+	/**
+	 * Returns the options of a request: the options of the service, overridden by the query parameters REQUEST_OPTIONS
+	 * @param query
+	 * @return
+	 * @throws RequestException
+	 */
+	private Options getRequestOptions(Properties query) throws RequestException
+	{
+		Properties properties = options.toProperties();
+		for(String name : query.stringPropertyNames())
+		{
+			if(name.equals("id"))
+				continue;
+			if(!REQUEST_OPTIONS.contains(name))
+				throw new RequestException(400, "Option " + name + " can not be set by a request");
+			properties.setProperty(name, query.getProperty(name));
+		}
+		
+		Options result;
+		try {
+			result = Options.fromProperties(properties);
+		} catch (NumberFormatException e) {
+			throw new RequestException(400, "Invalid option: " + e.getMessage());
+		}
+		if(!(result.voxelsize >= options.serviceMinVoxelsize) || Double.isInfinite(result.voxelsize))
+			throw new RequestException(400, "voxelsize must be at least " + options.serviceMinVoxelsize);
+		if(result.engine < Options.ENGINE_SCALAR || result.engine > Options.ENGINE_TRIANGLES)
+			throw new RequestException(400, "Unknown engine " + result.engine);
+		return result;
+	}
+	
+	/**
+	 * Computes the buildings of a request in parallel and returns their result lines in the order of buildings.
+	 * The places of the buildings in the capacity of the service must have been taken. A building is started when its 
+	 * estimated peak memory fits into the memory budget, buildings which never fit are rejected before any building is started.
+	 * Returns when all buildings are finished, also if one of them fails.
+	 * @param buildings
+	 * @param citygml
+	 * @return
+	 * @throws Exception
+	 */
+	private List<String> compute(List<BuildingCallable> buildings, final boolean citygml) throws Exception
+	{
+		final long[] estimates = new long[buildings.size()];
+		for(int i = 0; i < buildings.size(); i++)
+		{
+			BuildingCallable b = buildings.get(i);
+			b.setBuildingId(sanitizeId(b.getBuildingId()));
+			if(b.getPolygons() == null)
+				b.setPolygons(new PolygonConstructor().constructPolygons(b.getBsp()));
+			if(b.getPolygons().isEmpty())
+				continue;
+			BoundingBox bb = new Voluminator(b.getOptions()).computeBoundingBox(b.getPolygons());
+			estimates[i] = MemoryEstimator.estimatePeakMemory(bb, b.getPolygons().size(), b.getOptions());
+			if(estimates[i] > memory.getBudget())
+				throw new RequestException(413, "Building " + b.getBuildingId() + " needs about " + estimates[i] 
+						+ " bytes, more than the memory budget of " + memory.getBudget());
+		}
+		
+		List<Future<String>> futures = new ArrayList<Future<String>>();
+		for(int i = 0; i < buildings.size(); i++)
+		{
+			final BuildingCallable b = buildings.get(i);
+			final long estimate = estimates[i];
+			futures.add(executerService.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					memory.acquire(estimate);
+					try {
+						b.compute(true);
+						b.writeVoxelvolume();
+					} finally {
+						memory.release(estimate);
+					}
+					computedBuildings.incrementAndGet();
+					if(citygml)
+						return ThreadedVolumeCalculationCityGML.getResultLine(b, b.getOptions().probabilityversion);
+					return ThreadedVolumeCalculationObj.getResultLine(b);
+				}
+			}));
+		}
+		
+		List<String> result = new ArrayList<String>();
+		Exception failure = null;
+		for(Future<String> f : futures)
+		{
+			try {
+				result.add(f.get());
+			} catch (ExecutionException e) {
+				if(failure == null)
+					failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+			}
+		}
+		if(failure != null)
+			throw failure;
+		return result;
+	}
+	
+	/**
+	 * Reduces a building id to letters, digits, '.', '-' and '_', so that it can be used in file names
+	 * @param id
+	 * @return
+	 */
+	static String sanitizeId(String id)
+	{
+		if(id == null || id.isEmpty())
+			return "building";
+		String result = id.replaceAll("[^A-Za-z0-9._-]", "_");
+		if(result.startsWith("."))
+			result = "_" + result;
+		return result;
+	}
+	
+	/**
+	 * Reads the buildings of a CityGML document or fragment
+	 * @param body
+	 * @param options
+	 * @return
+	 * @throws Exception
+	 */
+	private static List<BuildingCallable> readCityGML(String body, Options options) throws Exception
+	{
+		if(body.indexOf("CityModel") < 0)
+		{
+			if(body.indexOf("cityObjectMember") < 0)
+				body = "<core:cityObjectMember>" + body + "</core:cityObjectMember>";
+			body = DEFAULT_HEADER + body + DEFAULT_FOOTER;
+		}
+		
+		List<BuildingCallable> buildings = new ArrayList<BuildingCallable>();
+		CityGMLSplitter splitter = new CityGMLSplitter(new StringReader(body));
+		String header = splitter.getHeader();
+		String member;
+		try {
+			while((member = splitter.nextMember()) != null)
+				buildings.addAll(BuildingReader.parseDocument(CityGMLSplitter.wrapMember(header, member), null, options));
+		} catch (Exception e) {
+			throw new RequestException(400, "Invalid CityGML: " + e.getMessage());
+		}
+		return buildings;
+	}
+	
+	/**
+	 * Reads the objects of OBJ data
+	 * @param body
+	 * @param defaultName
+	 * @param options
+	 * @return
+	 * @throws RequestException
+	 */
+	private static List<BuildingCallable> readObj(String body, String defaultName, Options options) throws RequestException
+	{
+		Map<String, Vector<Polygon>> objects;
+		try {
+			objects = new OBJReader().readObjects(new StringReader(body), defaultName);
+		} catch (RuntimeException e) {
+			throw new RequestException(400, "Invalid OBJ data: " + e);
+		}
+		
+		List<BuildingCallable> buildings = new ArrayList<BuildingCallable>();
+		for(Map.Entry<String, Vector<Polygon>> object : objects.entrySet())
+		{
+			BuildingCallable b = new BuildingCallable(options);
+			b.setBuildingId(object.getKey());
+			b.setPolygons(object.getValue());
+			buildings.add(b);
+		}
+		return buildings;
+	}
+	
+	/**
+	 * Parses the query of a request into properties
+	 * @param query
+	 * @return
+	 * @throws IOException
+	 */
+	private static Properties parseQuery(String query) throws IOException
+	{
+		Properties result = new Properties();
+		if(query == null)
+			return result;
+		for(String parameter : query.split("&"))
+		{
+			int separator = parameter.indexOf('=');
+			if(separator < 0)
+				result.setProperty(URLDecoder.decode(parameter, "UTF-8"), "true");
+			else
+				result.setProperty(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"), URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+		}
+		return result;
+	}
+	
+	/**
+	 * Reads a request body, throws a RequestException if it is larger than maxBytes
+	 * @param in
+	 * @param maxBytes
+	 * @return
+	 * @throws IOException
+	 * @throws RequestException
+	 */
+	private static byte[] readAll(InputStream in, long maxBytes) throws IOException, RequestException
+	{
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1 << 16];
+		int n;
+		while((n = in.read(buffer)) > 0)
+		{
+			if(result.size() + n > maxBytes)
+				throw new RequestException(413, "Request body exceeds " + maxBytes + " bytes");
+			result.write(buffer, 0, n);
+		}
+		return result.toByteArray();
+	}
+	
+	/**
+	 * Error of a request with its HTTP status
+	 */
+	private static class RequestException extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+		int status;
+		
+		RequestException(int status, String message)
+		{
+			super(message);
+			this.status = status;
+		}
+	}
+}
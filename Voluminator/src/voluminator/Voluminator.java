@@ -36,18 +36,20 @@
 package voluminator;
 
 import helperClasses.PolygonConstructor;
+import helperClasses.PolygonPreprocessor;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.TreeSet;
 import java.util.Vector;
 
 import org.citygml4j.model.citygml.building.BoundarySurfaceProperty;
 
 import dataTypes.BoundingBox;
-import dataTypes.Line;
 import dataTypes.Options;
 import dataTypes.Point;
 import dataTypes.Polygon;
+import dataTypes.VolumeEstimate;
 import dataTypes.Voxelvolume;
 
 
@@ -60,7 +62,41 @@ public class Voluminator {
 
 	Voxelvolume vox;
 	
-	static Options options; 
+	Options options;
+	
+	//reusable buffers for the intersections of a single line (used if duplicate intersections are removed)
+	private double[] leftCuts = new double[16];
+	private double[] rightCuts = new double[16];
+	private int numLeftCuts, numRightCuts;
+	
+	//voxel size used by the last automatic resolution computation
+	private double usedVoxelsize;
+	
+	//order in which the lines are tested by the early exit vote and how often the vote was decided after 0, 1, 2 or 3 lines
+	private int[] lineOrder;	//of the current building, reset by preprocess()
+	private long[] voteDepthStatistics = new long[4];	//of the current building, reset by preprocess()
+	
+	//order of the error model of the last extrapolation
+	private double extrapolationOrder;
+	
+	//volumes along the three axes of the last line integral computation
+	private double[] lineIntegralVolumes;
+	
+	//estimate of the last Monte Carlo computation
+	private VolumeEstimate volumeEstimate;
+	
+	//result of the last computation if the exact volume of a closed surface has been used instead of voxels
+	private boolean exactVolumeUsed;
+	private double exactVolume;
+	
+	//GroundSurfaces of the building for the footprint (cf. Options.FOOTPRINT_GROUND_SURFACE), may be null
+	private Vector<Polygon> groundSurfaces;
+	
+	//fraction of the voxels of the last classification which were skipped as outside of the footprint
+	private double skippedFraction;
+	
+	//if set, the voxel volume is not written by the computation but later by writeVoxelvolume(String, String, boolean)
+	private boolean deferVoxelExport = false;
 	
 	/**
 	 * Constructor
@@ -79,6 +115,544 @@ public class Voluminator {
 	 * @return
 	 */
 	public double computeVolume(Vector<Polygon> polygons)
+	{
+		polygons = preprocess(polygons);
+		if(computeExactVolume(polygons))
+			return exactVolume;
+		
+		//Create Voxelvolume
+		vox = createVoxelvolume(polygons, options.voxelsize);
+	
+		//per Voxel
+		classifyVoxels(polygons, false);
+
+		//Store Voxel_volume
+		writeVoxelvolume(false);
+		return vox.getVolume();
+	}
+	
+
+	/**
+	 * Computes the volume of an object as defined by Vector<Polygon> polygons. 
+	 * The difference to computeVolume(Vector<Polygon> polygons) is that instead of deciding by vote if a voxel is inside or outside,
+	 * this method saves the amount of 'inside-votes' in the voxel volume and computes a expectation value: 
+	 *  Volume = Sum over all voxel ( Volume_of_single_voxel * vote / max_rays ) 
+	 * @param polygons
+	 * @return
+	 */
+	public double computeVolumeProbabilityVersion(Vector<Polygon> polygons)
+	{
+		polygons = preprocess(polygons);
+		if(computeExactVolume(polygons))
+			return exactVolume;
+	
+		//Create Voxelvolume
+		vox = createVoxelvolume(polygons, options.voxelsize);
+		
+		//per Voxel
+		classifyVoxels(polygons, true);
+		
+		//Save Voxel_volume
+		writeVoxelvolume(true);
+		return vox.getVolumeProbabilityVersion(options.maxdirections);
+	}
+	
+	
+	/**
+	 * Computes the volume of an object as defined by Vector<Polygon> polygons for the coarse voxel sizes options.extrapolationVoxelsizes
+	 * and extrapolates it to voxel size 0 (Richardson extrapolation) with the error model V(h) = V + C * h^p. With three or more voxel sizes
+	 * the order p is fitted to the three finest ones, otherwise (or if the volumes do not converge monotonically) options.extrapolationOrder
+	 * is used. Each voxel size is computed options.extrapolationShifts times with grid origins shifted by fractions of a voxel 
+	 * and the volumes are averaged, which removes the bias of the alignment of the grid to the object.
+	 * The volumes are computed by voxels with the engine of the options or, if options.lineIntegral is set, by line integrals.
+	 * getVolumeEstimate() returns the extrapolated volume with the error estimate as interval (the difference to the volume 
+	 * of the finest voxel size combined with the standard errors of the shifts of the two finest voxel sizes, propagated through the
+	 * extrapolation) and the number of computed volumes as samples. With a single voxel size the shifted volumes are only averaged.
+	 * Throws an IllegalArgumentException if there is no voxel size or they are not positive and distinct.
+	 * @param polygons
+	 * @return
+	 */
+	public double computeVolumeExtrapolated(Vector<Polygon> polygons)
+	{
+		//from the coarsest to the finest voxel size
+		double[] h = options.extrapolationVoxelsizes.clone();
+		Arrays.sort(h);
+		if(h.length == 0 || !(h[0] > 0.0))
+			throw new IllegalArgumentException("extrapolationVoxelsizes needs at least one voxel size and only positive ones");
+		for(int i = 1; i < h.length; i++)
+		{
+			if(h[i] == h[i-1])
+				throw new IllegalArgumentException("extrapolationVoxelsizes contains the voxel size " + h[i] + " twice");
+		}
+		
+		polygons = preprocess(polygons);
+		vox = null;
+		if(computeExactVolume(polygons))
+		{
+			volumeEstimate = new VolumeEstimate(exactVolume, exactVolume, exactVolume, 1.0, 0);
+			return exactVolume;
+		}
+		
+		for(int i = 0; i < h.length / 2; i++)
+		{
+			double swap = h[i];
+			h[i] = h[h.length - 1 - i];
+			h[h.length - 1 - i] = swap;
+		}
+		
+		int shifts = Math.max(1, options.extrapolationShifts);
+		double[] volumes = new double[h.length];
+		//standard errors of the averages of the shifts
+		double[] shiftErrors = new double[h.length];
+		for(int level = 0; level < h.length; level++)
+		{
+			double sum = 0.0, sumSquares = 0.0;
+			for(int shift = 0; shift < shifts; shift++)
+			{
+				double v = computeVolumeShifted(polygons, h[level], shift);
+				sum += v;
+				sumSquares += v * v;
+			}
+			volumes[level] = sum / shifts;
+			if(shifts > 1)
+				shiftErrors[level] = Math.sqrt(Math.max(0.0, (sumSquares - shifts * volumes[level] * volumes[level]) / (shifts - 1)) / shifts);
+		}
+		
+		int n = h.length;
+		double volume = volumes[n - 1];
+		double shiftError = shiftErrors[n - 1];
+		extrapolationOrder = options.extrapolationOrder;
+		if(n >= 3)
+			extrapolationOrder = fitOrder(h[n-3], h[n-2], h[n-1], volumes[n-3], volumes[n-2], volumes[n-1], extrapolationOrder);
+		if(n >= 2)
+		{
+			double p = extrapolationOrder;
+			double c = (volumes[n-2] - volumes[n-1]) / (Math.pow(h[n-2], p) - Math.pow(h[n-1], p));
+			volume = volumes[n-1] - c * Math.pow(h[n-1], p);
+			//volume = (1 + r) * volumes[n-1] - r * volumes[n-2] with r = h[n-1]^p / (h[n-2]^p - h[n-1]^p)
+			double r = Math.pow(h[n-1], p) / (Math.pow(h[n-2], p) - Math.pow(h[n-1], p));
+			shiftError = Math.hypot((1 + r) * shiftErrors[n-1], r * shiftErrors[n-2]);
+		}
+		double error = Math.hypot(volume - volumes[n-1], shiftError);
+		volumeEstimate = new VolumeEstimate(volume, volume - error, volume + error, 0.0, (long) n * shifts);
+		return volume;
+	}
+	
+	
+	/**
+	 * Fits the order p of the error model V(h) = V + C * h^p to the volumes v1, v2, v3 of the voxel sizes h1 > h2 > h3 by bisection.
+	 * Returns defaultOrder if the volumes do not converge monotonically or p is not between 1 and 4 (the error of the boundary voxels 
+	 * decreases at least linearly, higher orders are not plausible for voxels).
+	 * @param h1
+	 * @param h2
+	 * @param h3
+	 * @param v1
+	 * @param v2
+	 * @param v3
+	 * @param defaultOrder
+	 * @return
+	 */
+	private static double fitOrder(double h1, double h2, double h3, double v1, double v2, double v3, double defaultOrder)
+	{
+		if((v1 - v2) * (v2 - v3) <= 0.0)
+			return defaultOrder;
+		double ratio = (v1 - v2) / (v2 - v3);
+		double low = 1.0, high = 4.0;
+		if(ratio < modelRatio(h1, h2, h3, low) || ratio > modelRatio(h1, h2, h3, high))
+			return defaultOrder;
+		for(int i = 0; i < 60; i++)
+		{
+			double mid = (low + high) / 2.0;
+			if(modelRatio(h1, h2, h3, mid) < ratio)
+				low = mid;
+			else
+				high = mid;
+		}
+		return (low + high) / 2.0;
+	}
+	
+	/**
+	 * Ratio of the differences of the volumes of the voxel sizes h1, h2, h3 in the error model of order p
+	 * @param h1
+	 * @param h2
+	 * @param h3
+	 * @param p
+	 * @return
+	 */
+	private static double modelRatio(double h1, double h2, double h3, double p)
+	{
+		return (Math.pow(h1, p) - Math.pow(h2, p)) / (Math.pow(h2, p) - Math.pow(h3, p));
+	}
+	
+	/**
+	 * Computes the volume with the given voxel size and the grid origin shifted by the shift-th point of an additive recurrence 
+	 * (fractions of a voxel, shift 0 is not shifted). The voxel volume is released afterwards.
+	 * @param polygons
+	 * @param voxelsize
+	 * @param shift
+	 * @return
+	 */
+	private double computeVolumeShifted(Vector<Polygon> polygons, double voxelsize, int shift)
+	{
+		//same offset of the bounding box as for the voxel volume
+		BoundingBox bb = computeBoundingBox(polygons);
+		double offset = 0.005;
+		double[] min = new double[3];
+		for(int i = 0; i < 3; i++)
+		{
+			//1 / phi^(i+1) with the generalized golden ratio phi of dimension 3
+			double fraction = (shift * Math.pow(1.0 / 1.2207440846057595, i + 1)) % 1.0;
+			min[i] = bb.minPoint.coords[i] - offset - fraction * voxelsize;
+		}
+		Point minPoint = new Point(min[0], min[1], min[2]);
+		Point maxPoint = new Point(bb.maxPoint.coords[0]+offset,bb.maxPoint.coords[1]+offset,bb.maxPoint.coords[2]+offset);
+		
+		if(options.lineIntegral)
+		{
+			//open surfaces are classified by vote (cf. computeVolumeLineIntegral)
+			ColumnRasterEngine engine = new ColumnRasterEngine(options);
+			double volume = engine.computeLineIntegralVolume(polygons, minPoint, maxPoint, voxelsize, null);
+			if(engine.getUnpairedColumns() == 0)
+				return volume;
+		}
+		
+		vox = new Voxelvolume(minPoint, maxPoint, voxelsize, options.voxelStorage, options.voxelStorageDirectory);
+		classifyVoxels(polygons, options.probabilityversion);
+		double volume = getVolume(options.probabilityversion);
+		vox.release();
+		vox = null;
+		return volume;
+	}
+	
+	
+	/**
+	 * Computes the volume of an object as defined by Vector<Polygon> polygons from the lengths inside the object of the lines 
+	 * through the voxel centers in the directions of the three axes (cf. ColumnRasterEngine.computeLineIntegralVolume). 
+	 * Only the 2D lattices of the lines are needed instead of the 3D lattice of the voxels, so the same accuracy is reached with 
+	 * far fewer rays. No voxel volume is created. The volumes of the three axes are available by getLineIntegralVolumes().
+	 * The line integrals need a closed surface: a gap changes the inside length of every column through it, whereas the vote 
+	 * of the 6 rays of a voxel tolerates it. If any column has an odd number of crossings, the voxels are classified by vote instead
+	 * (in the probability version if options.probabilityversion is set).
+	 * @param polygons
+	 * @return
+	 */
+	public double computeVolumeLineIntegral(Vector<Polygon> polygons)
+	{
+		polygons = preprocess(polygons);
+		vox = null;
+		if(computeExactVolume(polygons))
+			return exactVolume;
+		
+		//same offset of the bounding box as for the voxel volume
+		BoundingBox bb = computeBoundingBox(polygons);
+		double offset = 0.005;
+		Point min = new Point(bb.minPoint.coords[0]-offset,bb.minPoint.coords[1]-offset,bb.minPoint.coords[2]-offset);
+		Point max = new Point(bb.maxPoint.coords[0]+offset,bb.maxPoint.coords[1]+offset,bb.maxPoint.coords[2]+offset);
+		
+		lineIntegralVolumes = new double[3];
+		ColumnRasterEngine engine = new ColumnRasterEngine(options);
+		double volume = engine.computeLineIntegralVolume(polygons, min, max, options.voxelsize, lineIntegralVolumes);
+		if(engine.getUnpairedColumns() == 0)
+			return volume;
+		
+		//open surface
+		if(options.debugMode)
+			System.out.println("line integral: " + engine.getUnpairedColumns() + " columns with unpaired crossings, voxels are classified by vote");
+		vox = createVoxelvolume(polygons, options.voxelsize);
+		classifyVoxels(polygons, options.probabilityversion);
+		writeVoxelvolume(options.probabilityversion);
+		return getVolume(options.probabilityversion);
+	}
+	
+	
+	/**
+	 * Estimates the volume of an object as defined by Vector<Polygon> polygons by classifying sample points in its bounding box
+	 * with the same vote as the voxels, until the confidence interval is within options.monteCarloRelativeError of the estimate 
+	 * (cf. MonteCarloVolume). The points are random or taken from Sobol sequences depending on options.monteCarlo. 
+	 * No voxel volume is created, the confidence interval and the number of points are available by getVolumeEstimate().
+	 * @param polygons
+	 * @return
+	 */
+	public double computeVolumeMonteCarlo(Vector<Polygon> polygons)
+	{
+		polygons = preprocess(polygons);
+		vox = null;
+		if(computeExactVolume(polygons))
+		{
+			volumeEstimate = new VolumeEstimate(exactVolume, exactVolume, exactVolume, 1.0, 0);
+			return exactVolume;
+		}
+		
+		//same offset of the bounding box as for the voxel volume
+		BoundingBox bb = computeBoundingBox(polygons);
+		double offset = 0.005;
+		Point min = new Point(bb.minPoint.coords[0]-offset,bb.minPoint.coords[1]-offset,bb.minPoint.coords[2]-offset);
+		Point max = new Point(bb.maxPoint.coords[0]+offset,bb.maxPoint.coords[1]+offset,bb.maxPoint.coords[2]+offset);
+		
+		Polygon[] polygonArray = polygons.toArray(new Polygon[polygons.size()]);
+		volumeEstimate = new MonteCarloVolume(options).estimate(this, polygonArray, min, max);
+		return volumeEstimate.getVolume();
+	}
+	
+	
+	/**
+	 * Computes the exact volume if requested by the options and the polygons form the closed and consistently oriented surface 
+	 * of a single solid (cf. SurfaceIntegralVolume.isSolid). Returns true if the exact volume has been stored in exactVolume. In this case no voxel volume
+	 * is created (getVoxelvolume() returns null).
+	 * @param polygons
+	 * @return
+	 */
+	private boolean computeExactVolume(Vector<Polygon> polygons)
+	{
+		exactVolumeUsed = false;
+		if(!options.exactVolumeForClosedSurfaces)
+			return false;
+		
+		SurfaceIntegralVolume siv = new SurfaceIntegralVolume(options.preprocessTolerance);
+		if(!siv.isSolid(polygons))
+			return false;
+		double volume = Math.abs(siv.computeSignedVolume(polygons));
+		if(volume == 0.0)
+			return false;
+		
+		vox = null;
+		exactVolume = volume;
+		exactVolumeUsed = true;
+		return true;
+	}
+	
+	
+	/**
+	 * Computes the volume of an object for several voxel sizes in a single pass.
+	 * The voxel volume is classified only once with the finest voxel size. Since all voxel volumes share the same origin,
+	 * the voxel centers of a voxel size which is an integer multiple of the finest one are a subset of the finest voxel centers.
+	 * Their classification (and thus the volume) is taken from the finest voxel volume without casting any further rays.
+	 * Voxel sizes which are no integer multiple of the finest voxel size are computed separately.
+	 * Depending on options.probabilityversion the volumes are computed by vote or as expectation value.
+	 * The volumes are returned in the order of voxelsizes, the voxel volume of the finest voxel size is kept (cf. getVoxelvolume()). 
+	 * @param polygons
+	 * @param voxelsizes
+	 * @return
+	 */
+	public double[] computeVolumeMultiResolution(Vector<Polygon> polygons, double[] voxelsizes)
+	{
+		polygons = preprocess(polygons);
+		exactVolumeUsed = false;
+		boolean probabilityversion = options.probabilityversion;
+		
+		double finest = voxelsizes[0];
+		for(double v : voxelsizes)
+			finest = Math.min(finest, v);
+		
+		//Create and classify the finest Voxelvolume
+		vox = createVoxelvolume(polygons, finest);
+		classifyVoxels(polygons, probabilityversion);
+		writeVoxelvolume(probabilityversion);
+		
+		double[] result = new double[voxelsizes.length];
+		for(int i = 0; i < voxelsizes.length; i++)
+		{
+			int step = (int) Math.round(voxelsizes[i] / finest);
+			if(Math.abs(step * finest - voxelsizes[i]) <= 1e-9 * voxelsizes[i])
+			{
+				//derive the volume from every step-th voxel of the finest voxel volume
+				if(probabilityversion)
+					result[i] = vox.getVolumeProbabilityVersion(options.maxdirections, step);
+				else
+					result[i] = vox.getVolume(step);
+			}
+			else
+			{
+				//not aligned with the finest voxel volume: classify separately
+				Voxelvolume finestVox = vox;
+				vox = createVoxelvolume(polygons, voxelsizes[i]);
+				classifyVoxels(polygons, probabilityversion);
+				if(probabilityversion)
+					result[i] = vox.getVolumeProbabilityVersion(options.maxdirections);
+				else
+					result[i] = vox.getVolume();
+				//free off-heap memory and memory-mapped files of the temporary voxel volume
+				vox.release();
+				vox = finestVox;
+			}
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Computes the volume of an object with a voxel size chosen for this object (cf. options.autoResolution):
+	 * Either the smallest voxel size which keeps the number of voxels within options.voxelBudget, or the voxel size at which
+	 * the volume converges. In the latter case the voxel size is halved starting from options.voxelsize. Since the voxel centers 
+	 * of the coarser voxel volume are voxel centers of the finer one as well, the scalar engine only classifies 7 of 8 voxels in each step.
+	 * The refinement stops if the relative change of the volume is less than options.convergenceTolerance, if the next step 
+	 * is expected to exceed options.autoResolutionTimeBudget or if it would exceed options.voxelBudget.
+	 * Depending on options.probabilityversion the volume is computed by vote or as expectation value.
+	 * The used voxel size is available by getUsedVoxelsize().
+	 * @param polygons
+	 * @return
+	 */
+	public double computeVolumeAutoResolution(Vector<Polygon> polygons)
+	{
+		polygons = preprocess(polygons);
+		exactVolumeUsed = false;
+		boolean probabilityversion = options.probabilityversion;
+		
+		if(options.autoResolution == Options.AUTO_RESOLUTION_VOXEL_BUDGET)
+		{
+			usedVoxelsize = getVoxelsizeForBudget(polygons, options.voxelBudget);
+			vox = createVoxelvolume(polygons, usedVoxelsize);
+			classifyVoxels(polygons, probabilityversion);
+		}
+		else
+		{
+			long start = System.currentTimeMillis();
+			usedVoxelsize = options.voxelsize;
+			vox = createVoxelvolume(polygons, usedVoxelsize);
+			classifyVoxels(polygons, probabilityversion);
+			double volume = getVolume(probabilityversion);
+			long levelTime = System.currentTimeMillis() - start;
+			long levelVoxels = vox.getNumberOfVoxels();
+			
+			while(true)
+			{
+				//the time of the next step is extrapolated from the time per classified voxel of the current one
+				long nextVoxels = Voxelvolume.getNumberOfVoxels(vox.minPoint, vox.maxPoint, usedVoxelsize / 2.0);
+				long nextClassified = getNumberOfRefinedVoxels(nextVoxels);
+				long elapsed = System.currentTimeMillis() - start;
+				double expected = Math.max(levelTime, 1) * (double) nextClassified / Math.max(levelVoxels, 1);
+				if(elapsed + expected > options.autoResolutionTimeBudget)
+					break;
+				if(nextVoxels > options.voxelBudget)
+					break;
+				
+				long levelStart = System.currentTimeMillis();
+				Voxelvolume coarse = vox;
+				vox = createVoxelvolume(polygons, usedVoxelsize / 2.0);
+				refineVoxels(coarse, polygons, probabilityversion);
+				//free off-heap memory and memory-mapped files of the coarse voxel volume
+				coarse.release();
+				double refinedVolume = getVolume(probabilityversion);
+				usedVoxelsize /= 2.0;
+				levelTime = System.currentTimeMillis() - levelStart;
+				levelVoxels = nextClassified;
+				
+				double change = Math.abs(refinedVolume - volume) / Math.max(Math.abs(refinedVolume), Double.MIN_VALUE);
+				volume = refinedVolume;
+				if(change < options.convergenceTolerance)
+					break;
+			}
+		}
+		
+		writeVoxelvolume(probabilityversion);
+		return getVolume(probabilityversion);
+	}
+	
+	
+	/**
+	 * Computes the smallest voxel size for which the voxel volume of the polygons consists of at most budget voxels
+	 * @param polygons
+	 * @param budget
+	 * @return
+	 */
+	private double getVoxelsizeForBudget(Vector<Polygon> polygons, long budget)
+	{
+		BoundingBox bb = computeBoundingBox(polygons);
+		double offset = 0.005;
+		double lx = bb.maxPoint.coords[0] - bb.minPoint.coords[0] + 2*offset;
+		double ly = bb.maxPoint.coords[1] - bb.minPoint.coords[1] + 2*offset;
+		double lz = bb.maxPoint.coords[2] - bb.minPoint.coords[2] + 2*offset;
+		
+		//bisection on the number of voxels as computed by the constructor of Voxelvolume
+		double low = 0.0, high = Math.max(lx, Math.max(ly, lz)) + 1.0;
+		for(int i = 0; i < 64; i++)
+		{
+			double mid = (low + high) / 2.0;
+			double count = ((int) (lx/mid + 1)) * (double) ((int) (ly/mid + 1)) * ((int) (lz/mid + 1));
+			if(count > budget)
+				low = mid;
+			else
+				high = mid;
+		}
+		return high;
+	}
+	
+	
+	/**
+	 * Classifies the voxels of vox which has half the voxel size of coarse and the same origin. 
+	 * The scalar engine takes the voxels at even indices from coarse and classifies all others by vote (columns outside of the footprint
+	 * are skipped, cf. options.footprintSkipping). The other engines classify whole voxel volumes, so vox is classified by the configured engine.
+	 * @param coarse
+	 * @param polygons
+	 * @param probabilityversion
+	 */
+	private void refineVoxels(Voxelvolume coarse, Vector<Polygon> polygons, boolean probabilityversion)
+	{
+		if(options.engine != Options.ENGINE_SCALAR)
+		{
+			classifyVoxels(polygons, probabilityversion);
+			return;
+		}
+		
+		skippedFraction = 0.0;
+		FootprintMask footprint = createFootprintMask(polygons);
+		Polygon[] polygonArray = polygons.toArray(new Polygon[polygons.size()]);
+		for(int x = 0 ; x < vox.sizex; x++ )
+		{
+			for(int y = 0 ; y < vox.sizey; y++ )
+			{
+				if(footprint != null && !footprint.contains(x, y))
+				{
+					for(int z = 0 ; z < vox.sizez; z++ )
+						vox.set(x, y, z, 0);
+					continue;
+				}
+				for(int z = 0 ; z < vox.sizez; z++ )
+				{
+					if(x%2 == 0 && y%2 == 0 && z%2 == 0 && x/2 < coarse.sizex && y/2 < coarse.sizey && z/2 < coarse.sizez)
+						vox.set(x, y, z, coarse.get(x/2, y/2, z/2));
+					else
+						vox.set(x, y, z, classifyVoxel(x, y, z, polygonArray, probabilityversion));
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Returns the number of voxels classified by refineVoxels for a refined voxel volume of voxels voxels: 
+	 * 7 of 8 for the scalar engine, all for the other engines
+	 * @param voxels
+	 * @return
+	 */
+	private long getNumberOfRefinedVoxels(long voxels)
+	{
+		if(options.engine == Options.ENGINE_SCALAR)
+			return voxels - voxels / 8;
+		return voxels;
+	}
+	
+	
+	/**
+	 * Volume of the current voxel volume, either by vote or as expectation value
+	 * @param probabilityversion
+	 * @return
+	 */
+	private double getVolume(boolean probabilityversion)
+	{
+		if(probabilityversion)
+			return vox.getVolumeProbabilityVersion(options.maxdirections);
+		return vox.getVolume();
+	}
+	
+	
+	/**
+	 * Creates the voxel volume for the bounding box of the polygons
+	 * @param polygons
+	 * @param voxelsize
+	 * @return
+	 */
+	private Voxelvolume createVoxelvolume(Vector<Polygon> polygons, double voxelsize)
 	{
 		//Compute BoundingBox
 		BoundingBox bb = computeBoundingBox(polygons);
@@ -87,110 +661,261 @@ public class Voluminator {
 		double offset = 0.005;
 		Point min = new Point(bb.minPoint.coords[0]-offset,bb.minPoint.coords[1]-offset,bb.minPoint.coords[2]-offset);
 		Point max = new Point(bb.maxPoint.coords[0]+offset,bb.maxPoint.coords[1]+offset,bb.maxPoint.coords[2]+offset);
-		//Create Voxelvolume
-		vox = new Voxelvolume(min, max, options.voxelsize);
+		return new Voxelvolume(min, max, voxelsize, options.voxelStorage, options.voxelStorageDirectory);
+	}
 	
-		//per Voxel
+	
+	/**
+	 * Classifies all voxels of vox. In the probability version the number of 'inside-votes' is stored, 
+	 * otherwise 1 if at least options.mindirections rays vote for the voxel being inside and 0 else.
+	 * @param polygons
+	 * @param probabilityversion
+	 */
+	private void classifyVoxels(Vector<Polygon> polygons, boolean probabilityversion)
+	{
+		skippedFraction = 0.0;
+		if(options.engine == Options.ENGINE_PACKET)
+		{
+			PacketRayEngine engine = new PacketRayEngine(options);
+			engine.setFootprintMask(createFootprintMask(polygons));
+			engine.classify(polygons, vox, probabilityversion);
+			return;
+		}
+		if(options.engine == Options.ENGINE_COLUMN)
+		{
+			new ColumnRasterEngine(options).classify(polygons, vox, probabilityversion);
+			return;
+		}
+		if(options.engine == Options.ENGINE_FLOODFILL)
+		{
+			new FloodFillEngine(options, this).classify(polygons, vox, probabilityversion);
+			return;
+		}
+		if(options.engine == Options.ENGINE_TRIANGLES)
+		{
+			new TriangleRayEngine(options).classify(polygons, vox, probabilityversion);
+			return;
+		}
+		
+		FootprintMask footprint = createFootprintMask(polygons);
+		//the loop over the voxels does not allocate any objects (cf. main.AllocationBenchmark)
+		Polygon[] polygonArray = polygons.toArray(new Polygon[polygons.size()]);
 		for(int x = 0 ; x < vox.sizex; x++ )
 		{
 			for(int y = 0 ; y < vox.sizey; y++ )
 			{
+				if(footprint != null && !footprint.contains(x, y))
+				{
+					for(int z = 0 ; z < vox.sizez; z++ )
+						vox.set(x, y, z, 0);
+					continue;
+				}
 				for(int z = 0 ; z < vox.sizez; z++ )
 				{
-					vox.voxel[x][y][z] = 0;
-					//construct lines
-					Point p = vox.getPointAt(x, y, z);
-					
-					Vector<Line> lines = new Vector<Line>();
-					lines.add(new Line(p, new Point(1,0,0)));
-					lines.add(new Line(p, new Point(0,1,0)));
-					lines.add(new Line(p, new Point(0,0,1)));
-					
-					int counter = getVote(lines, polygons);
-					
-					
-					if(counter >= options.mindirections)
-						vox.voxel[x][y][z] = 1;
+					vox.set(x, y, z, classifyVoxel(x, y, z, polygonArray, probabilityversion));
 				}
 			}
 		}
-
-		//Store Voxel_volume
-		try {
-			if(options.writeVoxelAsOBJ)
-				vox.writeOBJs(options.OBJfileOuter, options.OBJfileInner, false);
-		} catch (IOException e) {
+	}
+	
+	
+	/**
+	 * Computes the footprint of the polygons (or of the GroundSurfaces if requested and known) on the columns of vox 
+	 * and stores the fraction of skipped voxels. Returns null if options.footprintSkipping is off.
+	 * @param polygons
+	 * @return
+	 */
+	private FootprintMask createFootprintMask(Vector<Polygon> polygons)
+	{
+		if(options.footprintSkipping == Options.FOOTPRINT_OFF)
+			return null;
 		
-			e.printStackTrace();
+		Vector<Polygon> outline = polygons;
+		if(options.footprintSkipping == Options.FOOTPRINT_GROUND_SURFACE && groundSurfaces != null && !groundSurfaces.isEmpty())
+			outline = groundSurfaces;
+		FootprintMask footprint = new FootprintMask(vox, outline);
+		skippedFraction = footprint.getSkippedFraction();
+		if(options.debugMode)
+		{
+			System.out.println("footprint: " + footprint.getSkippedColumns() + " of " + ((long) vox.sizex * vox.sizey) 
+					+ " columns skipped (" + (100.0 * skippedFraction) + " %)" + (footprint.isClosed() ? "" : ", surface not closed"));
 		}
-		try {
-			if(options.writeVoxelAsSmallOBJ)
-				vox.writeSmallOBJs(options.OBJfileOuter, options.OBJfileInner);
-		} catch (IOException e) {
-			e.printStackTrace();
+		return footprint;
+	}
+	
+	
+	/**
+	 * Classifies the voxel at x,y,z of vox by the vote of 3 lines (= 6 rays)
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param polygons
+	 * @param probabilityversion
+	 * @return
+	 */
+	private int classifyVoxel(int x, int y, int z, Polygon[] polygons, boolean probabilityversion)
+	{
+		//center of the voxel as in Voxelvolume.getPointAt, the lines through it are given by their axis
+		double px = vox.minPoint.coords[0] + x*vox.voxsizex;
+		double py = vox.minPoint.coords[1] + y*vox.voxsizey;
+		double pz = vox.minPoint.coords[2] + z*vox.voxsizez;
+		return classifyPoint(px, py, pz, polygons, probabilityversion);
+	}
+	
+	
+	/**
+	 * Classifies the point px,py,pz by the vote of the 3 lines (= 6 rays) through it, cf. classifyVoxel
+	 * @param px
+	 * @param py
+	 * @param pz
+	 * @param polygons
+	 * @param probabilityversion
+	 * @return
+	 */
+	int classifyPoint(double px, double py, double pz, Polygon[] polygons, boolean probabilityversion)
+	{
+		if(options.earlyExitVoting && (!probabilityversion || options.earlyExitProbabilityVersion))
+			return classifyVoxelEarlyExit(px, py, pz, polygons, probabilityversion);
+		
+		int counter = 0;
+		for(int axis = 0; axis < 3; axis++)
+			counter += getVote(px, py, pz, axis, polygons);
+		
+		if(probabilityversion)
+			return counter;
+		if(counter >= options.mindirections)
+			return 1;
+		return 0;
+	}
+	
+	
+	/**
+	 * Classifies a voxel with center px,py,pz like classifyVoxel, but stops testing lines as soon as the result of the vote is fixed.
+	 * Lines are tested in the order of lineOrder. In the probability version the votes of untested lines are extrapolated, 
+	 * limited to options.maxdirections.
+	 * The number of tested lines is counted in voteDepthStatistics.
+	 * @param px
+	 * @param py
+	 * @param pz
+	 * @param polygons
+	 * @param probabilityversion
+	 * @return
+	 */
+	private int classifyVoxelEarlyExit(double px, double py, double pz, Polygon[] polygons, boolean probabilityversion)
+	{
+		if(lineOrder == null)
+			lineOrder = computeLineOrder(polygons);
+		
+		int counter = 0;
+		int tested = 0;
+		while(tested < 3)
+		{
+			//each untested line can add at most 2 votes
+			int open = 2 * (3 - tested);
+			if(counter >= options.mindirections || counter + open < options.mindirections)
+				break;
+			
+			int axis = lineOrder[tested];
+			counter += getVote(px, py, pz, axis, polygons);
+			tested++;
+		}
+		voteDepthStatistics[tested]++;
+		
+		if(probabilityversion)
+		{
+			if(tested == 3)
+				return counter;
+			if(tested == 0)
+				return (counter >= options.mindirections) ? options.maxdirections : 0;
+			return (int) Math.min(options.maxdirections, Math.round(counter * 3.0 / tested));
 		}
-		return vox.getVolume();
+		if(counter >= options.mindirections)
+			return 1;
+		return 0;
 	}
 	
-
+	
 	/**
-	 * Computes the volume of an object as defined by Vector<Polygon> polygons. 
-	 * The difference to computeVolume(Vector<Polygon> polygons) is that instead of deciding by vote if a voxel is inside or outside,
-	 * this method saves the amount of 'inside-votes' in the voxel volume and computes a expectation value: 
-	 *  Volume = Sum over all voxel ( Volume_of_single_voxel * vote / max_rays ) 
+	 * Orders the three axis directions by the number of polygons which are not parallel to them. 
+	 * Testing a line against a parallel polygon is cheap, so lines with fewer non-parallel polygons are tested first.
 	 * @param polygons
 	 * @return
 	 */
-	public double computeVolumeProbabilityVersion(Vector<Polygon> polygons)
+	private int[] computeLineOrder(Polygon[] polygons)
 	{
-	
-		//Compute BoundingBox
-		BoundingBox bb = computeBoundingBox(polygons);
-	
-		//Offset the bounding box for stability reasons
-		double offset = 0.005;
-		Point min = new Point(bb.minPoint.coords[0]-offset,bb.minPoint.coords[1]-offset,bb.minPoint.coords[2]-offset);
-		Point max = new Point(bb.maxPoint.coords[0]+offset,bb.maxPoint.coords[1]+offset,bb.maxPoint.coords[2]+offset);
-		//Create Voxelvolume
-		vox = new Voxelvolume(min, max, options.voxelsize);
-		
-		
-		//per Voxel
-		for(int x = 0 ; x < vox.sizex; x++ )
+		final int[] count = new int[3];
+		for(Polygon p : polygons)
 		{
-			for(int y = 0 ; y < vox.sizey; y++ )
+			for(int axis = 0; axis < 3; axis++)
 			{
-				for(int z = 0 ; z < vox.sizez; z++ )
-				{
-					vox.voxel[x][y][z] = 0;
-					//construct lines
-					Point p = vox.getPointAt(x, y, z);
-					
-					Line lx = new Line(p, new Point(1,0,0));
-					Line ly = new Line(p, new Point(0,1,0));
-					Line lz = new Line(p, new Point(0,0,1));
-					
-					
-					Vector<Line> lines = new Vector<Line>();
-					lines.add(lx);
-					lines.add(lz);
-					lines.add(ly);
-						
-					vox.voxel[x][y][z] = getVote(lines, polygons);
-				}
+				//same criterion as Plane.isParallel for a unit direction vector
+				if(Math.abs(p.getPlane().normal.coords[axis]) >= 0.0001)
+					count[axis]++;
 			}
 		}
-		
-		//Save Voxel_volume
+		Integer[] order = {0, 1, 2};
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Integer.compare(count[a], count[b]);
+			}
+		});
+		return new int[] {order[0], order[1], order[2]};
+	}
+	
+	
+	/**
+	 * Stores the voxel volume as OBJ if requested by the options, unless the export is deferred (cf. setDeferVoxelExport)
+	 * @param probabilityversion
+	 */
+	private void writeVoxelvolume(boolean probabilityversion)
+	{
+		if(deferVoxelExport)
+			return;
+		writeVoxelvolume(options.OBJfileOuter, options.OBJfileInner, probabilityversion);
+	}
+
+	/**
+	 * Stores the voxel volume of the last computation as OBJ files OBJfileOuter and OBJfileInner if requested by the options
+	 * @param OBJfileOuter
+	 * @param OBJfileInner
+	 * @param probabilityversion
+	 */
+	public void writeVoxelvolume(String OBJfileOuter, String OBJfileInner, boolean probabilityversion)
+	{
+		writeVoxelvolume(vox, options, OBJfileOuter, OBJfileInner, probabilityversion);
+	}
+	
+	/**
+	 * Stores the voxel volume vox as OBJ files OBJfileOuter and OBJfileInner if requested by options
+	 * @param vox
+	 * @param options
+	 * @param OBJfileOuter
+	 * @param OBJfileInner
+	 * @param probabilityversion
+	 */
+	static void writeVoxelvolume(Voxelvolume vox, Options options, String OBJfileOuter, String OBJfileInner, boolean probabilityversion)
+	{
+		if(vox == null)
+			return;
 		try {
 			if(options.writeVoxelAsOBJ)
-				vox.writeOBJs(options.OBJfileOuter, options.OBJfileInner, true);
+				vox.writeOBJs(OBJfileOuter, OBJfileInner, probabilityversion);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if(probabilityversion)
+		{
+			if(options.writeVoxelAsSmallOBJ)
+				System.out.println("Writing small obj files is currently not implemented for the Probability Version!");
+			return;
+		}
+		try {
+			if(options.writeVoxelAsSmallOBJ)
+				vox.writeSmallOBJs(OBJfileOuter, OBJfileInner);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		if(options.writeVoxelAsSmallOBJ)
-			System.out.println("Writing small obj files is currently not implemented for the Probability Version!");
-		return vox.getVolumeProbabilityVersion(options.maxdirections);
 	}
 	
 	
@@ -206,6 +931,8 @@ public class Voluminator {
 	@Deprecated
 	public double computeVolumeOldVersion(Vector<Polygon> polygons)
 	{
+		polygons = preprocess(polygons);
+		
 		//Compute BoundingBox
 		BoundingBox bb = computeBoundingBox(polygons);
 	
@@ -214,7 +941,8 @@ public class Voluminator {
 		Point min = new Point(bb.minPoint.coords[0]-offset,bb.minPoint.coords[1]-offset,bb.minPoint.coords[2]-offset);
 		Point max = new Point(bb.maxPoint.coords[0]+offset,bb.maxPoint.coords[1]+offset,bb.maxPoint.coords[2]+offset);
 		//Create Voxelvolume
-		vox = new Voxelvolume(min, max, options.voxelsize);
+		vox = new Voxelvolume(min, max, options.voxelsize, options.voxelStorage, options.voxelStorageDirectory);
+		Polygon[] polygonArray = polygons.toArray(new Polygon[polygons.size()]);
 	
 		//per Voxel
 		for(int x = 0 ; x < vox.sizex; x++ )
@@ -223,35 +951,28 @@ public class Voluminator {
 			{
 				for(int z = 0 ; z < vox.sizez; z++ )
 				{
-					vox.voxel[x][y][z] = 0;
+					vox.set(x, y, z, 0);
 					//construct lines
-					Point p = vox.getPointAt(x, y, z);
-					
-					Vector<Line> lines = new Vector<Line>();
-					lines.add(new Line(p, new Point(1,0,0)));
-					lines.add(new Line(p, new Point(0,1,0)));
-					lines.add(new Line(p, new Point(0,0,1)));
+					double px = vox.minPoint.coords[0] + x*vox.voxsizex;
+					double py = vox.minPoint.coords[1] + y*vox.voxsizey;
+					double pz = vox.minPoint.coords[2] + z*vox.voxsizez;
 					
 					// Old version... not as described in paper!! Here lines are tested individually!!
-					  
-				 	Line lx = new Line(p, new Point(1,0,0));
-					Line ly = new Line(p, new Point(0,1,0));
-					Line lz = new Line(p, new Point(0,0,1));
 					
 					//Tests in 3 directions
 					//OR - composition
 					int counter = 0;
-					if( testLinePolygons(lx, polygons) ) 
+					if( testLinePolygons(px, py, pz, 0, polygonArray) ) 
 						counter++;						
 					
-					if( testLinePolygons(ly, polygons) )
+					if( testLinePolygons(px, py, pz, 1, polygonArray) )
 						counter++;
 					
-					if( testLinePolygons(lz, polygons) )
+					if( testLinePolygons(px, py, pz, 2, polygonArray) )
 						counter++;
 
 					if(counter >= options.mindirections)
-						vox.voxel[x][y][z] = 1;
+						vox.set(x, y, z, 1);
 				}
 			}
 		}
@@ -274,81 +995,78 @@ public class Voluminator {
 	}
 	
 	/**
-	 * Computes the Bounding Box of a set of polygons
+	 * Called at the start of each computation: resets the state kept for the previous building (line order and vote depth 
+	 * statistics of the early exit vote) and cleans up the polygons if requested by the options (cf. PolygonPreprocessor), 
+	 * otherwise returns them unchanged.
 	 * @param polygons
 	 * @return
 	 */
-	public BoundingBox computeBoundingBox(Vector<Polygon> polygons)
+	private Vector<Polygon> preprocess(Vector<Polygon> polygons)
 	{
-		BoundingBox bb = new BoundingBox();
+		lineOrder = null;
+		voteDepthStatistics = new long[4];
 		
-		for(Polygon p : polygons)
+		if(!options.preprocessPolygons)
+			return polygons;
+		
+		PolygonPreprocessor pp = new PolygonPreprocessor(options.preprocessTolerance);
+		Vector<Polygon> result = pp.preprocess(polygons);
+		if(options.debugMode)
 		{
-			bb.updateByBBox(p.getBoundingBox());
+			System.out.println("preprocessing: " + polygons.size() + " -> " + result.size() + " polygons (" 
+					+ pp.getRemovedDegenerate() + " degenerate, " + pp.getRemovedDuplicates() + " duplicates, " 
+					+ pp.getMergedPolygons() + " merged)");
 		}
-		
-		return bb;
+		return result;
 	}
 	
-
-
 	/**
-	 * Computes the 'vote' for all lines (meaning twice as many rays)
-	 * Returns the number of rays which vote for the point being inside the object.
-	 * Attention: this makes sense only if the starting point of all lines are identical!
-	 * @param lines
+	 * Computes the Bounding Box of a set of polygons
 	 * @param polygons
 	 * @return
 	 */
-	private int getVote(Vector<Line> lines, Vector<Polygon> polygons)
+	public BoundingBox computeBoundingBox(Vector<Polygon> polygons)
 	{
-		int sumVotes = 0;
+		BoundingBox bb = new BoundingBox();
 		
-		for(Line l : lines)
+		for(Polygon p : polygons)
 		{
-			sumVotes +=  getVote(l, polygons);
+			bb.updateByBBox(p.getBoundingBox());
 		}
 		
-		return sumVotes;
+		return bb;
 	}
 	
+
+
 	/**
 	 * Gets the 'vote' for one line = two rays. Both rays start at the starting point of line l, one ray goes into the positive,
 	 * the other into the negative direction defined by the line.
 	 * Returns 0 if both rays result in a even number of intersections meaning that both rays vote for the point being outside of the object.
 	 * Returns 1 if only one rays result in an uneven number of intersections meaning that one ray votes for the point being inside of the object.
 	 * Returns 2 if both rays result in an uneven number of intersections meaning that both rays vote for the point being inside of the object.
-	 * @param l
+	 * The line is given by its starting point px,py,pz and the axis of its direction (cf. Polygon.lineCuts).
+	 * @param px
+	 * @param py
+	 * @param pz
+	 * @param axis
 	 * @param polygons
 	 * @return
 	 */
-	private int getVote(Line l, Vector<Polygon> polygons)
+	private int getVote(double px, double py, double pz, int axis, Polygon[] polygons)
 	{
 		
 		if(options.removeDuplicateIntersections)
 		{
 			int result = 0;
-			//By using TreeSet as data structure, duplicate intersections are removed
-			TreeSet<Double> left = new TreeSet<Double>();
-			TreeSet<Double> right = new TreeSet<Double>();
-			for(Polygon p : polygons)
-			{
-				double cut = p.LineCutsPolygon(l);
-				//Test if the intersection is in positive or negative direction on the line
-				if(cut > 0.0)
-				{
-					right.add(cut);
-				}
-				
-				if(cut < 0.0)
-				{
-					left.add(cut);
-				}
-			}
+			collectCuts(px, py, pz, axis, polygons);
+			//duplicate intersections are removed by counting only distinct values
+			int left = countDistinct(leftCuts, numLeftCuts, options.duplicateIntersectionTolerance);
+			int right = countDistinct(rightCuts, numRightCuts, options.duplicateIntersectionTolerance);
 			
-			if( left.size() > 0 && (left.size()%2) == 1)
+			if( left > 0 && (left%2) == 1)
 				result++;
-			if( right.size() > 0 && (right.size()%2) == 1)
+			if( right > 0 && (right%2) == 1)
 				result++;
 			return result;
 		}
@@ -357,9 +1075,9 @@ public class Voluminator {
 			int result = 0;
 			int left = 0, right = 0;
 		
-			for(Polygon p : polygons)
+			for(int i = 0; i < polygons.length; i++)
 			{
-				double cut = p.LineCutsPolygon(l);
+				double cut = polygons[i].lineCuts(px, py, pz, axis);
 				
 				//Test if the intersection is in positive or negative direction on the line
 				if(cut > 0.0)
@@ -386,35 +1104,25 @@ public class Voluminator {
 	/**
 	 * Tests if line cuts a uneven number of polygons on the "left" side of its starting point and also on the "right" side
 	 * (if the answer is yes for both, the starting point is probably inside an object)
-	 * @param l
+	 * The line is given by its starting point px,py,pz and the axis of its direction.
+	 * @param px
+	 * @param py
+	 * @param pz
+	 * @param axis
 	 * @param polygons
 	 * @return
 	 */
-	private boolean testLinePolygons(Line l, Vector<Polygon> polygons) 
+	private boolean testLinePolygons(double px, double py, double pz, int axis, Polygon[] polygons) 
 	{
 	
 		if(options.removeDuplicateIntersections)
 			{
-			//By using TreeSet as data structure, duplicate intersections are removed
-			TreeSet<Double> left = new TreeSet<Double>();
-			TreeSet<Double> right = new TreeSet<Double>();
-			for(Polygon p : polygons)
-			{
-				double cut = p.LineCutsPolygon(l);
-				
-				//Test if the intersection is in positive or negative direction on the line
-				if(cut > 0.0)
-				{
-					right.add(cut);
-				}
-				
-				if(cut < 0.0)
-				{
-					left.add(cut);
-				}
-			}
+			collectCuts(px, py, pz, axis, polygons);
+			//duplicate intersections are removed by counting only distinct values
+			int left = countDistinct(leftCuts, numLeftCuts, options.duplicateIntersectionTolerance);
+			int right = countDistinct(rightCuts, numRightCuts, options.duplicateIntersectionTolerance);
 			
-			if( (left.size()%2 == 1) && (right.size()%2 == 1) && (left.size()>0) && (right.size()>0))
+			if( (left%2 == 1) && (right%2 == 1) && (left>0) && (right>0))
 			{
 				return true;
 			}
@@ -426,9 +1134,9 @@ public class Voluminator {
 		else
 		{
 			int left = 0, right = 0;
-			for(Polygon p : polygons)
+			for(int i = 0; i < polygons.length; i++)
 			{
-				double cut = p.LineCutsPolygon(l);
+				double cut = polygons[i].lineCuts(px, py, pz, axis);
 				
 				//Test if the intersection is in positive or negative direction on the line
 				if(cut > 0.0)
@@ -454,6 +1162,76 @@ public class Voluminator {
 	}
 	
 	
+	/**
+	 * Stores all intersections of line l with the polygons in leftCuts (negative direction) and rightCuts (positive direction).
+	 * The buffers are reused and only grow if a line has more intersections than any line before.
+	 * @param px
+	 * @param py
+	 * @param pz
+	 * @param axis
+	 * @param polygons
+	 */
+	private void collectCuts(double px, double py, double pz, int axis, Polygon[] polygons)
+	{
+		numLeftCuts = 0;
+		numRightCuts = 0;
+		for(int i = 0; i < polygons.length; i++)
+		{
+			double cut = polygons[i].lineCuts(px, py, pz, axis);
+			
+			//Test if the intersection is in positive or negative direction on the line
+			if(cut > 0.0)
+			{
+				if(numRightCuts == rightCuts.length)
+					rightCuts = Arrays.copyOf(rightCuts, 2 * numRightCuts);
+				rightCuts[numRightCuts++] = cut;
+			}
+			
+			if(cut < 0.0)
+			{
+				if(numLeftCuts == leftCuts.length)
+					leftCuts = Arrays.copyOf(leftCuts, 2 * numLeftCuts);
+				leftCuts[numLeftCuts++] = cut;
+			}
+		}
+	}
+	
+	/**
+	 * Sorts the first size values of cuts and returns the number of distinct values. 
+	 * Values which differ by no more than tolerance from their predecessor are treated as duplicates.
+	 * @param cuts
+	 * @param size
+	 * @param tolerance
+	 * @return
+	 */
+	static int countDistinct(double[] cuts, int size, double tolerance)
+	{
+		if(size < 2)
+			return size;
+		
+		Arrays.sort(cuts, 0, size);
+		int result = 1;
+		for(int i = 1; i < size; i++)
+		{
+			if(cuts[i] - cuts[i-1] > tolerance)
+				result++;
+		}
+		return result;
+	}
+	
+	/**
+	 * Constructs the polygons of CityGML boundary surface properties. The GroundSurfaces are kept for the footprint 
+	 * if options.footprintSkipping is FOOTPRINT_GROUND_SURFACE.
+	 * @param bsp
+	 * @return
+	 */
+	private Vector<Polygon> constructPolygons(List<BoundarySurfaceProperty> bsp)
+	{
+		PolygonConstructor constructor = new PolygonConstructor();
+		groundSurfaces = (options.footprintSkipping == Options.FOOTPRINT_GROUND_SURFACE) ? constructor.constructGroundSurfaces(bsp) : null;
+		return constructor.constructPolygons(bsp);
+	}
+	
 	/**
 	 *  Overloaded method setting options and calling computeVolume(Vector<Polygon> polygons) 
 	 *  
@@ -464,7 +1242,7 @@ public class Voluminator {
 	public double computeVolume(List<BoundarySurfaceProperty> bsp, Options o)
 	{
 		options = o;
-		Vector<Polygon> polygons = new PolygonConstructor().constructPolygons(bsp);
+		Vector<Polygon> polygons = constructPolygons(bsp);
 		return  computeVolume(polygons);
 	}
 	/**
@@ -475,7 +1253,7 @@ public class Voluminator {
 	 */
 	public double computeVolume(List<BoundarySurfaceProperty> bsp)
 	{
-		Vector<Polygon> polygons = new PolygonConstructor().constructPolygons(bsp);
+		Vector<Polygon> polygons = constructPolygons(bsp);
 		return  computeVolume(polygons);
 	}
 	
@@ -503,7 +1281,7 @@ public class Voluminator {
 	public double computeVolumeProbabilityVersion(List<BoundarySurfaceProperty> bsp, Options o)
 	{
 		options = o;
-		Vector<Polygon> polygons = new PolygonConstructor().constructPolygons(bsp);
+		Vector<Polygon> polygons = constructPolygons(bsp);
 		return  computeVolumeProbabilityVersion(polygons);
 	}
 	/**
@@ -514,7 +1292,7 @@ public class Voluminator {
 	 */
 	public double computeVolumeProbabilityVersion(List<BoundarySurfaceProperty> bsp)
 	{
-		Vector<Polygon> polygons = new PolygonConstructor().constructPolygons(bsp);
+		Vector<Polygon> polygons = constructPolygons(bsp);
 		return  computeVolumeProbabilityVersion(polygons);
 	}
 	
@@ -531,6 +1309,188 @@ public class Voluminator {
 		return computeVolumeProbabilityVersion(polygons);
 	}
 	
+	/**
+	 * Overloaded method setting options and calling computeVolumeMultiResolution(Vector<Polygon> polygons, double[] voxelsizes)
+	 * with the voxel sizes of options.multiResolutionVoxelsizes
+	 * 
+	 * @param bsp
+	 * @param o
+	 * @return
+	 */
+	public double[] computeVolumeMultiResolution(List<BoundarySurfaceProperty> bsp, Options o)
+	{
+		options = o;
+		Vector<Polygon> polygons = constructPolygons(bsp);
+		return computeVolumeMultiResolution(polygons, o.multiResolutionVoxelsizes);
+	}
+	
+	/**
+	 * Overloaded method setting options and calling computeVolumeMultiResolution(Vector<Polygon> polygons, double[] voxelsizes)
+	 * with the voxel sizes of options.multiResolutionVoxelsizes
+	 * 
+	 * @param polygons
+	 * @param o
+	 * @return
+	 */
+	public double[] computeVolumeMultiResolution(Vector<Polygon> polygons, Options o)
+	{
+		options = o;
+		return computeVolumeMultiResolution(polygons, o.multiResolutionVoxelsizes);
+	}
+	
+	/**
+	 * Overloaded method setting options and calling computeVolumeAutoResolution(Vector<Polygon> polygons)
+	 * 
+	 * @param bsp
+	 * @param o
+	 * @return
+	 */
+	public double computeVolumeAutoResolution(List<BoundarySurfaceProperty> bsp, Options o)
+	{
+		options = o;
+		Vector<Polygon> polygons = constructPolygons(bsp);
+		return computeVolumeAutoResolution(polygons);
+	}
+	
+	/**
+	 * Overloaded method setting options and calling computeVolumeAutoResolution(Vector<Polygon> polygons)
+	 * 
+	 * @param polygons
+	 * @param o
+	 * @return
+	 */
+	public double computeVolumeAutoResolution(Vector<Polygon> polygons, Options o)
+	{
+		options = o;
+		return computeVolumeAutoResolution(polygons);
+	}
+	
+	/**
+	 * Overloaded method setting options and calling computeVolumeExtrapolated(Vector<Polygon> polygons)
+	 * 
+	 * @param polygons
+	 * @param o
+	 * @return
+	 */
+	public double computeVolumeExtrapolated(Vector<Polygon> polygons, Options o)
+	{
+		options = o;
+		return computeVolumeExtrapolated(polygons);
+	}
+	
+	/**
+	 * Returns the order of the error model used by the last call of computeVolumeExtrapolated
+	 * @return
+	 */
+	public double getExtrapolationOrder()
+	{
+		return extrapolationOrder;
+	}
+	
+	/**
+	 * Overloaded method setting options and calling computeVolumeLineIntegral(Vector<Polygon> polygons)
+	 * 
+	 * @param polygons
+	 * @param o
+	 * @return
+	 */
+	public double computeVolumeLineIntegral(Vector<Polygon> polygons, Options o)
+	{
+		options = o;
+		return computeVolumeLineIntegral(polygons);
+	}
+	
+	/**
+	 * Returns the volumes along the x-, y- and z-axis of the last call of computeVolumeLineIntegral, whose average is the volume.
+	 * Their spread indicates the error of the lattice or gaps in the surface.
+	 * @return
+	 */
+	public double[] getLineIntegralVolumes()
+	{
+		return (lineIntegralVolumes != null) ? lineIntegralVolumes.clone() : null;
+	}
+	
+	/**
+	 * Overloaded method setting options and calling computeVolumeMonteCarlo(Vector<Polygon> polygons)
+	 * 
+	 * @param polygons
+	 * @param o
+	 * @return
+	 */
+	public double computeVolumeMonteCarlo(Vector<Polygon> polygons, Options o)
+	{
+		options = o;
+		return computeVolumeMonteCarlo(polygons);
+	}
+	
+	/**
+	 * Returns the estimate of the last call of computeVolumeMonteCarlo with its confidence interval and number of points
+	 * @return
+	 */
+	public VolumeEstimate getVolumeEstimate()
+	{
+		return volumeEstimate;
+	}
+	
+	/**
+	 * Returns the fraction of the voxels of the last classification which were set to outside without casting rays 
+	 * because they are outside of the footprint (cf. Options.footprintSkipping)
+	 * @return
+	 */
+	public double getSkippedFraction()
+	{
+		return skippedFraction;
+	}
+	
+	/**
+	 * Sets the GroundSurfaces of the building, which are used for the footprint if options.footprintSkipping is 
+	 * FOOTPRINT_GROUND_SURFACE. If null or empty, the footprint is derived from all polygons.
+	 * @param groundSurfaces
+	 */
+	public void setGroundSurfaces(Vector<Polygon> groundSurfaces)
+	{
+		this.groundSurfaces = groundSurfaces;
+	}
+	
+	/**
+	 * Returns the voxel size chosen by the last call of computeVolumeAutoResolution
+	 * @return
+	 */
+	public double getUsedVoxelsize()
+	{
+		return usedVoxelsize;
+	}
+	
+	/**
+	 * Returns how often the early exit vote (cf. options.earlyExitVoting) has been decided after testing 0, 1, 2 or 3 lines
+	 * in the last computation. 
+	 * @return
+	 */
+	public long[] getVoteDepthStatistics()
+	{
+		return voteDepthStatistics.clone();
+	}
+	
+	/**
+	 * Returns true if the last volume has been computed exactly from a closed surface instead of by voxels
+	 * (cf. options.exactVolumeForClosedSurfaces)
+	 * @return
+	 */
+	public boolean isExactVolumeUsed()
+	{
+		return exactVolumeUsed;
+	}
+	
+	/**
+	 * Sets if the voxel volume is written by the computation (false, default) or later by calling writeVoxelvolume(String, String, boolean),
+	 * e.g. by another thread.
+	 * @param deferVoxelExport
+	 */
+	public void setDeferVoxelExport(boolean deferVoxelExport)
+	{
+		this.deferVoxelExport = deferVoxelExport;
+	}
+	
 	/**
 	 * Returns the model of the voxelvolume.
 	 * @return